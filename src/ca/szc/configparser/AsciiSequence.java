@@ -0,0 +1,85 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link CharSequence} view of a range of a byte array that contains only ASCII characters, so each byte is one
+ * char and no decoding is needed.
+ */
+final class AsciiSequence implements CharSequence
+{
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * Check if a range of bytes contains only ASCII characters
+     */
+    static boolean isAscii(byte[] bytes, int offset, int length)
+    {
+        int end = offset + length;
+        int i = offset;
+
+        // Eight bytes at a time while possible
+        ByteBuffer words = ByteBuffer.wrap(bytes);
+        for (; i + 8 <= end; i += 8)
+            if ((words.getLong(i) & HIGH_BITS) != 0)
+                return false;
+
+        for (; i < end; i++)
+            if (bytes[i] < 0)
+                return false;
+        return true;
+    }
+
+    private final byte[] bytes;
+
+    private final int length;
+
+    private final int offset;
+
+    AsciiSequence(byte[] bytes, int offset, int length)
+    {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return (char) bytes[offset + index];
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return new AsciiSequence(bytes, offset + start, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
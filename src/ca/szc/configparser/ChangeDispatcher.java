@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Turns section changes into {@link IniChangeEvent}s for an {@link Ini}'s {@link IniChangeListener}s. Values are
+ * only materialized for changed options.
+ */
+final class ChangeDispatcher implements SectionListener
+{
+    private static String valueOf(Object value)
+    {
+        return value == null ? null : value.toString();
+    }
+
+    private final Ini ini;
+
+    /** Listeners may remove themselves while being notified */
+    private final List<IniChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Set while values that were just read are interpolated, which is part of adding them */
+    boolean muted;
+
+    ChangeDispatcher(Ini ini)
+    {
+        this.ini = ini;
+    }
+
+    void addListener(IniChangeListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    private void fire(IniChangeEvent.Type type, String sectionName, String optionName, Object oldValue,
+            Object newValue)
+    {
+        if (muted)
+            return;
+
+        IniChangeEvent event = new IniChangeEvent(ini, type, sectionName, optionName, valueOf(oldValue),
+                valueOf(newValue));
+        for (IniChangeListener listener : listeners)
+            listener.iniChanged(event);
+    }
+
+    /**
+     * @return true if there are no listeners left
+     */
+    boolean isEmpty()
+    {
+        return listeners.isEmpty();
+    }
+
+    @Override
+    public void optionAdded(String sectionName, String optionName, Object value)
+    {
+        fire(IniChangeEvent.Type.OPTION_ADDED, sectionName, optionName, null, value);
+    }
+
+    @Override
+    public void optionChanged(String sectionName, String optionName, Object oldValue, Object newValue)
+    {
+        String oldString = valueOf(oldValue);
+        String newString = valueOf(newValue);
+        if (oldString == null ? newString == null : oldString.equals(newString))
+            return;
+        fire(IniChangeEvent.Type.OPTION_CHANGED, sectionName, optionName, oldString, newString);
+    }
+
+    @Override
+    public void optionRemoved(String sectionName, String optionName, Object value)
+    {
+        fire(IniChangeEvent.Type.OPTION_REMOVED, sectionName, optionName, value, null);
+    }
+
+    void removeListener(IniChangeListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void sectionAdded(String sectionName, SectionMap section)
+    {
+        fire(IniChangeEvent.Type.SECTION_ADDED, sectionName, null, null, null);
+    }
+
+    @Override
+    public void sectionRemoved(String sectionName, SectionMap section)
+    {
+        fire(IniChangeEvent.Type.SECTION_REMOVED, sectionName, null, null, null);
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Finds full line and inline comments in a single pass over a line, no matter how many comment prefixes are
+ * configured. All prefixes are compiled into one Aho-Corasick automaton, with a dense transition table for ASCII
+ * characters.
+ */
+final class CommentMatcher
+{
+    private static final int ASCII = 128;
+
+    private static final int[] NO_LENGTHS = new int[0];
+
+    /** Per node, the child node for each character, following goto edges only */
+    private final List<Map<Character, Integer>> children = new ArrayList<>();
+
+    /** Per node, true iff a full line comment prefix ends at that node */
+    private final boolean[] commentEnd;
+
+    /** Dense ASCII transition table, node * ASCII + character, with failure links already followed */
+    private final int[] delta;
+
+    /** Per node, the failure link */
+    private final int[] fail;
+
+    /** Per node, the lengths of all inline comment prefixes that end at that node, longest first */
+    private final int[][] inlineLengths;
+
+    /** True iff an empty prefix was configured, which makes every line a comment */
+    private final boolean matchesEverything;
+
+    private final int maxInlineLength;
+
+    /** True iff any prefix contains a non-ASCII character, so the sparse transitions have to be consulted */
+    private final boolean nonAscii;
+
+    /**
+     * @param commentPrefixes
+     *            prefixes that make a line a comment when they start its first non-whitespace character
+     * @param inlineCommentPrefixes
+     *            prefixes that start a comment at the start of a line or after a whitespace character
+     */
+    CommentMatcher(List<String> commentPrefixes, List<String> inlineCommentPrefixes)
+    {
+        children.add(new HashMap<Character, Integer>());
+        List<Boolean> commentEndList = new ArrayList<>();
+        commentEndList.add(false);
+        List<List<Integer>> inlineLengthList = new ArrayList<>();
+        inlineLengthList.add(new ArrayList<Integer>());
+
+        boolean empty = false;
+        boolean anyNonAscii = false;
+        int maxInline = 0;
+
+        // Build the trie
+        List<String> allPrefixes = new ArrayList<>(commentPrefixes);
+        allPrefixes.addAll(inlineCommentPrefixes);
+        for (int p = 0; p < allPrefixes.size(); p++)
+        {
+            String prefix = allPrefixes.get(p);
+            boolean inline = p >= commentPrefixes.size();
+            if (prefix.isEmpty())
+            {
+                empty = true;
+                continue;
+            }
+
+            int node = 0;
+            for (int i = 0; i < prefix.length(); i++)
+            {
+                char c = prefix.charAt(i);
+                if (c >= ASCII)
+                    anyNonAscii = true;
+                Integer child = children.get(node).get(c);
+                if (child == null)
+                {
+                    child = children.size();
+                    children.add(new HashMap<Character, Integer>());
+                    commentEndList.add(false);
+                    inlineLengthList.add(new ArrayList<Integer>());
+                    children.get(node).put(c, child);
+                }
+                node = child;
+            }
+
+            if (inline)
+            {
+                inlineLengthList.get(node).add(prefix.length());
+                maxInline = Math.max(maxInline, prefix.length());
+            }
+            else
+            {
+                commentEndList.set(node, true);
+            }
+        }
+
+        matchesEverything = empty;
+        maxInlineLength = maxInline;
+        nonAscii = anyNonAscii;
+
+        int nodeCount = children.size();
+        commentEnd = new boolean[nodeCount];
+        for (int n = 0; n < nodeCount; n++)
+            commentEnd[n] = commentEndList.get(n);
+        fail = new int[nodeCount];
+        delta = new int[nodeCount * ASCII];
+
+        // Breadth first, so failure nodes are always complete before the nodes that link to them
+        Queue<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty())
+        {
+            int node = queue.remove();
+            for (Map.Entry<Character, Integer> edge : children.get(node).entrySet())
+            {
+                int child = edge.getValue();
+                fail[child] = node == 0 ? 0 : transition(fail[node], edge.getKey());
+                // Prefixes ending at the failure node also end here
+                inlineLengthList.get(child).addAll(inlineLengthList.get(fail[child]));
+                queue.add(child);
+            }
+            for (char c = 0; c < ASCII; c++)
+            {
+                Integer child = children.get(node).get(c);
+                if (child != null)
+                    delta[node * ASCII + c] = child;
+                else
+                    delta[node * ASCII + c] = node == 0 ? 0 : delta[fail[node] * ASCII + c];
+            }
+        }
+
+        inlineLengths = new int[nodeCount][];
+        for (int n = 0; n < nodeCount; n++)
+        {
+            List<Integer> lengths = inlineLengthList.get(n);
+            if (lengths.isEmpty())
+            {
+                inlineLengths[n] = NO_LENGTHS;
+                continue;
+            }
+            int[] sorted = new int[lengths.size()];
+            for (int i = 0; i < sorted.length; i++)
+                sorted[i] = -lengths.get(i);
+            Arrays.sort(sorted);
+            for (int i = 0; i < sorted.length; i++)
+                sorted[i] = -sorted[i];
+            inlineLengths[n] = sorted;
+        }
+
+    }
+
+    /**
+     * Find where the comment on a line starts, if it has one
+     *
+     * @param line
+     *            the line to search, without line terminators
+     * @return 0 if the whole line is a comment, the index of the earliest inline comment prefix, or -1 if there is no
+     *         comment
+     */
+    int commentStart(CharSequence line)
+    {
+        return commentStart(line, 0, line.length());
+    }
+
+    /**
+     * Find where the comment on a line starts, if it has one
+     *
+     * @param text
+     *            the text containing the line
+     * @param start
+     *            the index of the first character of the line in text
+     * @param end
+     *            the index after the last character of the line in text
+     * @return 0 if the whole line is a comment, the index relative to start of the earliest inline comment prefix, or
+     *         -1 if there is no comment
+     */
+    int commentStart(CharSequence text, int start, int end)
+    {
+        if (matchesEverything)
+            return 0;
+
+        int state = 0;
+        // Walks the trie from the first non-whitespace character, to find full line comment prefixes
+        int anchored = -1;
+        boolean leadingWhitespace = true;
+        int earliest = -1;
+
+        for (int i = start; i < end; i++)
+        {
+            char c = text.charAt(i);
+
+            if (leadingWhitespace && !Character.isWhitespace(c))
+            {
+                leadingWhitespace = false;
+                anchored = 0;
+            }
+            if (anchored >= 0)
+            {
+                Integer child = children.get(anchored).get(c);
+                anchored = child == null ? -1 : child;
+                if (anchored >= 0 && commentEnd[anchored])
+                    return 0;
+            }
+
+            state = c < ASCII ? delta[state * ASCII + c] : transition(state, c);
+            for (int length : inlineLengths[state])
+            {
+                int prefixStart = i + 1 - length;
+                if (prefixStart == start || Character.isWhitespace(text.charAt(prefixStart - 1)))
+                {
+                    // Longest first, so this is the earliest start for prefixes ending here
+                    if (earliest == -1 || prefixStart < earliest)
+                        earliest = prefixStart;
+                    break;
+                }
+            }
+
+            // No later match can start before the earliest one found, and no full line comment is possible
+            if (earliest != -1 && !leadingWhitespace && anchored < 0 && i + 1 - maxInlineLength >= earliest)
+                break;
+        }
+
+        return earliest == -1 ? -1 : earliest - start;
+    }
+
+    /**
+     * Follow goto and failure links for a character. Used for non-ASCII characters, and while building the dense
+     * table.
+     */
+    private int transition(int node, char c)
+    {
+        if (c >= ASCII && !nonAscii)
+            return 0;
+        while (true)
+        {
+            Integer child = children.get(node).get(c);
+            if (child != null)
+                return child;
+            if (node == 0)
+                return 0;
+            node = fail[node];
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How INI text is compressed when it is stored. Compressed input is recognized by its magic bytes, so reading doesn't
+ * need to be told about it.
+ */
+public enum Compression
+{
+    /**
+     * Plain text
+     */
+    NONE
+    {
+        @Override
+        public InputStream decompress(InputStream in)
+        {
+            return in;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out)
+        {
+            return out;
+        }
+    },
+
+    /**
+     * The gzip format, as written by gzip and {@link GZIPOutputStream}
+     */
+    GZIP
+    {
+        @Override
+        public InputStream decompress(InputStream in) throws IOException
+        {
+            return new GZIPInputStream(in, 8192);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException
+        {
+            return new GZIPOutputStream(out, 8192);
+        }
+    };
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    /**
+     * Recognize the compression of data by its first bytes
+     *
+     * @return the compression, {@link #NONE} if it is not recognized
+     */
+    public static Compression detect(byte[] bytes, int offset, int length)
+    {
+        if (length >= 2 && (bytes[offset] & 0xff) == GZIP_MAGIC_1 && (bytes[offset + 1] & 0xff) == GZIP_MAGIC_2)
+            return GZIP;
+        return NONE;
+    }
+
+    /**
+     * Recognize the compression of a stream by its first bytes, and decompress it
+     *
+     * @param in
+     *            the stream, which is buffered if it doesn't support {@link InputStream#mark(int)}
+     * @return a stream of the decompressed data
+     * @throws IOException
+     *             When the stream can't be read
+     */
+    public static InputStream detectAndDecompress(InputStream in) throws IOException
+    {
+        if (!in.markSupported())
+            in = new BufferedInputStream(in, 8192);
+
+        byte[] magic = new byte[2];
+        in.mark(magic.length);
+        int length = 0;
+        int count;
+        while (length < magic.length && (count = in.read(magic, length, magic.length - length)) != -1)
+            length += count;
+        in.reset();
+
+        return detect(magic, 0, length).decompress(in);
+    }
+
+    /**
+     * Wrap a stream so data written to it is compressed. Closing the returned stream finishes the compressed data.
+     */
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wrap a stream of compressed data so it is decompressed as it is read
+     */
+    public abstract InputStream decompress(InputStream in) throws IOException;
+}
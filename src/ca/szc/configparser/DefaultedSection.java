@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import ca.szc.configparser.exceptions.NoOptionError;
+import ca.szc.configparser.exceptions.NoSectionError;
+
+/**
+ * Read-only view of a section layered over the default section. Lookups fall through to the default section when
+ * the section has no such option, nothing is copied.
+ */
+final class DefaultedSection extends AbstractMap<String, String>
+{
+    private final Map<String, String> defaults;
+
+    private final Ini ini;
+
+    private final Map<String, String> section;
+
+    private final String sectionName;
+
+    DefaultedSection(Ini ini, String sectionName, Map<String, String> section, Map<String, String> defaults)
+    {
+        this.ini = ini;
+        this.sectionName = sectionName;
+        this.section = section;
+        this.defaults = defaults;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return section.containsKey(key) || defaults.containsKey(key);
+    }
+
+    /**
+     * The section's options, followed by the default options it does not override
+     */
+    @Override
+    public Set<Entry<String, String>> entrySet()
+    {
+        return new AbstractSet<Entry<String, String>>()
+        {
+            @Override
+            public Iterator<Entry<String, String>> iterator()
+            {
+                final Iterator<String> sectionKeys = section.keySet().iterator();
+                final Iterator<String> defaultKeys = defaults.keySet().iterator();
+
+                return new Iterator<Entry<String, String>>()
+                {
+                    private String next = advance();
+
+                    private String advance()
+                    {
+                        if (sectionKeys.hasNext())
+                            return sectionKeys.next();
+                        while (defaultKeys.hasNext())
+                        {
+                            String key = defaultKeys.next();
+                            if (!section.containsKey(key))
+                                return key;
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return next != null;
+                    }
+
+                    @Override
+                    public Entry<String, String> next()
+                    {
+                        if (next == null)
+                            throw new NoSuchElementException();
+                        String key = next;
+                        next = advance();
+                        return new SimpleImmutableEntry<>(key, get(key));
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                int size = section.size();
+                for (String key : defaults.keySet())
+                    if (!section.containsKey(key))
+                        size++;
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public String get(Object key)
+    {
+        if (!(key instanceof String) || !containsKey(key))
+            return null;
+        try
+        {
+            return ini.getValue(sectionName, (String) key);
+        }
+        catch (NoSectionError | NoOptionError e)
+        {
+            // The section was removed from the Ini after this view was created
+            return null;
+        }
+    }
+}
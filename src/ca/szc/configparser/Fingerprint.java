@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+/**
+ * Stable 64 bit content hashes of options and sections. Text is hashed as UTF-16 code units with FNV-1a, and every
+ * option hash is finished with a bit mixer so that option hashes can be summed into a section hash that doesn't
+ * depend on option order.
+ */
+final class Fingerprint
+{
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Continue a hash with the characters in a range of text
+     */
+    static long hash(long hash, CharSequence text, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+            hash = hash(hash, text.charAt(i));
+        return hash;
+    }
+
+    /**
+     * Continue a hash with one character
+     */
+    static long hash(long hash, char c)
+    {
+        hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+        return (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+
+    /**
+     * Combine the hashes of two child nodes of a hash tree. The order of the children matters.
+     */
+    static long combine(long left, long right)
+    {
+        return mix(left ^ mix(right + 0x9e3779b97f4a7c15L));
+    }
+
+    /**
+     * Spread the bits of a hash, the finalizer of MurmurHash3
+     */
+    static long mix(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Hash an option
+     *
+     * @param value
+     *            the stored value, a {@link String}, a {@link LazyValue} or null
+     */
+    static long option(String optionName, Object value)
+    {
+        long hash = hash(FNV_OFFSET_BASIS, optionName, 0, optionName.length());
+        // Tag the value, so no value and an empty value differ and the name can't run into the value
+        if (value == null)
+        {
+            hash = hash(hash, '\0');
+        }
+        else
+        {
+            hash = hash(hash, '\1');
+            if (value instanceof LazyValue)
+                hash = ((LazyValue) value).hash(hash);
+            else
+                hash = hash(hash, (String) value, 0, ((String) value).length());
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Hash a section name
+     */
+    static long name(String sectionName)
+    {
+        return mix(hash(FNV_OFFSET_BASIS, sectionName, 0, sectionName.length()));
+    }
+
+    /**
+     * Hash a section
+     *
+     * @param contentHash
+     *            the sum of the section's option hashes
+     */
+    static long section(String sectionName, long contentHash)
+    {
+        return mix(name(sectionName) ^ mix(contentHash));
+    }
+
+    private Fingerprint()
+    {
+    }
+}
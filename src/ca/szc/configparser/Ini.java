@@ -18,29 +18,39 @@ package ca.szc.configparser;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import ca.szc.configparser.exceptions.DuplicateOptionError;
-import ca.szc.configparser.exceptions.DuplicateSectionError;
 import ca.szc.configparser.exceptions.IniParserException;
 import ca.szc.configparser.exceptions.InterpolationDepthError;
 import ca.szc.configparser.exceptions.InterpolationMissingOptionError;
 import ca.szc.configparser.exceptions.InterpolationSyntaxError;
-import ca.szc.configparser.exceptions.InvalidLine;
-import ca.szc.configparser.exceptions.MissingSectionHeaderError;
 import ca.szc.configparser.exceptions.NoOptionError;
 import ca.szc.configparser.exceptions.NoSectionError;
 import ca.szc.configparser.exceptions.ParsingError;
@@ -51,163 +61,628 @@ import ca.szc.configparser.exceptions.ParsingError;
  */
 public class Ini
 {
-    private static final Pattern nonWhitespacePattern = Pattern.compile("\\S");
+    /**
+     * Forgets the uninterpolated values of options that are changed or removed other than by interpolation, so they
+     * are not written in place of the new values
+     */
+    private final class RawValueTracker implements SectionListener
+    {
+        private void forget(String sectionName, String optionName)
+        {
+            Map<String, String> sectionRawValues = rawValues.get(sectionName);
+            if (sectionRawValues != null)
+                sectionRawValues.remove(optionName);
+        }
+
+        @Override
+        public void optionAdded(String sectionName, String optionName, Object value)
+        {
+            forget(sectionName, optionName);
+        }
+
+        @Override
+        public void optionChanged(String sectionName, String optionName, Object oldValue, Object newValue)
+        {
+            forget(sectionName, optionName);
+        }
+
+        @Override
+        public void optionRemoved(String sectionName, String optionName, Object value)
+        {
+            forget(sectionName, optionName);
+        }
+
+        @Override
+        public void sectionAdded(String sectionName, SectionMap section)
+        {
+            rawValues.remove(sectionName);
+        }
 
-    private static final Pattern sectionPattern = Pattern.compile(templateSectionPattern());
+        @Override
+        public void sectionRemoved(String sectionName, SectionMap section)
+        {
+            rawValues.remove(sectionName);
+        }
+    }
+
+    /** Returned by {@link #find(String, String, boolean)} for options that don't exist */
+    private static final Object MISSING = new Object();
 
     private static final Pattern interpolationPattern = Pattern.compile("\\$\\{([^}]+)\\}");
 
     private static final int MAX_INTERPOLATION_DEPTH = 10;
 
+    private IniFormat format;
+
+    final SectionsMap sections;
+
+    private ChangeDispatcher changeDispatcher;
+
+    private IniFingerprint fingerprint;
+
+    private OptionIndexer optionIndexer;
+
+    /** Options whose stored values are being recomputed by {@link #edit(IniEditor)}, by section name */
+    private Map<String, Set<String>> pendingAffected;
+
+    /** The batch being applied by {@link #edit(IniEditor)}, which interpolation sees instead of the stored values */
+    private IniBatch pendingBatch;
+
+    private SectionNameIndexer sectionNameIndexer;
+
+    /** Section name to option name to the uninterpolated value, for options whose stored value was interpolated */
+    private Map<String, Map<String, String>> rawValues;
+
     /**
-     * Create the regular expression source for the {@link #optionPattern}
+     * Creates an INI parser with the default configuration
      */
-    private static String templateOptionPattern(List<String> delimiters, boolean allowNoValue)
+    public Ini()
     {
-        // Join delimiters with | character
-        StringBuilder sb = new StringBuilder();
-        String prefix = "";
-        for (String delimiter : delimiters)
+        this(IniFormat.DEFAULT);
+    }
+
+    /**
+     * Creates an INI parser with a specified configuration
+     *
+     * @param format
+     *            the {@link IniFormat} to read and write with
+     */
+    public Ini(IniFormat format)
+    {
+        this.format = format;
+
+        sections = new SectionsMap();
+        sections.addListener(new RawValueTracker());
+
+        rawValues = new HashMap<>();
+    }
+
+    /**
+     * Register a listener to be told about every change to the sections and options, whether it is made through
+     * {@link #getSections()}, by reading or by {@link #reload(Path)}
+     *
+     * @return this Ini
+     */
+    public Ini addChangeListener(IniChangeListener listener)
+    {
+        if (changeDispatcher == null)
         {
-            sb.append(prefix);
-            prefix = "|";
-            sb.append(Pattern.quote(delimiter));
+            changeDispatcher = new ChangeDispatcher(this);
+            sections.addListener(changeDispatcher);
         }
-        String delimiterRegEx = sb.toString();
+        changeDispatcher.addListener(listener);
+        return this;
+    }
+
+    /**
+     * Make a set of changes at once. The editor records the changes in an {@link IniBatch}, then they are applied
+     * together. Values with interpolation references are resolved, and so are the stored values of the options that
+     * refer to a changed option, directly or through other options. All other values are left alone, and only the
+     * options with references are examined to find the ones that need resolving again.
+     * <p>
+     * If any reference can't be resolved, nothing is changed. Otherwise the changes are made through
+     * {@link #getSections()}, so indexes and {@link IniChangeListener}s see each of them.
+     *
+     * @param editor
+     *            records the changes
+     * @return this Ini
+     * @throws IniParserException
+     *             When the changes cause interpolation errors. Nothing is changed.
+     */
+    public Ini edit(IniEditor editor) throws IniParserException
+    {
+        sections.checkWritable();
+        IniBatch batch = new IniBatch(sections);
+        editor.edit(batch);
+        if (batch.isEmpty())
+            return this;
+
+        // Section name to option name to the interpolated value, for options whose value has references
+        Map<String, Map<String, String>> resolved = new LinkedHashMap<>();
+        if (format.isAllowInterpolation())
+            resolve(batch, resolved);
+
+        for (String sectionName : batch.removedSections)
+            sections.remove(sectionName);
 
-        // Create the option pattern
-        sb = new StringBuilder();
+        for (Entry<String, Map<String, Object>> sectionChanges : batch.changes.entrySet())
+        {
+            String sectionName = sectionChanges.getKey();
+            Map<String, String> section = sections.get(sectionName);
+            if (section == null)
+            {
+                sections.put(sectionName, new SectionMap());
+                section = sections.get(sectionName);
+            }
+
+            for (Entry<String, Object> change : sectionChanges.getValue().entrySet())
+            {
+                String optionName = change.getKey();
+                ((SectionMap) section).clearPosition(optionName);
+                if (change.getValue() == IniBatch.REMOVED)
+                {
+                    section.remove(optionName);
+                    continue;
+                }
 
-        // Option name: any characters
-        sb.append("(?<option>.*?)");
+                String value = (String) change.getValue();
+                String resolvedValue = resolved.containsKey(sectionName) ? resolved.get(sectionName).get(optionName)
+                        : null;
+                if (resolvedValue == null)
+                {
+                    section.put(optionName, value);
+                }
+                else
+                {
+                    section.put(optionName, resolvedValue);
+                    putRawValue(sectionName, optionName, value);
+                }
+            }
+        }
 
-        // Zero or more whitespace
-        sb.append("\\s*");
+        // Options that refer to changed options keep their raw values, but get new interpolated values
+        for (Entry<String, Map<String, String>> sectionResolved : resolved.entrySet())
+        {
+            String sectionName = sectionResolved.getKey();
+            Map<String, Object> changes = batch.changes.get(sectionName);
+            for (Entry<String, String> option : sectionResolved.getValue().entrySet())
+            {
+                String optionName = option.getKey();
+                if (changes != null && changes.containsKey(optionName))
+                    continue;
 
-        // Open optional value group
-        if (allowNoValue)
-            sb.append("(?:");
+                String rawValue = getRawValue(sectionName, optionName);
+                sections.get(sectionName).put(optionName, option.getValue());
+                putRawValue(sectionName, optionName, rawValue);
+            }
+        }
+        return this;
+    }
 
-        // Delimiter: one option in delimiterRegEx
-        sb.append("(?<vi>");
-        sb.append(delimiterRegEx);
-        sb.append(")");
+    /**
+     * Find the options affected by a batch: the changed options, and the options that refer to them, directly or
+     * through other options. References to an option are assumed to be able to resolve to the same option in the
+     * default section too.
+     *
+     * @return section name to option names
+     */
+    private Map<String, Set<String>> findAffected(IniBatch batch)
+    {
+        String defaultSection = format.getDefaultSection();
 
-        // Zero or more whitespace
-        sb.append("\\s*");
+        // Section name to option name to the options that refer to it, built from the options with references only
+        Map<String, Map<String, List<String[]>>> dependents = new HashMap<>();
+        for (Entry<String, Map<String, String>> sectionRawValues : rawValues.entrySet())
+        {
+            for (Entry<String, String> rawValue : sectionRawValues.getValue().entrySet())
+            {
+                String[] dependent = { sectionRawValues.getKey(), rawValue.getKey() };
+                Matcher m = interpolationPattern.matcher(rawValue.getValue());
+                while (m.find())
+                {
+                    String[] path = m.group(1).split(":");
+                    if (path.length > 2)
+                        continue;
+                    String sectionName = path.length == 2 ? path[0] : dependent[0];
+                    String optionName = path[path.length - 1].toLowerCase();
+                    addDependent(dependents, sectionName, optionName, dependent);
+                    if (defaultSection != null && !defaultSection.equals(sectionName))
+                        addDependent(dependents, defaultSection, optionName, dependent);
+                }
+            }
+        }
 
-        // Value: all remaining characters
-        sb.append("(?<value>.*)");
+        Deque<String[]> queue = new ArrayDeque<>();
+        for (Entry<String, Map<String, Object>> sectionChanges : batch.changes.entrySet())
+            for (String optionName : sectionChanges.getValue().keySet())
+                queue.add(new String[] { sectionChanges.getKey(), optionName });
+        for (String sectionName : batch.removedSections)
+            for (String optionName : sections.get(sectionName).keySet())
+                queue.add(new String[] { sectionName, optionName });
 
-        // Close optional value group
-        if (allowNoValue)
-            sb.append(")?");
+        Map<String, Set<String>> affected = new LinkedHashMap<>();
+        while (!queue.isEmpty())
+        {
+            String[] option = queue.remove();
+            Set<String> sectionAffected = affected.get(option[0]);
+            if (sectionAffected == null)
+            {
+                sectionAffected = new LinkedHashSet<>();
+                affected.put(option[0], sectionAffected);
+            }
+            if (!sectionAffected.add(option[1]))
+                continue;
 
-        // End of line
-        sb.append("$");
+            Map<String, List<String[]>> sectionDependents = dependents.get(option[0]);
+            if (sectionDependents != null && sectionDependents.containsKey(option[1]))
+                queue.addAll(sectionDependents.get(option[1]));
+        }
+        return affected;
+    }
 
-        return sb.toString();
+    private static void addDependent(Map<String, Map<String, List<String[]>>> dependents, String sectionName,
+            String optionName, String[] dependent)
+    {
+        Map<String, List<String[]>> sectionDependents = dependents.get(sectionName);
+        if (sectionDependents == null)
+        {
+            sectionDependents = new HashMap<>();
+            dependents.put(sectionName, sectionDependents);
+        }
+        List<String[]> optionDependents = sectionDependents.get(optionName);
+        if (optionDependents == null)
+        {
+            optionDependents = new ArrayList<>();
+            sectionDependents.put(optionName, optionDependents);
+        }
+        optionDependents.add(dependent);
     }
 
     /**
-     * Create the regular expression source for the {@link #sectionPattern}
+     * Interpolate the options affected by a batch, as if it were applied
+     *
+     * @param resolved
+     *            receives section name to option name to the interpolated value, for the affected options that have
+     *            references
+     * @throws IniParserException
+     *             When any of the references can't be resolved
      */
-    private static String templateSectionPattern()
+    private void resolve(IniBatch batch, Map<String, Map<String, String>> resolved) throws IniParserException
     {
-        StringBuilder sb = new StringBuilder();
+        String defaultSection = format.getDefaultSection();
+        List<ParsingError> errors = new ArrayList<>();
 
-        // Literal [
-        sb.append("\\[");
+        pendingBatch = batch;
+        pendingAffected = findAffected(batch);
+        try
+        {
+            for (Entry<String, Set<String>> sectionAffected : pendingAffected.entrySet())
+            {
+                String sectionName = sectionAffected.getKey();
+                if (!batch.exists(sectionName))
+                    continue;
 
-        // Header: one or more characters except literal ]
-        sb.append("(?<header>[^]]+)");
+                boolean isDefaultSection = sectionName.equals(defaultSection);
+                for (String optionName : sectionAffected.getValue())
+                {
+                    Object rawValue = find(sectionName, optionName, true);
+                    if (rawValue == MISSING || rawValue == null || ((String) rawValue).indexOf('$') < 0)
+                        continue;
+
+                    List<String> accum = new ArrayList<>();
+                    ParsingError pe = interpolate(sectionName, optionName, accum, (String) rawValue, 1);
+                    if (pe == null)
+                        putResolved(resolved, sectionName, optionName, join(accum));
+                    // Default values can refer to options that only the inheriting sections have
+                    else if (isDefaultSection && pe instanceof InterpolationMissingOptionError)
+                        putResolved(resolved, sectionName, optionName, (String) rawValue);
+                    else
+                        errors.add(pe);
 
-        // Literal ]
-        sb.append("\\]");
+                    // Check changed default values in the context of every section that inherits them
+                    if (isDefaultSection)
+                    {
+                        Set<String> sectionNames = new LinkedHashSet<>(sections.keySet());
+                        sectionNames.addAll(batch.changes.keySet());
+                        for (String inheritingName : sectionNames)
+                        {
+                            if (inheritingName.equals(sectionName) || !batch.exists(inheritingName)
+                                    || find(inheritingName, optionName, false) != MISSING)
+                                continue;
+                            pe = interpolate(inheritingName, optionName, new ArrayList<String>(), (String) rawValue,
+                                    1);
+                            if (pe != null)
+                                errors.add(pe);
+                        }
+                    }
+                }
+            }
+        }
+        catch (NoSectionError e)
+        {
+            // Only sections that exist are looked at
+            throw new IllegalStateException(e);
+        }
+        finally
+        {
+            pendingBatch = null;
+            pendingAffected = null;
+        }
 
-        return sb.toString();
+        if (errors.size() > 0)
+            throw new IniParserException(errors);
     }
 
-    private boolean allowDuplicates;
-    private boolean allowInterpolation;
-    private boolean allowNoValue;
-    private List<String> commentPrefixes;
-    private List<String> delimiters;
-    private boolean emptyLinesInValues;
-    private List<String> inlineCommentPrefixes;
-    /** Map section:option to line number for use in error reporting. */
-    private Map<String, Integer> lineNumberMap;
-    private Pattern optionPattern;
-    List<ParsingError> parsingErrors = new LinkedList<>();
+    private static void putResolved(Map<String, Map<String, String>> resolved, String sectionName, String optionName,
+            String value)
+    {
+        Map<String, String> sectionResolved = resolved.get(sectionName);
+        if (sectionResolved == null)
+        {
+            sectionResolved = new LinkedHashMap<>();
+            resolved.put(sectionName, sectionResolved);
+        }
+        sectionResolved.put(optionName, value);
+    }
 
-    private final Map<String, Map<String, String>> sections;
+    /**
+     * Make this Ini read-only, so it can be shared. Afterwards changing the format, reading, reloading, editing or
+     * changing {@link #getSections()} throws {@link UnsupportedOperationException}. Values can be read from several
+     * threads at once. This can't be undone.
+     *
+     * @return this Ini
+     * @see IniCache
+     */
+    public Ini freeze()
+    {
+        sections.setReadOnly();
+        // Computed now, so reading the sections from several threads never writes to them
+        for (Map<String, String> section : sections.values())
+            ((SectionMap) section).contentHash();
+        return this;
+    }
 
-    private boolean spaceAroundDelimiters;
+    /**
+     * @return an unmodifiable list of the full line comment prefixes
+     */
+    public List<String> getCommentPrefixes()
+    {
+        return format.getCommentPrefixes();
+    }
 
-    private Map<String, String> rawValues;
+    /**
+     * @return an unmodifiable list of the key/value delimiters
+     */
+    public List<String> getDelimiters()
+    {
+        return format.getDelimiters();
+    }
 
     /**
-     * Creates an INI parser with the default configuration
+     * Get the content hashes of the options and sections, see {@link IniFingerprint}. They are computed on the first
+     * call, then kept up to date as this Ini changes. Frozen Inis can be read from several threads, so the first call
+     * is synchronized.
+     *
+     * @return the fingerprint, with depth {@link IniFingerprint#DEFAULT_DEPTH}
      */
-    public Ini()
+    public synchronized IniFingerprint getFingerprint()
     {
-        allowDuplicates = false;
+        if (fingerprint == null)
+            fingerprint = new IniFingerprint(sections, IniFingerprint.DEFAULT_DEPTH);
+        return fingerprint;
+    }
 
-        allowInterpolation = true;
+    public IniFormat getFormat()
+    {
+        return format;
+    }
 
-        allowNoValue = false;
+    /**
+     * @return an unmodifiable list of the partial line comment prefixes
+     */
+    public List<String> getInlineCommentPrefixes()
+    {
+        return format.getInlineCommentPrefixes();
+    }
 
-        commentPrefixes = new ArrayList<>(2);
-        commentPrefixes.add("#");
-        commentPrefixes.add(";");
+    /**
+     * @return the {@link OptionIndex} used by {@link #getSectionsWithOption(String)} and
+     *         {@link #getSectionsWithValue(String, String)}
+     */
+    public OptionIndex getOptionIndex()
+    {
+        if (optionIndexer == null)
+            return OptionIndex.NONE;
+        return optionIndexer.isIndexingValues() ? OptionIndex.NAMES_AND_VALUES : OptionIndex.NAMES;
+    }
 
-        delimiters = new ArrayList<>(2);
-        delimiters.add("=");
-        delimiters.add(":");
+    /**
+     * Get where an option was read from. Options not present in the section are looked up in the default section,
+     * see {@link #getDefaultSection()}. How much is remembered depends on
+     * {@link #setPositionTracking(PositionTracking)} at the time of reading. Positions are forgotten when an option is
+     * changed by {@link #edit(IniEditor)}.
+     *
+     * @return the position, or null if the option doesn't exist, wasn't read from INI text, or its position wasn't
+     *         tracked
+     */
+    public IniPosition getPosition(String sectionName, String optionName)
+    {
+        String key = optionName.toLowerCase();
+        SectionMap section = sections.get(sectionName);
+        if (section != null && section.containsKey(key))
+            return section.getPosition(key);
+
+        Map<String, String> defaults = getDefaults(sectionName);
+        if (defaults == null)
+            return null;
+        return ((SectionMap) defaults).getPosition(key);
+    }
 
-        emptyLinesInValues = true;
+    /**
+     * @return how much is remembered about where options were read from
+     */
+    public PositionTracking getPositionTracking()
+    {
+        return format.getPositionTracking();
+    }
 
-        inlineCommentPrefixes = new ArrayList<>(0);
+    /**
+     * Get the sections, in the order they were added. Changes to the returned map and its sections are reflected in
+     * this Ini. A section map that is added is copied, unless it is one this Ini created and no other section holds
+     * it. Values put here are stored as they are, without interpolation, use {@link #edit(IniEditor)} to have
+     * references resolved. The map can't be changed once this Ini is frozen, see {@link #freeze()}.
+     *
+     * @return the section name to option name to value map
+     */
+    public Map<String, Map<String, String>> getSections()
+    {
+        return sections;
+    }
 
-        lineNumberMap = new HashMap<String, Integer>();
+    /**
+     * Get the names of the sections that match a shell-style wildcard pattern, like Python's fnmatch.fnmatchcase().
+     * '*' matches everything, '?' matches any single character, '[seq]' matches any character in seq and '[!seq]'
+     * matches any character not in seq. Uses the index set by {@link #setIndexSectionNames(boolean)} to only check the
+     * names that start with the pattern's literal prefix, otherwise every section is checked.
+     *
+     * @param glob
+     *            the pattern, for example "server.*.web??"
+     * @return an unmodifiable set of section names, in sorted order
+     */
+    public Set<String> getSectionsMatching(String glob)
+    {
+        if (sectionNameIndexer != null)
+            return Collections.unmodifiableSet(sectionNameIndexer.getSectionsMatching(glob));
 
-        compileOptionPattern();
+        Pattern pattern = Pattern.compile(StringUtil.translateGlob(glob), Pattern.DOTALL);
+        Set<String> found = new TreeSet<>();
+        for (String sectionName : sections.keySet())
+            if (pattern.matcher(sectionName).matches())
+                found.add(sectionName);
+        return Collections.unmodifiableSet(found);
+    }
 
-        sections = new LinkedHashMap<>();
+    /**
+     * Get the names of the sections that start with a prefix. Uses the index set by
+     * {@link #setIndexSectionNames(boolean)}, otherwise every section is checked.
+     *
+     * @return an unmodifiable set of section names, in sorted order
+     */
+    public Set<String> getSectionsWithPrefix(String prefix)
+    {
+        if (sectionNameIndexer != null)
+            return Collections.unmodifiableSet(new TreeSet<>(sectionNameIndexer.getSectionsWithPrefix(prefix)));
 
-        spaceAroundDelimiters = true;
+        Set<String> found = new TreeSet<>();
+        for (String sectionName : sections.keySet())
+            if (sectionName.startsWith(prefix))
+                found.add(sectionName);
+        return Collections.unmodifiableSet(found);
+    }
 
-        rawValues = new HashMap<String, String>();
+    /**
+     * Get the names of the sections that have an option, not counting options inherited from the default section.
+     * Uses the index set by {@link #setOptionIndex(OptionIndex)}, otherwise every section is checked.
+     *
+     * @return an unmodifiable set of section names, empty if no section has the option
+     */
+    public Set<String> getSectionsWithOption(String optionName)
+    {
+        String key = optionName.toLowerCase();
+        if (optionIndexer != null)
+            return copyOf(optionIndexer.getSectionsWithOption(key));
+
+        Set<String> found = new LinkedHashSet<>();
+        for (Entry<String, Map<String, String>> section : sections.entrySet())
+            if (section.getValue().containsKey(key))
+                found.add(section.getKey());
+        return Collections.unmodifiableSet(found);
     }
 
     /**
-     * Must be called after updating attributes that {@link #templateOptionPattern(List, boolean)} depends on.
+     * Get the names of the sections where an option has a value, not counting options inherited from the default
+     * section. Uses the index set by {@link #setOptionIndex(OptionIndex)}, otherwise every section with the option is
+     * checked.
+     *
+     * @param value
+     *            the value, or null to find options without a value
+     * @return an unmodifiable set of section names, empty if no section has the value
      */
-    private void compileOptionPattern()
+    public Set<String> getSectionsWithValue(String optionName, String value)
     {
-        optionPattern = Pattern.compile(templateOptionPattern(delimiters, allowNoValue));
+        String key = optionName.toLowerCase();
+        if (optionIndexer != null && optionIndexer.isIndexingValues())
+            return copyOf(optionIndexer.getSectionsWithValue(key, value));
+
+        Set<String> found = new LinkedHashSet<>();
+        for (String sectionName : getSectionsWithOption(key))
+        {
+            String sectionValue = sections.get(sectionName).get(key);
+            if (value == null ? sectionValue == null : value.equals(sectionValue))
+                found.add(sectionName);
+        }
+        return Collections.unmodifiableSet(found);
     }
 
-    public List<String> getCommentPrefixes()
+    private static Set<String> copyOf(Set<String> sectionNames)
     {
-        return commentPrefixes;
+        if (sectionNames == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(new LinkedHashSet<>(sectionNames));
     }
 
-    public List<String> getDelimiters()
+    /**
+     * Get the name of the section that provides default values for all other sections
+     *
+     * @return the default section name, or null if there is no default section
+     */
+    public String getDefaultSection()
     {
-        return delimiters;
+        return format.getDefaultSection();
     }
 
-    public List<String> getInlineCommentPrefixes()
+    /**
+     * Get the options of the default section, as seen from another section
+     *
+     * @return the default section's options, or null if there are none or sectionName is the default section
+     */
+    private Map<String, String> getDefaults(String sectionName)
     {
-        return inlineCommentPrefixes;
+        String defaultSection = format.getDefaultSection();
+        if (defaultSection == null || defaultSection.equals(sectionName))
+            return null;
+        return sections.get(defaultSection);
     }
 
-    public Map<String, Map<String, String>> getSections()
+    /**
+     * Get a read-only view of a section that includes the options it inherits from the default section. Nothing is
+     * copied, the default section is consulted whenever an option is not found in the section itself.
+     *
+     * @param sectionName
+     *            the section to view
+     * @return the view, or null if there is no such section
+     */
+    public Map<String, String> getSection(String sectionName)
     {
-        return sections;
+        Map<String, String> section = sections.get(sectionName);
+        if (section == null)
+            return null;
+
+        Map<String, String> defaults = getDefaults(sectionName);
+        if (defaults == null)
+            return Collections.unmodifiableMap(section);
+        return new DefaultedSection(this, sectionName, section, defaults);
     }
 
+    /**
+     * Get the value of an option. Options not present in the section are looked up in the default section, see
+     * {@link #getDefaultSection()}.
+     *
+     * @throws NoSectionError
+     *             When there is no section sectionName
+     * @throws NoOptionError
+     *             When the section and the default section have no option optionName
+     */
     public String getValue (String sectionName, String optionName) throws NoSectionError, NoOptionError
     {
         Map<String, String> section = sections.get (sectionName);
@@ -216,12 +691,19 @@ public class Ini
             throw new NoSectionError (sectionName);
         }
 
-        if (!section.containsKey (optionName.toLowerCase()))
+        String key = optionName.toLowerCase();
+        if (section.containsKey (key))
+        {
+            return section.get (key);
+        }
+
+        Map<String, String> defaults = getDefaults(sectionName);
+        if (defaults == null || !defaults.containsKey(key))
         {
             throw new NoOptionError (sectionName, optionName);
         }
 
-        return section.get (optionName.toLowerCase());
+        return getInheritedValue(sectionName, key, defaults);
     }
 
     public String getValue (String sectionName, String optionName, String fallback) throws NoSectionError, NoOptionError
@@ -245,47 +727,269 @@ public class Ini
         return value;
     }
 
-    private void interpolate() throws IniParserException
+    /**
+     * Resolve an option that a section inherits from the default section. Default values with references are
+     * interpolated in the context of the inheriting section each time they are requested, instead of being copied into
+     * it.
+     */
+    private String getInheritedValue(String sectionName, String key, Map<String, String> defaults)
+    {
+        String rawValue = getRawValue(format.getDefaultSection(), key);
+        if (format.isAllowInterpolation() && rawValue != null)
+        {
+            List<String> accum = new ArrayList<>();
+            // Errors were reported at read time, unless the values have since been changed
+            if (interpolate(sectionName, key, accum, rawValue, 1) == null)
+                return join(accum);
+        }
+        return defaults.get(key);
+    }
+
+    /**
+     * Get the uninterpolated value of an option
+     *
+     * @return the value before interpolation, or null if the option's stored value was not interpolated
+     */
+    String getRawValue(String sectionName, String optionName)
+    {
+        Map<String, String> sectionRawValues = rawValues.get(sectionName);
+        return sectionRawValues == null ? null : sectionRawValues.get(optionName);
+    }
+
+    /**
+     * Get the uninterpolated values of a section's options
+     *
+     * @return option name to the value before interpolation, for the options whose stored value was interpolated, or
+     *         null if there are none
+     */
+    Map<String, String> getRawValues(String sectionName)
+    {
+        Map<String, String> sectionRawValues = rawValues.get(sectionName);
+        return sectionRawValues == null || sectionRawValues.isEmpty() ? null : sectionRawValues;
+    }
+
+    /**
+     * Interpolate all values that contain references
+     *
+     * @param errors
+     *            receives any interpolation errors encountered
+     */
+    void interpolate(List<ParsingError> errors)
+    {
+        // Resolving references is part of adding the values that were just read, not a change of its own
+        if (changeDispatcher != null)
+            changeDispatcher.muted = true;
+        try
+        {
+            interpolateAll(errors);
+        }
+        finally
+        {
+            if (changeDispatcher != null)
+                changeDispatcher.muted = false;
+        }
+    }
+
+    private void interpolateAll(List<ParsingError> errors)
     {
+        String defaultSection = format.getDefaultSection();
+
         for (String sectionName : sections.keySet())
         {
+            boolean isDefaultSection = sectionName.equals(defaultSection);
             Map<String, String> options = sections.get(sectionName);
             for (String optionName : options.keySet())
             {
+                // Values without any references can stay as they are, this avoids materializing lazy values
+                if (!containsInterpolation(options, optionName))
+                    continue;
+
                 ArrayList<String> L = new ArrayList<String>();
                 String rawValue = options.get(optionName);
                 ParsingError pe = interpolate (sectionName, optionName, L, rawValue, 1);
 
                 if (pe == null)
                 {
-                    StringBuffer sb = new StringBuffer();
-                    for (String component : L)
-                    {
-                        sb.append(component);
-                    }
-                    options.put(optionName, sb.toString());
-                    rawValues.put (sectionName + ":" + optionName.toLowerCase(), rawValue);
+                    options.put(optionName, join(L));
+                    putRawValue(sectionName, optionName, rawValue);
+                }
+                else if (isDefaultSection && pe instanceof InterpolationMissingOptionError)
+                {
+                    // Default values can refer to options that only the inheriting sections have
+                    putRawValue(sectionName, optionName, rawValue);
                 }
                 else
                 {
-                    parsingErrors.add(pe);
+                    errors.add(pe);
                 }
             }
         }
+
+        // Check the default values with references in the context of every section that inherits them
+        Map<String, String> defaults = defaultSection == null ? null : sections.get(defaultSection);
+        if (defaults == null)
+            return;
+        for (Entry<String, Map<String, String>> sectionEntry : sections.entrySet())
+        {
+            String sectionName = sectionEntry.getKey();
+            if (sectionName.equals(defaultSection))
+                continue;
+            for (String optionName : defaults.keySet())
+            {
+                String rawValue = getRawValue(defaultSection, optionName);
+                if (sectionEntry.getValue().containsKey(optionName) || rawValue == null)
+                    continue;
+
+                ParsingError pe = interpolate(sectionName, optionName, new ArrayList<String>(), rawValue, 1);
+                if (pe != null)
+                    errors.add(pe);
+            }
+        }
+    }
+
+    /**
+     * Remember the uninterpolated value of an option whose stored value is interpolated
+     */
+    private void putRawValue(String sectionName, String optionName, String rawValue)
+    {
+        Map<String, String> sectionRawValues = rawValues.get(sectionName);
+        if (sectionRawValues == null)
+        {
+            sectionRawValues = new HashMap<>();
+            rawValues.put(sectionName, sectionRawValues);
+        }
+        sectionRawValues.put(optionName.toLowerCase(), rawValue);
+    }
+
+    private static String join(List<String> components)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String component : components)
+        {
+            sb.append(component);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the line an option was read from, for error reporting. Inherited options report the line in the default
+     * section.
+     *
+     * @return the line number, or 0 if the option was not read from INI text or lines are not tracked
+     */
+    private int lineNumber(String section, String option)
+    {
+        IniPosition position = getPosition(section, option);
+        return position == null ? 0 : position.getLine();
+    }
+
+    /**
+     * Find the stored value of an option for interpolation. Unlike {@link #getValue(String, String)}, options inherited
+     * from the default section are returned uninterpolated.
+     */
+    private String lookup(String sectionName, String optionName) throws NoSectionError, NoOptionError
+    {
+        String key = optionName.toLowerCase();
+        Object value = find(sectionName, key, false);
+        if (value != MISSING)
+            return (String) value;
+
+        String defaultSection = format.getDefaultSection();
+        if (defaultSection != null && !defaultSection.equals(sectionName))
+        {
+            try
+            {
+                value = find(defaultSection, key, true);
+            }
+            catch (NoSectionError e)
+            {
+                // Same as an option missing from the default section
+            }
+        }
+        if (value == MISSING)
+            throw new NoOptionError(sectionName, optionName);
+        return (String) value;
+    }
+
+    /**
+     * Find the value of an option for interpolation, as it will be once the batch being applied by
+     * {@link #edit(IniEditor)}, if any, is applied. Options whose values are being recomputed are returned
+     * uninterpolated, so their references are resolved again.
+     *
+     * @param preferRaw
+     *            return the uninterpolated value of interpolated options
+     * @return the value, or {@link #MISSING}
+     * @throws NoSectionError
+     *             When there is no such section
+     */
+    private Object find(String sectionName, String key, boolean preferRaw) throws NoSectionError
+    {
+        IniBatch batch = pendingBatch;
+        if (batch != null)
+        {
+            if (!batch.exists(sectionName))
+                throw new NoSectionError(sectionName);
+
+            Map<String, Object> changes = batch.changes.get(sectionName);
+            if (changes != null && changes.containsKey(key))
+            {
+                Object value = changes.get(key);
+                return value == IniBatch.REMOVED ? MISSING : value;
+            }
+            if (batch.removedSections.contains(sectionName))
+                return MISSING;
+
+            Set<String> affected = pendingAffected.get(sectionName);
+            preferRaw |= affected != null && affected.contains(key);
+        }
+
+        Map<String, String> section = sections.get(sectionName);
+        if (section == null)
+        {
+            // A section added by the batch only has the options set in it
+            if (batch != null)
+                return MISSING;
+            throw new NoSectionError(sectionName);
+        }
+        if (!section.containsKey(key))
+            return MISSING;
+        if (preferRaw)
+        {
+            String rawValue = getRawValue(sectionName, key);
+            if (rawValue != null)
+                return rawValue;
+        }
+        return section.get(key);
+    }
+
+    /**
+     * Check if an option's value has a '$' character in it, without materializing it if it is a {@link LazyValue}
+     */
+    private static boolean containsInterpolation(Map<String, String> options, String optionName)
+    {
+        Object value;
+        if (options instanceof SectionMap)
+            value = ((SectionMap) options).getRaw(optionName);
+        else
+            value = options.get(optionName);
+
+        if (value instanceof LazyValue)
+            return ((LazyValue) value).contains('$');
+        return value != null && ((String) value).indexOf('$') >= 0;
     }
 
     private ParsingError interpolate (String section, String option, List<String> accum, String rest, int depth)
     {
-        String rawval = "";
-        int lineNo = lineNumberMap.get (section + ":" + option);
+        String rawval = rest;
+        int lineNo = lineNumber(section, option);
 
         try
         {
-            rawval = getValue(section, option, rest);
+            rawval = lookup(section, option);
         }
         catch (Exception ex)
         {
-            // getValue will not throw an exception as section and option are both valid at this point.
+            // lookup will not throw an exception as section and option are both valid at this point.
         }
 
         if (depth > MAX_INTERPOLATION_DEPTH)
@@ -330,13 +1034,13 @@ public class Ini
                     if (path.length == 1)
                     {
                         opt = path[0];
-                        value = getValue(section, opt);
+                        value = lookup(section, opt);
                     }
                     else if (path.length == 2)
                     {
                         sect = path[0];
                         opt = path[1];
-                        value = getValue(sect, opt);
+                        value = lookup(sect, opt);
                     }
                     else
                     {
@@ -348,9 +1052,13 @@ public class Ini
                     return new InterpolationMissingOptionError (lineNo, option, section, rawval, m.group (1));
                 }
 
-                if (value.indexOf("$") > 0)
+                if (value.indexOf("$") >= 0)
                 {
-                    this.interpolate (sect, opt, accum, value, depth + 1);
+                    ParsingError pe = this.interpolate (sect, opt, accum, value, depth + 1);
+                    if (pe != null)
+                    {
+                        return pe;
+                    }
                 }
                 else
                 {
@@ -367,265 +1075,209 @@ public class Ini
 
     public boolean isAllowDuplicates()
     {
-        return allowDuplicates;
+        return format.isAllowDuplicates();
     }
 
     public boolean isAllowInterpolation()
     {
-        return allowInterpolation;
+        return format.isAllowInterpolation();
     }
 
     public boolean isAllowNoValue()
     {
-        return allowNoValue;
+        return format.isAllowNoValue();
     }
 
     public boolean isEmptyLinesInValues()
     {
-        return emptyLinesInValues;
+        return format.isEmptyLinesInValues();
+    }
+
+    /**
+     * @return true if this Ini is read-only, see {@link #freeze()}
+     */
+    public boolean isFrozen()
+    {
+        return sections.isReadOnly();
+    }
+
+    /**
+     * @return true if section names are indexed, see {@link #setIndexSectionNames(boolean)}
+     */
+    public boolean isIndexSectionNames()
+    {
+        return sectionNameIndexer != null;
     }
 
     public boolean isSpaceAroundDelimiters()
     {
-        return spaceAroundDelimiters;
+        return format.isSpaceAroundDelimiters();
     }
 
     /**
-     * Parse INI text
+     * Parse UTF-8 encoded INI text
      *
-     * @param reader
-     *            the {@link BufferedReader} to read the INI text from
+     * @param bytes
+     *            the INI text
      * @return this Ini
      * @throws IOException
-     *             When errors are encountered while reading from reader
+     *             When bytes are not valid UTF-8
      * @throws IniParserException
-     *             When the INI text read is invalid in some way.
+     *             When the INI text is invalid in some way.
+     * @see #read(byte[], Charset)
      */
-    public Ini read(BufferedReader reader) throws IOException, IniParserException
+    public Ini read(byte[] bytes) throws IOException, IniParserException
     {
-        Map<String, Map<String, List<String>>> unjoinedSections = new LinkedHashMap<>();
-        Map<String, List<String>> currSection = null;
-        String currSectionName = null;
-        String currOptionName = null;
-        int indentLevel = 0;
-        String line = null;
-        int lineNo = 0;
-
-        while ((line = reader.readLine()) != null)
-        {
-            lineNo++;
-
-            // Strip comments
-            int commentStart = -1;
-
-            // If there are any to search for, find the earliest instance of an inline comment character with a
-            // whitespace character before it
-            if (inlineCommentPrefixes.size() > 0)
-            {
-                int earliestIndex = Integer.MAX_VALUE;
-                for (String prefix : inlineCommentPrefixes)
-                {
-                    int index = line.indexOf(prefix);
-                    if (index == 0)
-                    {
-                        earliestIndex = 0;
-                        break;
-                    }
-                    else if (index > 0 && Character.isWhitespace(line.charAt(index - 1)))
-                        earliestIndex = Math.min(earliestIndex, index);
-                }
-                commentStart = earliestIndex;
-            }
-
-            if (commentStart != 0)
-            {
-                // Full line comment?
-                for (String prefix : commentPrefixes)
-                {
-                    if (StringUtil.strip(line).startsWith(prefix))
-                    {
-                        commentStart = 0;
-                        break;
-                    }
-                }
-            }
-
-            // Get the trimmed non-comment substring, if applicable
-            String value;
-            if (commentStart != -1)
-                value = line.substring(0, commentStart);
-            else
-                value = line;
-            value = StringUtil.strip(value);
-
-            if (value.isEmpty())
-            {
-                if (emptyLinesInValues)
-                {
-                    // For ongoing option values, add an empty line, but only if there was no comment on this line
-                    if (commentStart == -1 && currSection != null && currOptionName != null
-                            && currSection.containsKey(currOptionName))
-                    {
-                        currSection.get(currOptionName).add("");
-                    }
-                }
-                else
-                {
-                    // Empty line marks the end of a value
-                    indentLevel = Integer.MAX_VALUE;
-                }
-            }
-            else
-            {
-                // Find index of first non-whitespace character in the raw line (not value)
-                Matcher nonWhitespaceMatcher = nonWhitespacePattern.matcher(line);
-                int firstNonWhitespace = -1;
-                if (nonWhitespaceMatcher.find())
-                    firstNonWhitespace = nonWhitespaceMatcher.start();
-                // This is the indent level, otherwise it is zero
-                int currIndentLevel = Math.max(firstNonWhitespace, 0);
-
-                // Continuation line
-                if (currSection != null && currOptionName != null && currIndentLevel > indentLevel)
-                {
-                    currSection.get(currOptionName).add(value);
-                }
-                // Section/option header
-                else
-                {
-                    indentLevel = currIndentLevel;
-
-                    Matcher sectionMatcher = sectionPattern.matcher(value);
-                    // Section header
-                    if (sectionMatcher.matches())
-                    {
-                        currSectionName = sectionMatcher.group("header");
-                        if (unjoinedSections.containsKey(currSectionName))
-                        {
-                            if (!allowDuplicates)
-                            {
-                                parsingErrors.add(new DuplicateSectionError(lineNo, currSectionName));
-                                currSectionName = null;
-                                currSection = null;
-                            }
-                            else
-                            {
-                                currSection = unjoinedSections.get(currSectionName);
-                            }
-                        }
-                        else
-                        {
-                            currSection = new LinkedHashMap<>();
-                            unjoinedSections.put(currSectionName, currSection);
-                        }
-                        // So sections can't start with a continuation line
-                        currOptionName = null;
-                    }
-                    // No section header in file
-                    else if (currSection == null)
-                    {
-                        parsingErrors.add(new MissingSectionHeaderError(lineNo, line));
-                    }
-                    // Option header
-                    else
-                    {
-                        Matcher optionMatcher = optionPattern.matcher(value);
-                        if (optionMatcher.matches())
-                        {
-                            currOptionName = optionMatcher.group("option");
-                            String optionValue = optionMatcher.group("value");
-                            if (currOptionName == null || currOptionName.length() == 0)
-                            {
-                                parsingErrors.add(new InvalidLine(lineNo, line));
-                            }
-                            currOptionName = StringUtil.rstrip(currOptionName).toLowerCase();
-                            if (!allowDuplicates && unjoinedSections.get(currSectionName).containsKey(currOptionName))
-                            {
-                                parsingErrors.add(new DuplicateOptionError(lineNo, currSectionName, currOptionName));
-                            }
-                            else
-                            {
-                                LinkedList<String> valueList = new LinkedList<>();
-                                if (optionValue != null)
-                                {
-                                    optionValue = StringUtil.rstrip(optionValue);
-                                    valueList.add(optionValue);
-                                }
-                                currSection.put(currOptionName, valueList);
-                                lineNumberMap.put(currSectionName + ":" + currOptionName, lineNo);
-                            }
-                        }
-                        else
-                        {
-                            parsingErrors.add(new InvalidLine(lineNo, line));
-                        }
-                    }
-                }
-            }
-        }
-
-        if (parsingErrors.size() > 0)
-            throw new IniParserException(parsingErrors);
+        read(bytes, StandardCharsets.UTF_8);
+        return this;
+    }
 
-        // Join multi line values
-        for (Entry<String, Map<String, List<String>>> unjoinedSectionEntry : unjoinedSections.entrySet())
-        {
-            String unjoinedSectionName = unjoinedSectionEntry.getKey();
-            Map<String, List<String>> unjoinedSectionOptions = unjoinedSectionEntry.getValue();
+    /**
+     * Parse encoded INI text. ASCII text in an ASCII compatible {@link Charset} is copied and parsed without decoding,
+     * so bytes may be reused once this returns.
+     *
+     * @param bytes
+     *            the INI text
+     * @param charset
+     *            The {@link Charset} to decode bytes with
+     * @return this Ini
+     * @throws IOException
+     *             When bytes are not valid in charset
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     * @see StandardCharsets
+     */
+    public Ini read(byte[] bytes, Charset charset) throws IOException, IniParserException
+    {
+        new IniParser(format).parse(this, IniParser.decode(bytes, 0, bytes.length, charset, false));
+        return this;
+    }
 
-            Map<String, String> sectionOptions = new LinkedHashMap<>();
+    /**
+     * Parse the remaining bytes of a buffer as UTF-8 encoded INI text, without changing its position
+     *
+     * @param buffer
+     *            the INI text
+     * @return this Ini
+     * @throws IOException
+     *             When buffer is not valid UTF-8
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     * @see #read(ByteBuffer, Charset)
+     */
+    public Ini read(ByteBuffer buffer) throws IOException, IniParserException
+    {
+        read(buffer, StandardCharsets.UTF_8);
+        return this;
+    }
 
-            for (Entry<String, List<String>> unjoinedOptionValueEntry : unjoinedSectionOptions.entrySet())
-            {
-                String unjoinedOptionName = unjoinedOptionValueEntry.getKey();
-                List<String> unjoinedOptionValue = unjoinedOptionValueEntry.getValue();
+    /**
+     * Parse the remaining bytes of a buffer as encoded INI text, without changing its position. The buffer's content
+     * may be reused once this returns.
+     *
+     * @param buffer
+     *            the INI text
+     * @param charset
+     *            The {@link Charset} to decode buffer with
+     * @return this Ini
+     * @throws IOException
+     *             When buffer is not valid in charset
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     * @see #read(byte[], Charset)
+     */
+    public Ini read(ByteBuffer buffer, Charset charset) throws IOException, IniParserException
+    {
+        new IniParser(format).parse(this, IniParser.decode(buffer, charset, false));
+        return this;
+    }
 
-                String optionValue;
+    /**
+     * Parse INI text
+     *
+     * @param reader
+     *            the {@link BufferedReader} to read the INI text from
+     * @return this Ini
+     * @throws IOException
+     *             When errors are encountered while reading from reader
+     * @throws IniParserException
+     *             When the INI text read is invalid in some way.
+     */
+    public Ini read(BufferedReader reader) throws IOException, IniParserException
+    {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = reader.read(buffer)) != -1)
+            source.append(buffer, 0, count);
 
-                if (unjoinedOptionValue.size() > 0)
-                {
-                    // Remove trailing whitespace lines
-                    ListIterator<String> iter = unjoinedOptionValue.listIterator(unjoinedOptionValue.size());
-                    while (iter.hasPrevious())
-                        if (StringUtil.strip(iter.previous()).isEmpty())
-                            iter.remove();
-                        else
-                            break;
-
-                    // Join lines with newline character
-                    StringBuilder optionValueBuilder = new StringBuilder();
-                    String prefix = "";
-                    for (String valueLine : unjoinedOptionValue)
-                    {
-                        optionValueBuilder.append(prefix);
-                        prefix = "\n";
-                        optionValueBuilder.append(valueLine);
-                    }
-                    optionValue = optionValueBuilder.toString();
-                }
-                else
-                {
-                    optionValue = null;
-                }
+        new IniParser(format).parse(this, source);
+        return this;
+    }
 
-                sectionOptions.put(unjoinedOptionName, optionValue);
-            }
+    /**
+     * Parse UTF-8 encoded INI text from a stream, until the end of the stream. Compressed text is decompressed, see
+     * {@link Compression}. The stream is not closed.
+     *
+     * @param in
+     *            the {@link InputStream} to read the INI text from
+     * @return this Ini
+     * @throws IOException
+     *             When errors are encountered while reading from in
+     * @throws IniParserException
+     *             When the INI text read is invalid in some way.
+     * @see #read(InputStream, Charset)
+     */
+    public Ini read(InputStream in) throws IOException, IniParserException
+    {
+        read(in, StandardCharsets.UTF_8);
+        return this;
+    }
 
-            sections.put(unjoinedSectionName, sectionOptions);
-        }
+    /**
+     * Parse encoded INI text from a stream, until the end of the stream. Compressed text is decompressed, see
+     * {@link Compression}. The stream is not closed.
+     *
+     * @param in
+     *            the {@link InputStream} to read the INI text from
+     * @param charset
+     *            The {@link Charset} to decode the stream with
+     * @return this Ini
+     * @throws IOException
+     *             When errors are encountered while reading from in
+     * @throws IniParserException
+     *             When the INI text read is invalid in some way.
+     * @see #read(byte[], Charset)
+     */
+    public Ini read(InputStream in, Charset charset) throws IOException, IniParserException
+    {
+        readZeroCopy(IniParser.readFully(Compression.detectAndDecompress(in)), charset);
+        return this;
+    }
 
-        if (allowInterpolation)
-        {
-            interpolate ();
-            if (parsingErrors.size() > 0)
-                throw new IniParserException(parsingErrors);
-        }
+    /**
+     * Parse INI text that is already in memory, such as a {@link String} or {@link CharBuffer}. Option values refer
+     * to text until they are first accessed, so it must not be modified after this call.
+     *
+     * @param text
+     *            the INI text
+     * @return this Ini
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     */
+    public Ini read(CharSequence text) throws IniParserException
+    {
+        // Make the position and limit independent of the caller's buffer
+        if (text instanceof CharBuffer)
+            text = ((CharBuffer) text).slice();
 
+        new IniParser(format).parse(this, text);
         return this;
     }
 
     /**
-     * Parse an INI file with the default {@link Charset}
+     * Parse an INI file with the default {@link Charset}. Compressed files are decompressed as they are read, see
+     * {@link Compression}.
      *
      * @param iniPath
      *            The {@link Path} pointing the the INI file to read
@@ -643,7 +1295,8 @@ public class Ini
     }
 
     /**
-     * Parse an INI file with a specified {@link Charset}
+     * Parse an INI file with a specified {@link Charset}. Compressed files are decompressed as they are read, see
+     * {@link Compression}.
      *
      * @param iniPath
      *            The {@link Path} pointing the the INI file to read
@@ -658,13 +1311,161 @@ public class Ini
      */
     public Ini read(Path iniPath, Charset charset) throws IOException, IniParserException
     {
-        try (BufferedReader reader = Files.newBufferedReader(iniPath, charset))
+        readZeroCopy(IniParser.readFile(iniPath), charset);
+        return this;
+    }
+
+    /**
+     * Parse encoded INI text like {@link #read(byte[], Charset)}, but without copying bytes. Option values refer to
+     * bytes until they are first accessed, so it must not be modified while this Ini is in use.
+     *
+     * @param bytes
+     *            the INI text
+     * @param charset
+     *            The {@link Charset} to decode bytes with
+     * @return this Ini
+     * @throws IOException
+     *             When bytes are not valid in charset
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     */
+    public Ini readZeroCopy(byte[] bytes, Charset charset) throws IOException, IniParserException
+    {
+        new IniParser(format).parse(this, IniParser.decode(bytes, 0, bytes.length, charset, true));
+        return this;
+    }
+
+    /**
+     * Parse the remaining bytes of a buffer like {@link #read(ByteBuffer, Charset)}, but without copying a heap
+     * buffer's content. Option values refer to it until they are first accessed, so it must not be modified while this
+     * Ini is in use.
+     *
+     * @param buffer
+     *            the INI text
+     * @param charset
+     *            The {@link Charset} to decode buffer with
+     * @return this Ini
+     * @throws IOException
+     *             When buffer is not valid in charset
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     */
+    public Ini readZeroCopy(ByteBuffer buffer, Charset charset) throws IOException, IniParserException
+    {
+        new IniParser(format).parse(this, IniParser.decode(buffer, charset, true));
+        return this;
+    }
+
+    /**
+     * Replace the sections with the ones in INI text, see {@link #reload(Path, Charset)}
+     *
+     * @param text
+     *            the INI text
+     * @return this Ini
+     * @throws IniParserException
+     *             When the INI text is invalid in some way. Nothing is changed.
+     */
+    public Ini reload(CharSequence text) throws IniParserException
+    {
+        sections.checkWritable();
+        if (text instanceof CharBuffer)
+            text = ((CharBuffer) text).slice();
+
+        replaceContent(new IniParser(format).parse(text));
+        return this;
+    }
+
+    /**
+     * Replace the sections with the ones in a UTF-8 encoded INI file, see {@link #reload(Path, Charset)}
+     */
+    public Ini reload(Path iniPath) throws IOException, IniParserException
+    {
+        reload(iniPath, StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Replace the sections with the ones in an INI file. Unlike {@link #read(Path, Charset)}, sections that are not in
+     * the file are removed. Sections with the same options and values as before are kept as they are, and changed
+     * sections are updated option by option, so the {@link IniChangeListener}s only hear about what actually
+     * changed. Sections keep their position, new sections are added at the end.
+     *
+     * @param iniPath
+     *            The {@link Path} pointing the the INI file to read
+     * @param charset
+     *            The {@link Charset} to use when reading the file
+     * @return this Ini
+     * @throws IOException
+     *             When errors are encountered while reading the INI file
+     * @throws IniParserException
+     *             When the INI text is invalid in some way. Nothing is changed.
+     */
+    public Ini reload(Path iniPath, Charset charset) throws IOException, IniParserException
+    {
+        sections.checkWritable();
+        replaceContent(new IniParser(format).parseZeroCopy(IniParser.readFile(iniPath), charset));
+        return this;
+    }
+
+    /**
+     * Stop telling a listener about changes
+     *
+     * @return this Ini
+     */
+    public Ini removeChangeListener(IniChangeListener listener)
+    {
+        if (changeDispatcher == null)
+            return this;
+
+        changeDispatcher.removeListener(listener);
+        if (changeDispatcher.isEmpty())
         {
-            read(reader);
+            sections.removeListener(changeDispatcher);
+            changeDispatcher = null;
         }
         return this;
     }
 
+    /**
+     * Make the sections equal to another Ini's, changing only the sections and options that differ
+     */
+    void replaceContent(Ini other)
+    {
+        Iterator<Entry<String, Map<String, String>>> iter = sections.entrySet().iterator();
+        while (iter.hasNext())
+            if (!other.sections.containsKey(iter.next().getKey()))
+                iter.remove();
+
+        for (Entry<String, Map<String, String>> sectionEntry : other.sections.entrySet())
+        {
+            String sectionName = sectionEntry.getKey();
+            SectionMap replacement = (SectionMap) sectionEntry.getValue();
+            SectionMap current = sections.get(sectionName);
+            if (current == null)
+            {
+                sections.put(sectionName, replacement);
+            }
+            else if (!current.contentEquals(replacement))
+            {
+                Iterator<String> optionIter = current.keySet().iterator();
+                while (optionIter.hasNext())
+                    if (!replacement.containsKey(optionIter.next()))
+                        optionIter.remove();
+
+                for (String optionName : replacement.keySet())
+                {
+                    Object value = replacement.getRaw(optionName);
+                    if (!current.containsKey(optionName) || !SectionMap.valueEquals(current.getRaw(optionName), value))
+                        current.putRaw(optionName, value);
+                }
+            }
+        }
+
+        for (Entry<String, Map<String, String>> sectionEntry : other.sections.entrySet())
+            sections.get(sectionEntry.getKey()).copyPositions((SectionMap) sectionEntry.getValue());
+        rawValues = other.rawValues;
+    }
+
     /**
      * Set if duplicate sections and options will be accepted, or throw a {@link IniParserException} at
      * {@link #read(BufferedReader)} time.
@@ -675,7 +1476,8 @@ public class Ini
      */
     public Ini setAllowDuplicates(boolean allowDuplicates)
     {
-        this.allowDuplicates = allowDuplicates;
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setAllowDuplicates(allowDuplicates).build();
         return this;
     }
 
@@ -691,7 +1493,8 @@ public class Ini
      */
     public Ini setAllowInterpolation(boolean allowInterpolation)
     {
-        this.allowInterpolation = allowInterpolation;
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setAllowInterpolation(allowInterpolation).build();
         return this;
     }
 
@@ -705,9 +1508,8 @@ public class Ini
      */
     public Ini setAllowNoValue(boolean allowNoValue)
     {
-        this.allowNoValue = allowNoValue;
-
-        compileOptionPattern();
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setAllowNoValue(allowNoValue).build();
         return this;
     }
 
@@ -720,7 +1522,24 @@ public class Ini
      */
     public Ini setCommentPrefixes(List<String> commentPrefixes)
     {
-        this.commentPrefixes = commentPrefixes;
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setCommentPrefixes(commentPrefixes).build();
+        return this;
+    }
+
+    /**
+     * Set the name of the section that provides default values for all other sections. Options missing from a
+     * section are looked up in the default section, and interpolated in the context of the section they were
+     * requested from.
+     *
+     * @param defaultSection
+     *            the default section name, or null for no default section
+     * @return this Ini
+     */
+    public Ini setDefaultSection(String defaultSection)
+    {
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setDefaultSection(defaultSection).build();
         return this;
     }
 
@@ -733,9 +1552,8 @@ public class Ini
      */
     public Ini setDelimiters(List<String> delimiters)
     {
-        this.delimiters = delimiters;
-
-        compileOptionPattern();
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setDelimiters(delimiters).build();
         return this;
     }
 
@@ -749,7 +1567,35 @@ public class Ini
      */
     public Ini setEmptyLinesInValues(boolean emptyLinesInValues)
     {
-        this.emptyLinesInValues = emptyLinesInValues;
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setEmptyLinesInValues(emptyLinesInValues).build();
+        return this;
+    }
+
+    /**
+     * Set if section names should be kept in a sorted index, so prefix and wildcard queries don't scan every section.
+     * The index is built from the current sections, then kept up to date as sections are read or changed. Iterating
+     * over {@link #getSections()} is unaffected and stays in insertion order.
+     *
+     * @param indexSectionNames
+     *            index section names iff true
+     * @return this Ini
+     */
+    public Ini setIndexSectionNames(boolean indexSectionNames)
+    {
+        if (indexSectionNames == isIndexSectionNames())
+            return this;
+
+        if (indexSectionNames)
+        {
+            sectionNameIndexer = new SectionNameIndexer(sections);
+            sections.addListener(sectionNameIndexer);
+        }
+        else
+        {
+            sections.removeListener(sectionNameIndexer);
+            sectionNameIndexer = null;
+        }
         return this;
     }
 
@@ -762,7 +1608,48 @@ public class Ini
      */
     public Ini setInlineCommentPrefixes(List<String> inlineCommentPrefixes)
     {
-        this.inlineCommentPrefixes = inlineCommentPrefixes;
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setInlineCommentPrefixes(inlineCommentPrefixes).build();
+        return this;
+    }
+
+    /**
+     * Set what to index so option and value queries don't scan every section. The index is built from the current
+     * sections, then kept up to date as sections are read or changed.
+     *
+     * @param optionIndex
+     *            the {@link OptionIndex}, {@link OptionIndex#NONE} to drop any index
+     * @return this Ini
+     */
+    public Ini setOptionIndex(OptionIndex optionIndex)
+    {
+        if (optionIndex == getOptionIndex())
+            return this;
+
+        if (optionIndexer != null)
+            sections.removeListener(optionIndexer);
+        optionIndexer = null;
+        if (optionIndex != OptionIndex.NONE)
+        {
+            optionIndexer = new OptionIndexer(sections, optionIndex == OptionIndex.NAMES_AND_VALUES);
+            sections.addListener(optionIndexer);
+        }
+        return this;
+    }
+
+    /**
+     * Set how much to remember about where each option is read from, see {@link #getPosition(String, String)}.
+     * {@link PositionTracking#LINE} is the default, and is needed for interpolation errors to have line numbers. Only
+     * options read afterwards are affected.
+     *
+     * @param positionTracking
+     *            the {@link PositionTracking}
+     * @return this Ini
+     */
+    public Ini setPositionTracking(PositionTracking positionTracking)
+    {
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setPositionTracking(positionTracking).build();
         return this;
     }
 
@@ -775,7 +1662,8 @@ public class Ini
      */
     public Ini setSpaceAroundDelimiters(boolean spaceAroundDelimiters)
     {
-        this.spaceAroundDelimiters = spaceAroundDelimiters;
+        sections.checkWritable();
+        format = new IniFormat.Builder(format).setSpaceAroundDelimiters(spaceAroundDelimiters).build();
         return this;
     }
 
@@ -790,68 +1678,114 @@ public class Ini
      */
     public Ini write(BufferedWriter writer) throws IOException
     {
-        // Create option/value delimiter string using first in configured delimiters
-        StringBuilder sb = new StringBuilder();
-        if (spaceAroundDelimiters)
-            sb.append(" ");
-        sb.append(delimiters.get(0));
-        if (spaceAroundDelimiters)
-            sb.append(" ");
-        String delimiter = sb.toString();
-
-        // Write out each section
-        for (Entry<String, Map<String, String>> sectionEntry : sections.entrySet())
-        {
-            String sectionName = sectionEntry.getKey();
-            Map<String, String> sectionOptions = sectionEntry.getValue();
+        String delimiter = format.getWriteDelimiter();
+        for (Entry<String, Map<String, String>> sectionEntry : writeOrder())
+            writeSection(writer, sectionEntry.getKey(), sectionEntry.getValue(), delimiter);
+        return this;
+    }
 
-            // Section Header (ex: [mysection])
-            writer.append("[");
-            writer.append(sectionName);
-            writer.append("]");
-            writer.newLine();
+    /**
+     * Write INI formatted text to a channel, rendering sections in parallel on a new {@link ForkJoinPool}, see
+     * {@link #write(GatheringByteChannel, Charset, ForkJoinPool)}
+     */
+    public Ini write(GatheringByteChannel channel, Charset charset) throws IOException
+    {
+        ForkJoinPool pool = new ForkJoinPool();
+        try
+        {
+            return write(channel, charset, pool);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
 
-            // Write out each option/value pair
-            for (Entry<String, String> optionEntry : sectionOptions.entrySet())
-            {
-                String option = optionEntry.getKey();
-                String value = optionEntry.getValue();
+    /**
+     * Write INI formatted text to a channel, rendering sections in parallel. Batches of sections are rendered and
+     * encoded into one buffer per section by the tasks of a {@link ForkJoinPool}, and written in order with gathering
+     * writes while the next batch is rendered. The bytes written are the same as {@link #write(BufferedWriter)} writes
+     * through an encoder of the same {@link Charset}. Charsets whose encoders start with a byte order mark, such as
+     * UTF-16, are written without parallelism.
+     * <p>
+     * This Ini must not be changed until this returns. The channel is not closed.
+     *
+     * @param channel
+     *            the {@link GatheringByteChannel} to write the INI text to, such as a {@link FileChannel}
+     * @param charset
+     *            The {@link Charset} to encode the INI text with
+     * @param pool
+     *            the {@link ForkJoinPool} to render sections on
+     * @return this Ini
+     * @throws IOException
+     *             When errors are encountered while encoding or writing to the channel
+     */
+    public Ini write(GatheringByteChannel channel, Charset charset, ForkJoinPool pool) throws IOException
+    {
+        new ParallelWriter(this, charset, pool).write(channel);
+        return this;
+    }
 
-                // If interpolation is enabled, find the original value instead of
-                // the interpolated one.
-                if (allowInterpolation)
-                {
-                    String rawKey = sectionName + ":" + option.toLowerCase();
-                    if (rawValues.containsKey (rawKey))
-                    {
-                        value = rawValues.get (rawKey);
-                    }
-                }
+    /**
+     * Write the options of a section, followed by an empty line
+     */
+    void writeSection(BufferedWriter writer, String sectionName, Map<String, String> sectionOptions,
+            String delimiter) throws IOException
+    {
+        // Section Header (ex: [mysection])
+        writer.append("[");
+        writer.append(sectionName);
+        writer.append("]");
+        writer.newLine();
+
+        // Write out each option/value pair
+        for (Entry<String, String> optionEntry : sectionOptions.entrySet())
+        {
+            String option = optionEntry.getKey();
+            String value = optionEntry.getValue();
 
-                // Option Header (ex: key = value)
-                writer.append(option);
-                if (value == null && allowNoValue)
-                {
-                    // Append nothing after the key
-                }
-                else
+            // If interpolation is enabled, find the original value instead of
+            // the interpolated one.
+            if (format.isAllowInterpolation())
+            {
+                String rawValue = getRawValue(sectionName, option.toLowerCase());
+                if (rawValue != null)
                 {
-                    writer.append(delimiter);
-                    if (value != null)
-                    {
-                        writer.append(value.replace("\n", System.lineSeparator() + "\t"));
-                    }
-                    else
-                    {
-                        writer.append(value);
-                    }
+                    value = rawValue;
                 }
-                writer.newLine();
             }
 
-            writer.newLine();
+            writeOption(writer, option, value, delimiter, format.isAllowNoValue());
         }
-        return this;
+
+        writer.newLine();
+    }
+
+    /**
+     * Write an option line, followed by a continuation line for each further line of the value
+     */
+    static void writeOption(BufferedWriter writer, String option, String value, String delimiter,
+            boolean allowNoValue) throws IOException
+    {
+        // Option Header (ex: key = value)
+        writer.append(option);
+        if (value == null && allowNoValue)
+        {
+            // Append nothing after the key
+        }
+        else
+        {
+            writer.append(delimiter);
+            if (value != null)
+            {
+                writer.append(value.replace("\n", System.lineSeparator() + "\t"));
+            }
+            else
+            {
+                writer.append(value);
+            }
+        }
+        writer.newLine();
     }
 
     /**
@@ -884,10 +1818,50 @@ public class Ini
      */
     public Ini write(Path iniPath, Charset charset) throws IOException
     {
-        try (BufferedWriter writer = Files.newBufferedWriter(iniPath, charset))
+        write(iniPath, charset, Compression.NONE);
+        return this;
+    }
+
+    /**
+     * Write an INI file with a specified {@link Charset} and {@link Compression}. Compressed files are read back by
+     * {@link #read(Path)} without having to specify the compression.
+     *
+     * @param iniPath
+     *            The {@link Path} pointing the the INI file to write
+     * @param charset
+     *            The {@link Charset} to use when writing the file
+     * @param compression
+     *            how to compress the file
+     * @return this Ini
+     * @throws IOException
+     *             When errors are encountered while writing to the writer
+     */
+    public Ini write(Path iniPath, Charset charset, Compression compression) throws IOException
+    {
+        try (OutputStream out = Files.newOutputStream(iniPath);
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(compression.compress(out),
+                        charset.newEncoder())))
         {
             write(writer);
         }
         return this;
     }
+
+    /**
+     * @return the sections in the order they are written: the default section first, like Python's configparser,
+     *         then the others in order
+     */
+    List<Entry<String, Map<String, String>>> writeOrder()
+    {
+        String defaultSection = format.getDefaultSection();
+        List<Entry<String, Map<String, String>>> order = new ArrayList<>(sections.size());
+
+        Map<String, String> defaults = defaultSection == null ? null : sections.get(defaultSection);
+        if (defaults != null)
+            order.add(new SimpleImmutableEntry<String, Map<String, String>>(defaultSection, defaults));
+        for (Entry<String, Map<String, String>> sectionEntry : sections.entrySet())
+            if (!sectionEntry.getKey().equals(defaultSection))
+                order.add(sectionEntry);
+        return order;
+    }
 }
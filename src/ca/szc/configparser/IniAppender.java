@@ -0,0 +1,604 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ca.szc.configparser.exceptions.DuplicateOptionError;
+import ca.szc.configparser.exceptions.DuplicateSectionError;
+import ca.szc.configparser.exceptions.IniParserException;
+import ca.szc.configparser.exceptions.NoSectionError;
+import ca.szc.configparser.exceptions.ParsingError;
+
+/**
+ * Appends sections and options to the end of an INI file, without reading or rewriting the file. Text is written the
+ * same way as by {@link Ini#write(Path)}.
+ * <p>
+ * To reject duplicate names, the names already in the file are kept in an index file next to it, named after the INI
+ * file with {@value #INDEX_SUFFIX} added. The index holds the section names, and the option names of the last
+ * section, and records the size and modification time of the INI file it describes. When there is no index, or the
+ * INI file was changed by something else so they no longer match, the INI file is read once to build a new index.
+ * <p>
+ * Options can only be appended to the last section in the file. If duplicates are allowed, see
+ * {@link IniFormat#isAllowDuplicates()}, options are instead appended under a repeated section header, which reading
+ * merges into the earlier section. Compressed files and charsets whose encoders write a byte order mark, such as
+ * UTF-16, are not supported.
+ * <p>
+ * Each append holds an exclusive lock on the index file, so appenders in several processes, and several appenders in
+ * one process, can share an INI file. Instances are thread-safe.
+ */
+public class IniAppender
+{
+    /** Added to the name of the INI file to name the index file */
+    public static final String INDEX_SUFFIX = ".names";
+
+    /** The first line of an index file, with fixed width numbers so it can be rewritten in place */
+    private static final String HEADER_FORMAT = "# java-configparser names, size %019d, modified %019d\n";
+
+    private static final int HEADER_LENGTH = String.format(HEADER_FORMAT, 0L, 0L).length();
+
+    /**
+     * Locks by real index file path. A process can't hold overlapping locks on a file, so appenders in the same
+     * process take turns with these before locking the file. One lock is kept for each index file used.
+     */
+    private static final Map<Path, ReentrantLock> processLocks = new HashMap<>();
+
+    private static boolean hasLineBreak(String name)
+    {
+        return name.indexOf('\n') != -1 || name.indexOf('\r') != -1;
+    }
+
+    /**
+     * @param attributes
+     *            the attributes of the INI file, or null if it doesn't exist
+     * @return the first line of an index describing the INI file
+     */
+    private static String header(BasicFileAttributes attributes)
+    {
+        if (attributes == null)
+            return String.format(HEADER_FORMAT, 0L, 0L);
+        return String.format(HEADER_FORMAT, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * @return the lock shared by all appenders in this process for an index file
+     */
+    private static ReentrantLock processLock(Path realIndexPath)
+    {
+        synchronized (processLocks)
+        {
+            ReentrantLock lock = processLocks.get(realIndexPath);
+            if (lock == null)
+            {
+                lock = new ReentrantLock();
+                processLocks.put(realIndexPath, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Read bytes at a position until the buffer is full or the end of the file
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read == -1)
+                break;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Write all of a buffer at a position
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+
+    private final Charset charset;
+
+    private final IniFormat format;
+
+    /** The process lock of the index file while it is locked */
+    private ReentrantLock heldLock;
+
+    private final Path indexPath;
+
+    private final Path iniPath;
+
+    /** Lower case names of the options in {@link #lastSection} */
+    private final Set<String> lastOptions = new HashSet<>();
+
+    /** The section with the last header in the file, or null if there are no sections */
+    private String lastSection;
+
+    /** The header of the index the names were loaded from, or null if they haven't been loaded */
+    private String loadedHeader;
+
+    /** The encoded line separator, without anything the encoder writes first */
+    private final byte[] lineSeparator;
+
+    private final Set<String> sectionNames = new HashSet<>();
+
+    /**
+     * Creates an appender for a UTF-8 encoded INI file with the default configuration
+     *
+     * @param iniPath
+     *            The {@link Path} pointing to the INI file, which is created by the first append if it doesn't exist
+     */
+    public IniAppender(Path iniPath)
+    {
+        this(iniPath, IniFormat.DEFAULT, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates an appender for an INI file with a specified configuration
+     *
+     * @param iniPath
+     *            The {@link Path} pointing to the INI file, which is created by the first append if it doesn't exist
+     * @param format
+     *            the {@link IniFormat} to write with, and to read the file with when building the index
+     * @param charset
+     *            The {@link Charset} the file is encoded with
+     * @throws IllegalArgumentException
+     *             if the charset's encoder writes a byte order mark
+     */
+    public IniAppender(Path iniPath, IniFormat format, Charset charset)
+    {
+        this.charset = charset;
+        this.format = format;
+        this.iniPath = iniPath;
+        indexPath = iniPath.resolveSibling(iniPath.getFileName() + INDEX_SUFFIX);
+
+        try
+        {
+            if (!ParallelWriter.encodesInPieces(charset))
+                throw new IllegalArgumentException("Can't append text encoded with " + charset);
+            ByteBuffer encoded = charset.newEncoder().encode(CharBuffer.wrap(System.lineSeparator()));
+            lineSeparator = new byte[encoded.remaining()];
+            encoded.get(lineSeparator);
+        }
+        catch (CharacterCodingException e)
+        {
+            throw new IllegalArgumentException("Can't encode line breaks with " + charset, e);
+        }
+    }
+
+    /**
+     * Append options to an existing section
+     *
+     * @param sectionName
+     *            the section to add the options to
+     * @param options
+     *            option names to values, in the order to write them. Values may be null if
+     *            {@link IniFormat#isAllowNoValue()}.
+     * @return this IniAppender
+     * @throws IOException
+     *             When errors are encountered while reading or writing the INI or index files
+     * @throws IniParserException
+     *             When any of the options are already in the section, and duplicates are not allowed. Nothing is
+     *             written.
+     * @throws NoSectionError
+     *             When there is no section sectionName
+     * @throws IllegalStateException
+     *             if the section is not the last in the file, and duplicates are not allowed
+     */
+    public synchronized IniAppender appendOptions(String sectionName, Map<String, String> options)
+            throws IOException, IniParserException, NoSectionError
+    {
+        FileChannel index = lockIndex();
+        try
+        {
+            loadIndex(index);
+            if (!sectionNames.contains(sectionName))
+                throw new NoSectionError(sectionName);
+
+            boolean header = format.isAllowDuplicates();
+            if (!header && !sectionName.equals(lastSection))
+                throw new IllegalStateException("Options can only be appended to the last section of " + iniPath
+                        + ", " + lastSection + ", unless duplicates are allowed");
+
+            List<String> optionNames = checkOptions(sectionName, options, header ? null : lastOptions);
+            append(index, sectionName, header, options, optionNames);
+        }
+        finally
+        {
+            unlockIndex(index);
+        }
+        return this;
+    }
+
+    /**
+     * Append a section with its options
+     *
+     * @param sectionName
+     *            the name of the new section
+     * @param options
+     *            option names to values, in the order to write them. Values may be null if
+     *            {@link IniFormat#isAllowNoValue()}.
+     * @return this IniAppender
+     * @throws IOException
+     *             When errors are encountered while reading or writing the INI or index files
+     * @throws IniParserException
+     *             When the section already exists, or options differ only in case, and duplicates are not allowed.
+     *             Nothing is written.
+     */
+    public synchronized IniAppender appendSection(String sectionName, Map<String, String> options)
+            throws IOException, IniParserException
+    {
+        if (sectionName.isEmpty() || sectionName.indexOf(']') != -1 || hasLineBreak(sectionName))
+            throw new IllegalArgumentException("Invalid section name '" + sectionName + "'");
+
+        FileChannel index = lockIndex();
+        try
+        {
+            loadIndex(index);
+            if (!format.isAllowDuplicates() && sectionNames.contains(sectionName))
+            {
+                List<ParsingError> errors = new ArrayList<>();
+                errors.add(new DuplicateSectionError(0, sectionName));
+                throw new IniParserException(errors);
+            }
+
+            List<String> optionNames = checkOptions(sectionName, options,
+                    format.isAllowDuplicates() ? null : Collections.<String> emptySet());
+            append(index, sectionName, true, options, optionNames);
+        }
+        finally
+        {
+            unlockIndex(index);
+        }
+        return this;
+    }
+
+    /**
+     * Write options to the end of the INI file, then record their names in the index
+     *
+     * @param header
+     *            true to write a section header first
+     * @param optionNames
+     *            the lower case option names
+     */
+    private void append(FileChannel index, String sectionName, boolean header, Map<String, String> options,
+            List<String> optionNames) throws IOException
+    {
+        StringWriter text = new StringWriter();
+        BufferedWriter writer = new BufferedWriter(text);
+        if (header)
+        {
+            writer.append("[");
+            writer.append(sectionName);
+            writer.append("]");
+            writer.newLine();
+        }
+        for (Entry<String, String> option : options.entrySet())
+            Ini.writeOption(writer, option.getKey(), option.getValue(), format.getWriteDelimiter(),
+                    format.isAllowNoValue());
+        writer.newLine();
+        writer.flush();
+        // Encoding errors are found before anything is written
+        ByteBuffer bytes = charset.newEncoder().encode(CharBuffer.wrap(text.getBuffer()));
+
+        try (FileChannel ini = FileChannel.open(iniPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE))
+        {
+            long size = ini.size();
+            if (size > 0)
+            {
+                checkAppendable(ini);
+                if (!endsWithLineBreak(ini, size))
+                {
+                    writeFully(ini, ByteBuffer.wrap(lineSeparator), size);
+                    size += lineSeparator.length;
+                }
+            }
+            writeFully(ini, bytes, size);
+        }
+
+        StringBuilder names = new StringBuilder();
+        if (header)
+        {
+            names.append('[').append(sectionName).append("]\n");
+            sectionNames.add(sectionName);
+            lastSection = sectionName;
+            lastOptions.clear();
+        }
+        for (String optionName : optionNames)
+        {
+            names.append('\t').append(optionName).append('\n');
+            lastOptions.add(optionName);
+        }
+        writeFully(index, StandardCharsets.UTF_8.encode(names.toString()), index.size());
+
+        // The index only describes the file once the names are written
+        loadedHeader = header(Files.readAttributes(iniPath, BasicFileAttributes.class));
+        writeFully(index, StandardCharsets.UTF_8.encode(loadedHeader), 0);
+    }
+
+    /**
+     * @throws IOException
+     *             if the INI file is compressed
+     */
+    private void checkAppendable(FileChannel ini) throws IOException
+    {
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        readFully(ini, magic, 0);
+        if (Compression.detect(magic.array(), 0, magic.limit()) != Compression.NONE)
+            throw new IOException("Can't append to compressed file " + iniPath);
+    }
+
+    /**
+     * Check that options can be written and read back with the same names
+     *
+     * @param existing
+     *            the lower case names of the options already in the section, or null if duplicates are allowed
+     * @return the lower case option names
+     * @throws IniParserException
+     *             if an option is in existing, or options differ only in case
+     */
+    private List<String> checkOptions(String sectionName, Map<String, String> options, Set<String> existing)
+            throws IniParserException
+    {
+        List<ParsingError> errors = new ArrayList<>();
+        List<String> optionNames = new ArrayList<>(options.size());
+        Set<String> added = new HashSet<>();
+        for (String optionName : options.keySet())
+        {
+            if (optionName.trim().isEmpty() || !optionName.trim().equals(optionName) || optionName.startsWith("[")
+                    || hasLineBreak(optionName))
+                throw new IllegalArgumentException("Invalid option name '" + optionName + "'");
+            for (String delimiter : format.getDelimiters())
+                if (optionName.contains(delimiter))
+                    throw new IllegalArgumentException("Option name '" + optionName + "' contains a delimiter");
+            for (String prefix : format.getCommentPrefixes())
+                if (optionName.startsWith(prefix))
+                    throw new IllegalArgumentException("Option name '" + optionName + "' starts a comment");
+
+            String key = optionName.toLowerCase();
+            optionNames.add(key);
+            if (existing != null && (existing.contains(key) || !added.add(key)))
+                errors.add(new DuplicateOptionError(0, sectionName, optionName));
+        }
+        if (!errors.isEmpty())
+            throw new IniParserException(errors);
+        return optionNames;
+    }
+
+    /**
+     * @return true if the file ends with a line separator, or any other line break
+     */
+    private boolean endsWithLineBreak(FileChannel ini, long size) throws IOException
+    {
+        // \r\n ends with \n, so it's enough to check for either character, however they are encoded
+        for (String lineBreak : new String[] { "\n", "\r" })
+        {
+            ByteBuffer encoded = charset.newEncoder().encode(CharBuffer.wrap(lineBreak));
+            if (encoded.remaining() > size)
+                continue;
+            ByteBuffer tail = ByteBuffer.allocate(encoded.remaining());
+            readFully(ini, tail, size - encoded.remaining());
+            if (tail.equals(encoded))
+                return true;
+        }
+        return false;
+    }
+
+    public Charset getCharset()
+    {
+        return charset;
+    }
+
+    public IniFormat getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * @return the {@link Path} of the index of the names in the INI file
+     */
+    public Path getIndexPath()
+    {
+        return indexPath;
+    }
+
+    public Path getPath()
+    {
+        return iniPath;
+    }
+
+    /**
+     * Check if a section is in the INI file, using the index
+     *
+     * @throws IOException
+     *             When errors are encountered while reading the INI or index files
+     */
+    public synchronized boolean hasSection(String sectionName) throws IOException
+    {
+        FileChannel index = lockIndex();
+        try
+        {
+            loadIndex(index);
+            return sectionNames.contains(sectionName);
+        }
+        finally
+        {
+            unlockIndex(index);
+        }
+    }
+
+    /**
+     * Make sure the names describe the INI file as it is now, loading them from the index, or reading the INI file to
+     * build a new index if the index doesn't describe it
+     */
+    private void loadIndex(FileChannel index) throws IOException
+    {
+        BasicFileAttributes attributes;
+        try
+        {
+            attributes = Files.readAttributes(iniPath, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e)
+        {
+            attributes = null;
+        }
+        String expected = header(attributes);
+
+        ByteBuffer stored = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(index, stored, 0);
+        if (!expected.equals(StandardCharsets.UTF_8.decode(stored).toString()))
+            rebuildIndex(index, expected, attributes);
+        else if (!expected.equals(loadedHeader))
+            readIndex(index);
+        loadedHeader = expected;
+    }
+
+    /**
+     * Open the index file and lock it, first against other appenders in this process, then against other processes.
+     * Release with {@link #unlockIndex(FileChannel)}.
+     */
+    private FileChannel lockIndex() throws IOException
+    {
+        FileChannel index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ReentrantLock lock = null;
+        try
+        {
+            lock = processLock(indexPath.toRealPath());
+            lock.lock();
+            index.lock();
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            if (lock != null && lock.isHeldByCurrentThread())
+                lock.unlock();
+            index.close();
+            throw e;
+        }
+        heldLock = lock;
+        return index;
+    }
+
+    /**
+     * Close the index file, releasing its lock, then let other appenders in this process lock it
+     */
+    private void unlockIndex(FileChannel index) throws IOException
+    {
+        ReentrantLock lock = heldLock;
+        heldLock = null;
+        try
+        {
+            index.close();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Load the names from the index, which was written by another appender
+     */
+    private void readIndex(FileChannel index) throws IOException
+    {
+        sectionNames.clear();
+        lastSection = null;
+        lastOptions.clear();
+
+        // Not closed, that would close the channel
+        BufferedReader reader = new BufferedReader(Channels.newReader(index.position(HEADER_LENGTH),
+                StandardCharsets.UTF_8.newDecoder(), -1));
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            if (line.startsWith("\t"))
+            {
+                lastOptions.add(line.substring(1));
+            }
+            else if (line.startsWith("["))
+            {
+                lastSection = line.substring(1, line.length() - 1);
+                sectionNames.add(lastSection);
+                lastOptions.clear();
+            }
+        }
+    }
+
+    /**
+     * Read the names from the INI file, and replace the index with them
+     */
+    private void rebuildIndex(FileChannel index, String header, BasicFileAttributes attributes)
+            throws IOException
+    {
+        sectionNames.clear();
+        lastSection = null;
+        lastOptions.clear();
+
+        StringBuilder names = new StringBuilder(header);
+        if (attributes != null)
+        {
+            // Only the names are needed
+            IniFormat namesFormat = new IniFormat.Builder(format).setAllowInterpolation(false)
+                    .setPositionTracking(PositionTracking.NONE).build();
+            Map<String, Map<String, String>> sections = new Ini(namesFormat).read(iniPath, charset).getSections();
+            for (String sectionName : sections.keySet())
+            {
+                names.append('[').append(sectionName).append("]\n");
+                sectionNames.add(sectionName);
+                lastSection = sectionName;
+            }
+            if (lastSection != null)
+            {
+                for (String optionName : sections.get(lastSection).keySet())
+                {
+                    names.append('\t').append(optionName).append('\n');
+                    lastOptions.add(optionName);
+                }
+            }
+        }
+
+        index.truncate(0);
+        writeFully(index, StandardCharsets.UTF_8.encode(names.toString()), 0);
+    }
+}
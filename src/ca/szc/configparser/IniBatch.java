@@ -0,0 +1,123 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes recorded by an {@link IniEditor}. Nothing is changed until the editor returns, then
+ * {@link Ini#edit(IniEditor)} applies all of the changes or none of them. Values are stored as written, with any
+ * interpolation references resolved when the batch is applied.
+ */
+public final class IniBatch
+{
+    /** Marks a removed option */
+    static final Object REMOVED = new Object();
+
+    /** Section name to option name to the new value or {@link #REMOVED}, in the order they were first changed */
+    final Map<String, Map<String, Object>> changes = new LinkedHashMap<>();
+
+    /** Existing sections that are removed. They are recreated with only the changed options if they have any. */
+    final Set<String> removedSections = new LinkedHashSet<>();
+
+    private final Map<String, Map<String, String>> sections;
+
+    IniBatch(Map<String, Map<String, String>> sections)
+    {
+        this.sections = sections;
+    }
+
+    /**
+     * Add a section if it does not exist
+     *
+     * @return this IniBatch
+     */
+    public IniBatch addSection(String sectionName)
+    {
+        changesOf(sectionName);
+        return this;
+    }
+
+    private Map<String, Object> changesOf(String sectionName)
+    {
+        Map<String, Object> sectionChanges = changes.get(sectionName);
+        if (sectionChanges == null)
+        {
+            sectionChanges = new LinkedHashMap<>();
+            changes.put(sectionName, sectionChanges);
+        }
+        return sectionChanges;
+    }
+
+    /**
+     * @return true if the section exists once the batch is applied
+     */
+    boolean exists(String sectionName)
+    {
+        return changes.containsKey(sectionName)
+                || (!removedSections.contains(sectionName) && sections.containsKey(sectionName));
+    }
+
+    /**
+     * @return true if there are no changes
+     */
+    public boolean isEmpty()
+    {
+        return changes.isEmpty() && removedSections.isEmpty();
+    }
+
+    /**
+     * Remove an option, if the section exists
+     *
+     * @return this IniBatch
+     */
+    public IniBatch remove(String sectionName, String optionName)
+    {
+        if (exists(sectionName))
+            changesOf(sectionName).put(optionName.toLowerCase(), REMOVED);
+        return this;
+    }
+
+    /**
+     * Remove a section, along with any changes to it recorded so far
+     *
+     * @return this IniBatch
+     */
+    public IniBatch removeSection(String sectionName)
+    {
+        changes.remove(sectionName);
+        if (sections.containsKey(sectionName))
+            removedSections.add(sectionName);
+        return this;
+    }
+
+    /**
+     * Set the value of an option, adding the section if it does not exist
+     *
+     * @param value
+     *            the value as it would be written in INI text, which may contain interpolation references, or null
+     *            for an option without a value
+     * @return this IniBatch
+     */
+    public IniBatch set(String sectionName, String optionName, String value)
+    {
+        changesOf(sectionName).put(optionName.toLowerCase(), value);
+        return this;
+    }
+}
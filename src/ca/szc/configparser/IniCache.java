@@ -0,0 +1,248 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ca.szc.configparser.exceptions.IniParserException;
+
+/**
+ * Remembers parsed INI files, so reading a file that hasn't changed since it was last read returns the same
+ * {@link Ini} instead of parsing it again. A file is considered unchanged while its size, modification time and file
+ * key (its identity on file systems that have one, such as device and inode) stay the same. These are checked on
+ * every {@link #get(Path)}, which costs one file attribute lookup.
+ * <p>
+ * The returned Ini instances are shared between callers, so they are frozen, see {@link Ini#freeze()}. At most
+ * maxEntries files are remembered, the least recently used one is forgotten when another is added.
+ * <p>
+ * Instances are thread-safe. Files are parsed outside of the lock, so threads that miss on the same file at the same
+ * time may each parse it.
+ */
+public class IniCache
+{
+    /** The state of a file when it was read, and what was read */
+    private static final class CachedFile
+    {
+        private final Charset charset;
+
+        private final Object fileKey;
+
+        private final Ini ini;
+
+        private final FileTime lastModified;
+
+        private final long size;
+
+        private CachedFile(BasicFileAttributes attributes, Charset charset, Ini ini)
+        {
+            this.charset = charset;
+            this.fileKey = attributes.fileKey();
+            this.ini = ini;
+            this.lastModified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+        }
+
+        private boolean matches(BasicFileAttributes attributes, Charset charset)
+        {
+            return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime())
+                    && (fileKey == null ? attributes.fileKey() == null : fileKey.equals(attributes.fileKey()))
+                    && this.charset.equals(charset);
+        }
+    }
+
+    private final Map<Path, CachedFile> entries;
+
+    private long evictions;
+
+    private final IniFormat format;
+
+    private long hits;
+
+    private long loadNanos;
+
+    private final int maxEntries;
+
+    private long misses;
+
+    /**
+     * Creates a cache that reads files with the default configuration
+     *
+     * @param maxEntries
+     *            how many files to remember
+     */
+    public IniCache(int maxEntries)
+    {
+        this(IniFormat.DEFAULT, maxEntries);
+    }
+
+    /**
+     * Creates a cache that reads files with a specified configuration
+     *
+     * @param format
+     *            the {@link IniFormat} to read with
+     * @param maxEntries
+     *            how many files to remember
+     */
+    public IniCache(IniFormat format, final int maxEntries)
+    {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive, was " + maxEntries);
+
+        this.format = format;
+        this.maxEntries = maxEntries;
+        entries = new LinkedHashMap<Path, CachedFile>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, CachedFile> eldest)
+            {
+                if (size() <= maxEntries)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Forget all files
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Get a UTF-8 encoded INI file, see {@link #get(Path, Charset)}
+     */
+    public Ini get(Path iniPath) throws IOException, IniParserException
+    {
+        return get(iniPath, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get an INI file, parsing it only if it hasn't been read before or has changed since. Compressed files are
+     * decompressed, see {@link Compression}.
+     *
+     * @param iniPath
+     *            The {@link Path} pointing the the INI file to read
+     * @param charset
+     *            The {@link Charset} to use when reading the file
+     * @return the frozen, shared {@link Ini}
+     * @throws IOException
+     *             When errors are encountered while reading the INI file
+     * @throws IniParserException
+     *             When the INI text is invalid in some way. Nothing is remembered.
+     */
+    public Ini get(Path iniPath, Charset charset) throws IOException, IniParserException
+    {
+        Path key = iniPath.toAbsolutePath().normalize();
+        // Checked before reading, so a change made while reading is noticed by the next call
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+
+        synchronized (this)
+        {
+            CachedFile entry = entries.get(key);
+            if (entry != null && entry.matches(attributes, charset))
+            {
+                hits++;
+                return entry.ini;
+            }
+            misses++;
+        }
+
+        long start = System.nanoTime();
+        Ini ini = new Ini(format).read(key, charset).freeze();
+        long elapsed = System.nanoTime() - start;
+
+        synchronized (this)
+        {
+            loadNanos += elapsed;
+            entries.put(key, new CachedFile(attributes, charset, ini));
+        }
+        return ini;
+    }
+
+    /**
+     * @return how many files have been forgotten to make room for others
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    public IniFormat getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * @return how many times a file was found unchanged
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return the total time spent reading and parsing files, in nanoseconds
+     */
+    public synchronized long getLoadNanos()
+    {
+        return loadNanos;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * @return how many times a file had to be read, because it was new, changed or forgotten
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Forget a file, so the next {@link #get(Path)} reads it again
+     *
+     * @param iniPath
+     *            The {@link Path} pointing the the INI file
+     */
+    public synchronized void invalidate(Path iniPath)
+    {
+        entries.remove(iniPath.toAbsolutePath().normalize());
+    }
+
+    /**
+     * @return how many files are remembered
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.EventObject;
+
+/**
+ * A change to the sections or options of an {@link Ini}
+ */
+public class IniChangeEvent extends EventObject
+{
+    /**
+     * The kinds of change
+     */
+    public enum Type
+    {
+        /**
+         * A section was added, along with all of its options
+         */
+        SECTION_ADDED,
+
+        /**
+         * A section was removed, along with all of its options
+         */
+        SECTION_REMOVED,
+
+        /**
+         * An option was added to an existing section
+         */
+        OPTION_ADDED,
+
+        /**
+         * The value of an option was replaced
+         */
+        OPTION_CHANGED,
+
+        /**
+         * An option was removed from an existing section
+         */
+        OPTION_REMOVED
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final String newValue;
+
+    private final String oldValue;
+
+    private final String optionName;
+
+    private final String sectionName;
+
+    private final Type type;
+
+    /**
+     * @param source
+     *            the changed Ini
+     * @param type
+     *            the kind of change
+     * @param sectionName
+     *            the changed section
+     * @param optionName
+     *            the changed option, or null for section changes
+     * @param oldValue
+     *            the value before the change, or null
+     * @param newValue
+     *            the value after the change, or null
+     */
+    public IniChangeEvent(Ini source, Type type, String sectionName, String optionName, String oldValue,
+            String newValue)
+    {
+        super(source);
+        this.type = type;
+        this.sectionName = sectionName;
+        this.optionName = optionName;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    /**
+     * @return the value after an {@link Type#OPTION_ADDED} or {@link Type#OPTION_CHANGED} change, otherwise null
+     */
+    public String getNewValue()
+    {
+        return newValue;
+    }
+
+    /**
+     * @return the value before an {@link Type#OPTION_CHANGED} or {@link Type#OPTION_REMOVED} change, otherwise null
+     */
+    public String getOldValue()
+    {
+        return oldValue;
+    }
+
+    /**
+     * @return the option name, or null if a whole section was added or removed
+     */
+    public String getOptionName()
+    {
+        return optionName;
+    }
+
+    public String getSectionName()
+    {
+        return sectionName;
+    }
+
+    @Override
+    public Ini getSource()
+    {
+        return (Ini) super.getSource();
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(type).append(' ').append(sectionName);
+        if (optionName != null)
+            sb.append(':').append(optionName);
+        if (type == Type.OPTION_CHANGED || type == Type.OPTION_REMOVED)
+            sb.append(" old=").append(oldValue);
+        if (type == Type.OPTION_ADDED || type == Type.OPTION_CHANGED)
+            sb.append(" new=").append(newValue);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.EventListener;
+
+/**
+ * Receives the changes made to the sections and options of an {@link Ini}, see
+ * {@link Ini#addChangeListener(IniChangeListener)}
+ */
+public interface IniChangeListener extends EventListener
+{
+    /**
+     * Called after each change, on the thread that made it
+     *
+     * @param event
+     *            the change
+     */
+    void iniChanged(IniChangeEvent event);
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import ca.szc.configparser.exceptions.IniParserException;
+
+/**
+ * Remembers parsed INI payloads by the SHA-256 digest of their bytes, so parsing a payload that is byte for byte the
+ * same as one parsed before returns the same {@link Ini}. A cryptographic digest is used because payloads may come
+ * from untrusted sources, where a weaker hash could be made to collide, and so the payloads themselves don't need to
+ * be kept to check for collisions.
+ * <p>
+ * Sections are shared too: a section with the same options and values, in the same order, as a section of any other
+ * remembered Ini is stored once, whatever the section is called. Shared sections have their values copied out of the
+ * parsed text, so the text can be collected. Positions are not kept, {@link Ini#getPosition(String, String)}
+ * returns null.
+ * <p>
+ * The returned Ini instances are frozen, see {@link Ini#freeze()}. At most maxEntries payloads are remembered, the
+ * least recently used one is forgotten when another is added. A shared section is kept as long as any Ini uses it.
+ * <p>
+ * Instances are thread-safe. Payloads are parsed outside of the lock, so threads that miss on the same payload at the
+ * same time may each parse it.
+ */
+public class IniContentCache
+{
+    /** The digest and charset of a payload */
+    private static final class Key
+    {
+        private final Charset charset;
+
+        private final byte[] digest;
+
+        private Key(byte[] digest, Charset charset)
+        {
+            this.charset = charset;
+            this.digest = digest;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return Arrays.equals(digest, other.digest) && charset.equals(other.charset);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            // The digest is already uniformly distributed
+            return ((digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff))
+                    ^ charset.hashCode();
+        }
+    }
+
+    /** A shared section, cleared when no remembered or returned Ini uses it any more */
+    private static final class SectionReference extends WeakReference<SectionMap>
+    {
+        private final long contentHash;
+
+        private SectionReference(SectionMap section, ReferenceQueue<SectionMap> queue)
+        {
+            super(section, queue);
+            contentHash = section.contentHash();
+        }
+    }
+
+    /** The owner of every shared section, so changing one throws and adding one to another Ini copies it */
+    private static final SectionsMap SHARED = new SectionsMap();
+    static
+    {
+        SHARED.setReadOnly();
+    }
+
+    private final ReferenceQueue<SectionMap> collected = new ReferenceQueue<>();
+
+    private final Map<Key, Ini> entries;
+
+    private long evictions;
+
+    private final IniFormat format;
+
+    private long hits;
+
+    private final int maxEntries;
+
+    private long misses;
+
+    /** Content hash to the shared sections with that hash */
+    private final Map<Long, List<SectionReference>> sections = new HashMap<>();
+
+    private long sharedSections;
+
+    /**
+     * Creates a cache that parses with the default configuration
+     *
+     * @param maxEntries
+     *            how many payloads to remember
+     */
+    public IniContentCache(int maxEntries)
+    {
+        this(IniFormat.DEFAULT, maxEntries);
+    }
+
+    /**
+     * Creates a cache that parses with a specified configuration
+     *
+     * @param format
+     *            the {@link IniFormat} to parse with
+     * @param maxEntries
+     *            how many payloads to remember
+     */
+    public IniContentCache(IniFormat format, final int maxEntries)
+    {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive, was " + maxEntries);
+
+        this.format = format;
+        this.maxEntries = maxEntries;
+        entries = new LinkedHashMap<Key, Ini>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Ini> eldest)
+            {
+                if (size() <= maxEntries)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    private static byte[] digest(byte[] bytes)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Forget all payloads. Shared sections are forgotten once no returned Ini uses them.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Drop the shared sections that are no longer used
+     */
+    private void expunge()
+    {
+        Reference<? extends SectionMap> reference;
+        while ((reference = collected.poll()) != null)
+        {
+            long contentHash = ((SectionReference) reference).contentHash;
+            List<SectionReference> candidates = sections.get(contentHash);
+            if (candidates == null)
+                continue;
+            candidates.remove(reference);
+            if (candidates.isEmpty())
+                sections.remove(contentHash);
+        }
+    }
+
+    /**
+     * Get a UTF-8 encoded INI payload, see {@link #get(byte[], Charset)}
+     */
+    public Ini get(byte[] bytes) throws IOException, IniParserException
+    {
+        return get(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get an INI payload, parsing it only if the same bytes haven't been parsed before
+     *
+     * @param bytes
+     *            the INI text
+     * @param charset
+     *            the {@link Charset} the text is encoded with
+     * @return the frozen, shared {@link Ini}
+     * @throws IOException
+     *             When bytes are not valid in charset
+     * @throws IniParserException
+     *             When the INI text is invalid in some way. Nothing is remembered.
+     */
+    public Ini get(byte[] bytes, Charset charset) throws IOException, IniParserException
+    {
+        Key key = new Key(digest(bytes), charset);
+        synchronized (this)
+        {
+            Ini ini = entries.get(key);
+            if (ini != null)
+            {
+                hits++;
+                return ini;
+            }
+            misses++;
+        }
+
+        // Every value is materialized before the Ini is returned, so bytes are not kept
+        Ini ini = new Ini(format).readZeroCopy(bytes, charset);
+
+        synchronized (this)
+        {
+            // Another thread may have parsed the same payload meanwhile
+            Ini existing = entries.get(key);
+            if (existing != null)
+                return existing;
+
+            expunge();
+            for (Entry<String, Map<String, String>> sectionEntry : ini.sections.entrySet())
+                ini.sections.share(sectionEntry.getKey(), share((SectionMap) sectionEntry.getValue()));
+            ini.freeze();
+            entries.put(key, ini);
+        }
+        return ini;
+    }
+
+    /**
+     * @return how many payloads have been forgotten to make room for others
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    public IniFormat getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * @return how many times a payload had been parsed before
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * @return how many times a payload had to be parsed
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return how many parsed sections were replaced by an equal section that was already stored
+     */
+    public synchronized long getSharedSections()
+    {
+        return sharedSections;
+    }
+
+    /**
+     * Find a stored section equal to a parsed one, or store the parsed one
+     */
+    private SectionMap share(SectionMap section)
+    {
+        long contentHash = section.contentHash();
+        List<SectionReference> candidates = sections.get(contentHash);
+        if (candidates == null)
+        {
+            candidates = new ArrayList<>(1);
+            sections.put(contentHash, candidates);
+        }
+
+        for (SectionReference candidate : candidates)
+        {
+            SectionMap stored = candidate.get();
+            if (stored != null && stored.contentEquals(section))
+            {
+                sharedSections++;
+                return stored;
+            }
+        }
+
+        // Equal sections can be at different places in different payloads
+        section.clearPositions();
+        section.materializeValues();
+        section.owner = SHARED;
+        candidates.add(new SectionReference(section, collected));
+        return section;
+    }
+
+    /**
+     * @return how many payloads are remembered
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+}
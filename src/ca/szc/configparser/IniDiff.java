@@ -0,0 +1,271 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import ca.szc.configparser.exceptions.IniParserException;
+
+/**
+ * The differences between the sections of two {@link Ini}s, which can be applied to turn one into the other. A diff
+ * only holds the sections and options that differ, so it is usually much smaller than the INI text. It is
+ * {@link Serializable} so it can be sent to where it should be applied.
+ * <p>
+ * Values are compared and recorded as they would be written, with interpolation references left in place, so an
+ * applied diff keeps the references and the Ini it is applied to resolves them itself.
+ */
+public final class IniDiff implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static Map<String, String> getOrCreate(Map<String, Map<String, String>> map, String key)
+    {
+        Map<String, String> value = map.get(key);
+        if (value == null)
+        {
+            value = new LinkedHashMap<>();
+            map.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Find the differences between two Ini's sections. Sections with equal content hashes and equal uninterpolated
+     * values are skipped without comparing their options, and content hashes are only recomputed for sections that
+     * were changed since they were last hashed.
+     *
+     * @param from
+     *            the original Ini
+     * @param to
+     *            the changed Ini
+     * @return the differences, which turn from into to when applied
+     */
+    public static IniDiff compute(Ini from, Ini to)
+    {
+        IniDiff diff = new IniDiff();
+
+        for (Entry<String, Map<String, String>> sectionEntry : from.sections.entrySet())
+        {
+            String sectionName = sectionEntry.getKey();
+            SectionMap fromSection = (SectionMap) sectionEntry.getValue();
+            SectionMap toSection = to.sections.get(sectionName);
+            if (toSection == null)
+                diff.removedSections.add(sectionName);
+            else if (fromSection.contentHash() != toSection.contentHash()
+                    || !Objects.equals(from.getRawValues(sectionName), to.getRawValues(sectionName)))
+                diff.addSectionChanges(sectionName, from, fromSection, to, toSection);
+        }
+
+        for (Entry<String, Map<String, String>> sectionEntry : to.sections.entrySet())
+        {
+            String sectionName = sectionEntry.getKey();
+            if (from.sections.containsKey(sectionName))
+                continue;
+
+            Map<String, String> options = new LinkedHashMap<>();
+            for (String optionName : sectionEntry.getValue().keySet())
+                options.put(optionName, writtenValue(to, sectionName, sectionEntry.getValue(), optionName));
+            diff.addedSections.put(sectionName, options);
+        }
+
+        return diff;
+    }
+
+    private static void setAll(IniBatch batch, Map<String, Map<String, String>> options)
+    {
+        for (Entry<String, Map<String, String>> section : options.entrySet())
+            for (Entry<String, String> option : section.getValue().entrySet())
+                batch.set(section.getKey(), option.getKey(), option.getValue());
+    }
+
+    /**
+     * @return the value of an option as it would be written, before interpolation
+     */
+    private static String writtenValue(Ini ini, String sectionName, Map<String, String> section, String optionName)
+    {
+        String rawValue = ini.getRawValue(sectionName, optionName);
+        return rawValue != null ? rawValue : section.get(optionName);
+    }
+
+    private final Map<String, Map<String, String>> addedOptions = new LinkedHashMap<>();
+
+    private final Map<String, Map<String, String>> addedSections = new LinkedHashMap<>();
+
+    private final Map<String, Map<String, String>> changedOptions = new LinkedHashMap<>();
+
+    private final Map<String, Set<String>> removedOptions = new LinkedHashMap<>();
+
+    private final Set<String> removedSections = new LinkedHashSet<>();
+
+    private IniDiff()
+    {
+    }
+
+    private void addSectionChanges(String sectionName, Ini fromIni, SectionMap from, Ini toIni, SectionMap to)
+    {
+        for (String optionName : from.keySet())
+        {
+            if (!to.containsKey(optionName))
+            {
+                Set<String> removed = removedOptions.get(sectionName);
+                if (removed == null)
+                {
+                    removed = new LinkedHashSet<>();
+                    removedOptions.put(sectionName, removed);
+                }
+                removed.add(optionName);
+            }
+        }
+
+        for (String optionName : to.keySet())
+        {
+            if (!from.containsKey(optionName))
+            {
+                String value = writtenValue(toIni, sectionName, to, optionName);
+                getOrCreate(addedOptions, sectionName).put(optionName, value);
+                continue;
+            }
+
+            // Values without references are compared as stored, without materializing them
+            boolean equal;
+            if (fromIni.getRawValue(sectionName, optionName) == null
+                    && toIni.getRawValue(sectionName, optionName) == null)
+                equal = SectionMap.valueEquals(from.getRaw(optionName), to.getRaw(optionName));
+            else
+                equal = Objects.equals(writtenValue(fromIni, sectionName, from, optionName),
+                        writtenValue(toIni, sectionName, to, optionName));
+            if (!equal)
+            {
+                String value = writtenValue(toIni, sectionName, to, optionName);
+                getOrCreate(changedOptions, sectionName).put(optionName, value);
+            }
+        }
+    }
+
+    /**
+     * Apply the differences to an Ini through {@link Ini#edit(IniEditor)}. Sections are removed and added, and options
+     * are added, changed and removed, through {@link Ini#getSections()}, so indexes and {@link IniChangeListener}s see
+     * each change. Values with references are resolved by ini, along with the options that refer to changed options,
+     * and are written with their references. Sections with option changes are created if they are missing.
+     *
+     * @param ini
+     *            the Ini to change
+     * @return ini
+     * @throws IniParserException
+     *             When the changes cause interpolation errors in ini. Nothing is changed.
+     */
+    public Ini apply(Ini ini) throws IniParserException
+    {
+        return ini.edit(new IniEditor()
+        {
+            @Override
+            public void edit(IniBatch batch)
+            {
+                for (String sectionName : removedSections)
+                    batch.removeSection(sectionName);
+
+                for (Entry<String, Map<String, String>> section : addedSections.entrySet())
+                {
+                    batch.addSection(section.getKey());
+                    for (Entry<String, String> option : section.getValue().entrySet())
+                        batch.set(section.getKey(), option.getKey(), option.getValue());
+                }
+
+                for (Entry<String, Set<String>> section : removedOptions.entrySet())
+                    for (String optionName : section.getValue())
+                        batch.remove(section.getKey(), optionName);
+
+                setAll(batch, addedOptions);
+                setAll(batch, changedOptions);
+            }
+        });
+    }
+
+    /**
+     * @return section name to the options that were added to it and their values
+     */
+    public Map<String, Map<String, String>> getAddedOptions()
+    {
+        return Collections.unmodifiableMap(addedOptions);
+    }
+
+    /**
+     * @return section name to options of the sections that were added
+     */
+    public Map<String, Map<String, String>> getAddedSections()
+    {
+        return Collections.unmodifiableMap(addedSections);
+    }
+
+    /**
+     * @return section name to the options whose values changed and their new values
+     */
+    public Map<String, Map<String, String>> getChangedOptions()
+    {
+        return Collections.unmodifiableMap(changedOptions);
+    }
+
+    /**
+     * @return the names of the sections that exist in both Inis, but with different options or values
+     */
+    public Set<String> getChangedSections()
+    {
+        Set<String> changed = new LinkedHashSet<>(removedOptions.keySet());
+        changed.addAll(addedOptions.keySet());
+        changed.addAll(changedOptions.keySet());
+        return Collections.unmodifiableSet(changed);
+    }
+
+    /**
+     * @return section name to the options that were removed from it
+     */
+    public Map<String, Set<String>> getRemovedOptions()
+    {
+        return Collections.unmodifiableMap(removedOptions);
+    }
+
+    /**
+     * @return the names of the sections that were removed
+     */
+    public Set<String> getRemovedSections()
+    {
+        return Collections.unmodifiableSet(removedSections);
+    }
+
+    /**
+     * @return true if there are no differences
+     */
+    public boolean isEmpty()
+    {
+        return addedSections.isEmpty() && removedSections.isEmpty() && addedOptions.isEmpty()
+                && changedOptions.isEmpty() && removedOptions.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "IniDiff [addedSections=" + addedSections.keySet() + ", removedSections=" + removedSections
+                + ", addedOptions=" + addedOptions + ", changedOptions=" + changedOptions + ", removedOptions="
+                + removedOptions + "]";
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ca.szc.configparser.exceptions.NoOptionError;
+import ca.szc.configparser.exceptions.NoSectionError;
+
+/**
+ * Stable 64 bit content hashes of the options and sections of an {@link Ini}, arranged in a hash tree (Merkle tree)
+ * with a single root hash for the whole Ini. Two Inis with equal root hashes have the same sections, options and
+ * values with near certainty, regardless of their order.
+ * <p>
+ * Sections are spread over 2^depth buckets by the hash of their name. Each bucket hash combines the hashes of the
+ * sections in it, and each node above combines its two children. Inis on different hosts can find their differing
+ * sections by comparing the root, then descending only into the children that differ, one level per round trip,
+ * finally exchanging the section hashes of the differing buckets.
+ * <p>
+ * The hashes are kept up to date as the Ini changes: a change to an option updates its section's hash, its bucket
+ * and the nodes above it, without rehashing anything else. Hashes only depend on the names and stored values, so
+ * they are the same on every platform and in every version of this library that uses this format.
+ */
+public final class IniFingerprint
+{
+    private final class Tracker implements SectionListener
+    {
+        @Override
+        public void optionAdded(String sectionName, String optionName, Object value)
+        {
+            update(sectionName);
+        }
+
+        @Override
+        public void optionChanged(String sectionName, String optionName, Object oldValue, Object newValue)
+        {
+            update(sectionName);
+        }
+
+        @Override
+        public void optionRemoved(String sectionName, String optionName, Object value)
+        {
+            update(sectionName);
+        }
+
+        @Override
+        public void sectionAdded(String sectionName, SectionMap section)
+        {
+            add(sectionName, section);
+        }
+
+        @Override
+        public void sectionRemoved(String sectionName, SectionMap section)
+        {
+            remove(sectionName);
+        }
+    }
+
+    /**
+     * The tree depth used by {@link Ini#getFingerprint()}, 1024 buckets
+     */
+    public static final int DEFAULT_DEPTH = 10;
+
+    /**
+     * Find the sections whose hashes differ between two Inis, including sections only one of them has, by descending
+     * from the roots into differing nodes only
+     *
+     * @throws IllegalArgumentException
+     *             When the fingerprints have different depths
+     * @return the names of the differing sections, in sorted order
+     */
+    public static Set<String> findDifferences(IniFingerprint a, IniFingerprint b)
+    {
+        if (a.depth != b.depth)
+            throw new IllegalArgumentException("Fingerprints have different depths " + a.depth + " and " + b.depth);
+
+        Set<String> differences = new TreeSet<>();
+        List<Integer> nodes = Collections.singletonList(0);
+        for (int level = 0; level <= a.depth && !nodes.isEmpty(); level++)
+        {
+            List<Integer> differing = new ArrayList<>();
+            for (int index : nodes)
+                if (a.getNode(level, index) != b.getNode(level, index))
+                    differing.add(index);
+
+            if (level == a.depth)
+            {
+                for (int bucket : differing)
+                {
+                    Set<String> candidates = new LinkedHashSet<>(a.getSectionsInBucket(bucket));
+                    candidates.addAll(b.getSectionsInBucket(bucket));
+                    for (String sectionName : candidates)
+                    {
+                        Long aHash = a.sectionHashes.get(sectionName);
+                        Long bHash = b.sectionHashes.get(sectionName);
+                        if (aHash == null || !aHash.equals(bHash))
+                            differences.add(sectionName);
+                    }
+                }
+            }
+
+            nodes = new ArrayList<>(differing.size() * 2);
+            for (int index : differing)
+            {
+                nodes.add(index * 2);
+                nodes.add(index * 2 + 1);
+            }
+        }
+        return differences;
+    }
+
+    /** The sections of each bucket, created when first needed */
+    private final List<Set<String>> buckets;
+
+    private final int depth;
+
+    /**
+     * Heap ordered tree: node 1 is the root, the children of node i are 2i and 2i + 1, and the buckets are the last
+     * 2^depth nodes
+     */
+    private final long[] nodes;
+
+    /** Section name to the section's hash, as included in its bucket */
+    private final Map<String, Long> sectionHashes = new HashMap<>();
+
+    private final SectionsMap sections;
+
+    /**
+     * Hash the current sections, and register to keep up with their changes
+     */
+    IniFingerprint(SectionsMap sections, int depth)
+    {
+        if (depth < 0 || depth > 24)
+            throw new IllegalArgumentException("Depth must be between 0 and 24, not " + depth);
+
+        this.sections = sections;
+        this.depth = depth;
+        nodes = new long[2 << depth];
+        buckets = new ArrayList<>(Collections.<Set<String>> nCopies(1 << depth, null));
+
+        for (Map.Entry<String, Map<String, String>> section : sections.entrySet())
+        {
+            String sectionName = section.getKey();
+            long hash = Fingerprint.section(sectionName, ((SectionMap) section.getValue()).contentHash());
+            sectionHashes.put(sectionName, hash);
+            int bucket = getBucket(sectionName);
+            nodes[(1 << depth) + bucket] += hash;
+            bucketSections(bucket).add(sectionName);
+        }
+        for (int i = (1 << depth) - 1; i > 0; i--)
+            nodes[i] = Fingerprint.combine(nodes[2 * i], nodes[2 * i + 1]);
+
+        sections.addListener(new Tracker());
+    }
+
+    private void add(String sectionName, SectionMap section)
+    {
+        long hash = Fingerprint.section(sectionName, section.contentHash());
+        sectionHashes.put(sectionName, hash);
+        int bucket = getBucket(sectionName);
+        bucketSections(bucket).add(sectionName);
+        addToBucket(bucket, hash);
+    }
+
+    /**
+     * Change a bucket's hash and recompute the nodes above it
+     */
+    private void addToBucket(int bucket, long delta)
+    {
+        int i = (1 << depth) + bucket;
+        nodes[i] += delta;
+        for (i >>>= 1; i > 0; i >>>= 1)
+            nodes[i] = Fingerprint.combine(nodes[2 * i], nodes[2 * i + 1]);
+    }
+
+    private Set<String> bucketSections(int bucket)
+    {
+        Set<String> sectionNames = buckets.get(bucket);
+        if (sectionNames == null)
+        {
+            sectionNames = new LinkedHashSet<>();
+            buckets.set(bucket, sectionNames);
+        }
+        return sectionNames;
+    }
+
+    /**
+     * @return the bucket a section belongs to, between 0 and 2^depth - 1
+     */
+    public int getBucket(String sectionName)
+    {
+        return depth == 0 ? 0 : (int) (Fingerprint.name(sectionName) >>> (64 - depth));
+    }
+
+    /**
+     * @return the number of levels below the root, the tree has 2^depth buckets
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Get the hash of a node in the tree
+     *
+     * @param level
+     *            0 for the root, depth for the buckets
+     * @param index
+     *            the node's position in its level, between 0 and 2^level - 1. The children of a node are at
+     *            2 * index and 2 * index + 1 on the next level.
+     * @return the hash
+     */
+    public long getNode(int level, int index)
+    {
+        if (level < 0 || level > depth || index < 0 || index >= 1 << level)
+            throw new IndexOutOfBoundsException("No node " + index + " on level " + level);
+        return nodes[(1 << level) + index];
+    }
+
+    /**
+     * Get the hash of an option, which depends on its name and stored value
+     *
+     * @throws NoSectionError
+     *             When there is no section sectionName
+     * @throws NoOptionError
+     *             When the section has no option optionName
+     */
+    public long getOptionHash(String sectionName, String optionName) throws NoSectionError, NoOptionError
+    {
+        SectionMap section = sections.get(sectionName);
+        if (section == null)
+            throw new NoSectionError(sectionName);
+        String key = optionName.toLowerCase();
+        if (!section.containsKey(key))
+            throw new NoOptionError(sectionName, optionName);
+        return Fingerprint.option(key, section.getRaw(key));
+    }
+
+    /**
+     * @return the hash of the whole Ini
+     */
+    public long getRoot()
+    {
+        return nodes[1];
+    }
+
+    /**
+     * Get the hash of a section, which depends on its name and options but not their order
+     *
+     * @throws NoSectionError
+     *             When there is no section sectionName
+     */
+    public long getSectionHash(String sectionName) throws NoSectionError
+    {
+        Long hash = sectionHashes.get(sectionName);
+        if (hash == null)
+            throw new NoSectionError(sectionName);
+        return hash;
+    }
+
+    /**
+     * @return an unmodifiable set of the names of the sections in a bucket
+     */
+    public Set<String> getSectionsInBucket(int bucket)
+    {
+        Set<String> sectionNames = buckets.get(bucket);
+        if (sectionNames == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(sectionNames);
+    }
+
+    private void remove(String sectionName)
+    {
+        Long hash = sectionHashes.remove(sectionName);
+        int bucket = getBucket(sectionName);
+        buckets.get(bucket).remove(sectionName);
+        addToBucket(bucket, -hash);
+    }
+
+    private void update(String sectionName)
+    {
+        SectionMap section = sections.get(sectionName);
+        long hash = Fingerprint.section(sectionName, section.contentHash());
+        Long previous = sectionHashes.put(sectionName, hash);
+        if (hash != previous)
+            addToBucket(getBucket(sectionName), hash - previous);
+    }
+}
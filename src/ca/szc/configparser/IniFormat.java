@@ -0,0 +1,370 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable INI dialect: the settings that control how INI text is read and written, along with the patterns
+ * compiled from them. Instances are thread-safe, and can be shared by any number of {@link Ini}s.
+ */
+public final class IniFormat
+{
+    /**
+     * Creates {@link IniFormat}s. Setters return this Builder so calls can be chained.
+     */
+    public static final class Builder
+    {
+        private boolean allowDuplicates;
+        private boolean allowInterpolation;
+        private boolean allowNoValue;
+        private List<String> commentPrefixes;
+        private String defaultSection;
+        private List<String> delimiters;
+        private boolean emptyLinesInValues;
+        private List<String> inlineCommentPrefixes;
+        private PositionTracking positionTracking;
+        private boolean spaceAroundDelimiters;
+
+        /**
+         * Creates a Builder with the default configuration
+         */
+        public Builder()
+        {
+            allowDuplicates = false;
+            allowInterpolation = true;
+            allowNoValue = false;
+            commentPrefixes = Arrays.asList("#", ";");
+            defaultSection = "DEFAULT";
+            delimiters = Arrays.asList("=", ":");
+            emptyLinesInValues = true;
+            inlineCommentPrefixes = Collections.emptyList();
+            positionTracking = PositionTracking.LINE;
+            spaceAroundDelimiters = true;
+        }
+
+        /**
+         * Creates a Builder with the same configuration as an existing {@link IniFormat}
+         */
+        public Builder(IniFormat format)
+        {
+            allowDuplicates = format.allowDuplicates;
+            allowInterpolation = format.allowInterpolation;
+            allowNoValue = format.allowNoValue;
+            commentPrefixes = format.commentPrefixes;
+            defaultSection = format.defaultSection;
+            delimiters = format.delimiters;
+            emptyLinesInValues = format.emptyLinesInValues;
+            inlineCommentPrefixes = format.inlineCommentPrefixes;
+            positionTracking = format.positionTracking;
+            spaceAroundDelimiters = format.spaceAroundDelimiters;
+        }
+
+        /**
+         * Compile the configuration into an {@link IniFormat}
+         *
+         * @throws IllegalArgumentException
+         *             if no delimiters are configured
+         */
+        public IniFormat build()
+        {
+            if (delimiters.isEmpty())
+                throw new IllegalArgumentException("At least one delimiter is required");
+            return new IniFormat(this);
+        }
+
+        /**
+         * @see Ini#setAllowDuplicates(boolean)
+         */
+        public Builder setAllowDuplicates(boolean allowDuplicates)
+        {
+            this.allowDuplicates = allowDuplicates;
+            return this;
+        }
+
+        /**
+         * @see Ini#setAllowInterpolation(boolean)
+         */
+        public Builder setAllowInterpolation(boolean allowInterpolation)
+        {
+            this.allowInterpolation = allowInterpolation;
+            return this;
+        }
+
+        /**
+         * @see Ini#setAllowNoValue(boolean)
+         */
+        public Builder setAllowNoValue(boolean allowNoValue)
+        {
+            this.allowNoValue = allowNoValue;
+            return this;
+        }
+
+        /**
+         * @see Ini#setCommentPrefixes(List)
+         */
+        public Builder setCommentPrefixes(List<String> commentPrefixes)
+        {
+            this.commentPrefixes = commentPrefixes;
+            return this;
+        }
+
+        /**
+         * @see Ini#setDefaultSection(String)
+         */
+        public Builder setDefaultSection(String defaultSection)
+        {
+            this.defaultSection = defaultSection;
+            return this;
+        }
+
+        /**
+         * @see Ini#setDelimiters(List)
+         */
+        public Builder setDelimiters(List<String> delimiters)
+        {
+            this.delimiters = delimiters;
+            return this;
+        }
+
+        /**
+         * @see Ini#setEmptyLinesInValues(boolean)
+         */
+        public Builder setEmptyLinesInValues(boolean emptyLinesInValues)
+        {
+            this.emptyLinesInValues = emptyLinesInValues;
+            return this;
+        }
+
+        /**
+         * @see Ini#setInlineCommentPrefixes(List)
+         */
+        public Builder setInlineCommentPrefixes(List<String> inlineCommentPrefixes)
+        {
+            this.inlineCommentPrefixes = inlineCommentPrefixes;
+            return this;
+        }
+
+        /**
+         * @see Ini#setPositionTracking(PositionTracking)
+         */
+        public Builder setPositionTracking(PositionTracking positionTracking)
+        {
+            this.positionTracking = positionTracking;
+            return this;
+        }
+
+        /**
+         * @see Ini#setSpaceAroundDelimiters(boolean)
+         */
+        public Builder setSpaceAroundDelimiters(boolean spaceAroundDelimiters)
+        {
+            this.spaceAroundDelimiters = spaceAroundDelimiters;
+            return this;
+        }
+    }
+
+    /**
+     * The default configuration, compatible with Python's configparser defaults
+     */
+    public static final IniFormat DEFAULT = new Builder().build();
+
+    /** The number of the option name group in the {@link #optionPattern}, see {@link #VALUE_GROUP} */
+    static final int OPTION_GROUP = 1;
+
+    /** The number of the value group in the {@link #optionPattern}, named groups can't be queried before Java 8 */
+    static final int VALUE_GROUP = 3;
+
+    /**
+     * Create the regular expression source for the {@link #optionPattern}
+     */
+    private static String templateOptionPattern(List<String> delimiters, boolean allowNoValue)
+    {
+        // Join delimiters with | character
+        StringBuilder sb = new StringBuilder();
+        String prefix = "";
+        for (String delimiter : delimiters)
+        {
+            sb.append(prefix);
+            prefix = "|";
+            sb.append(Pattern.quote(delimiter));
+        }
+        String delimiterRegEx = sb.toString();
+
+        // Create the option pattern
+        sb = new StringBuilder();
+
+        // Option name: any characters, group OPTION_GROUP
+        sb.append("(?<option>.*?)");
+
+        // Zero or more whitespace
+        sb.append("\\s*");
+
+        // Open optional value group
+        if (allowNoValue)
+            sb.append("(?:");
+
+        // Delimiter: one option in delimiterRegEx
+        sb.append("(?<vi>");
+        sb.append(delimiterRegEx);
+        sb.append(")");
+
+        // Zero or more whitespace
+        sb.append("\\s*");
+
+        // Value: all remaining characters, group VALUE_GROUP
+        sb.append("(?<value>.*)");
+
+        // Close optional value group
+        if (allowNoValue)
+            sb.append(")?");
+
+        // End of line
+        sb.append("$");
+
+        return sb.toString();
+    }
+
+    private static List<String> copy(List<String> list)
+    {
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    private final boolean allowDuplicates;
+    private final boolean allowInterpolation;
+    private final boolean allowNoValue;
+    private final CommentMatcher commentMatcher;
+    private final List<String> commentPrefixes;
+    private final String defaultSection;
+    private final List<String> delimiters;
+    private final boolean emptyLinesInValues;
+    private final List<String> inlineCommentPrefixes;
+    private final Pattern optionPattern;
+    private final PositionTracking positionTracking;
+    private final boolean spaceAroundDelimiters;
+    /** Written between option keys and values */
+    private final String writeDelimiter;
+
+    private IniFormat(Builder builder)
+    {
+        allowDuplicates = builder.allowDuplicates;
+        allowInterpolation = builder.allowInterpolation;
+        allowNoValue = builder.allowNoValue;
+        commentPrefixes = copy(builder.commentPrefixes);
+        defaultSection = builder.defaultSection;
+        delimiters = copy(builder.delimiters);
+        emptyLinesInValues = builder.emptyLinesInValues;
+        inlineCommentPrefixes = copy(builder.inlineCommentPrefixes);
+        positionTracking = builder.positionTracking;
+        spaceAroundDelimiters = builder.spaceAroundDelimiters;
+
+        commentMatcher = new CommentMatcher(commentPrefixes, inlineCommentPrefixes);
+        optionPattern = Pattern.compile(templateOptionPattern(delimiters, allowNoValue));
+
+        // Create option/value delimiter string using first in configured delimiters
+        StringBuilder sb = new StringBuilder();
+        if (spaceAroundDelimiters)
+            sb.append(" ");
+        sb.append(delimiters.get(0));
+        if (spaceAroundDelimiters)
+            sb.append(" ");
+        writeDelimiter = sb.toString();
+    }
+
+    CommentMatcher getCommentMatcher()
+    {
+        return commentMatcher;
+    }
+
+    /**
+     * @return an unmodifiable list of the full line comment prefixes
+     */
+    public List<String> getCommentPrefixes()
+    {
+        return commentPrefixes;
+    }
+
+    /**
+     * @return the name of the section that provides default values for all other sections, or null
+     */
+    public String getDefaultSection()
+    {
+        return defaultSection;
+    }
+
+    /**
+     * @return an unmodifiable list of the key/value delimiters
+     */
+    public List<String> getDelimiters()
+    {
+        return delimiters;
+    }
+
+    /**
+     * @return an unmodifiable list of the partial line comment prefixes
+     */
+    public List<String> getInlineCommentPrefixes()
+    {
+        return inlineCommentPrefixes;
+    }
+
+    Pattern getOptionPattern()
+    {
+        return optionPattern;
+    }
+
+    /**
+     * @return how much is remembered about where options were read from
+     */
+    public PositionTracking getPositionTracking()
+    {
+        return positionTracking;
+    }
+
+    String getWriteDelimiter()
+    {
+        return writeDelimiter;
+    }
+
+    public boolean isAllowDuplicates()
+    {
+        return allowDuplicates;
+    }
+
+    public boolean isAllowInterpolation()
+    {
+        return allowInterpolation;
+    }
+
+    public boolean isAllowNoValue()
+    {
+        return allowNoValue;
+    }
+
+    public boolean isEmptyLinesInValues()
+    {
+        return emptyLinesInValues;
+    }
+
+    public boolean isSpaceAroundDelimiters()
+    {
+        return spaceAroundDelimiters;
+    }
+}
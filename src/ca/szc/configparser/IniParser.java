@@ -0,0 +1,522 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ca.szc.configparser.exceptions.DuplicateOptionError;
+import ca.szc.configparser.exceptions.DuplicateSectionError;
+import ca.szc.configparser.exceptions.IniParserException;
+import ca.szc.configparser.exceptions.InvalidLine;
+import ca.szc.configparser.exceptions.MissingSectionHeaderError;
+import ca.szc.configparser.exceptions.ParsingError;
+
+/**
+ * A reusable INI parser for one {@link IniFormat}. The matchers and buffers used while parsing are kept between
+ * calls, so parsing many small inputs with the same instance allocates little beyond the resulting {@link Ini}s.
+ * <p>
+ * Instances are not thread-safe. Share them through a {@link ThreadLocal} or a pool, for example:
+ *
+ * <pre>
+ * private static final ThreadLocal&lt;IniParser&gt; parsers = new ThreadLocal&lt;IniParser&gt;()
+ * {
+ *     &#64;Override
+ *     protected IniParser initialValue()
+ *     {
+ *         return new IniParser(IniFormat.DEFAULT);
+ *     }
+ * };
+ *
+ * Ini ini = parsers.get().parse(body);
+ * </pre>
+ */
+public final class IniParser
+{
+    private static final Pattern sectionPattern = Pattern.compile(templateSectionPattern());
+
+    /**
+     * Create the regular expression source for the {@link #sectionPattern}
+     */
+    private static String templateSectionPattern()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        // Literal [
+        sb.append("\\[");
+
+        // Header: one or more characters except literal ]
+        sb.append("(?<header>[^]]+)");
+
+        // Literal ]
+        sb.append("\\]");
+
+        return sb.toString();
+    }
+
+    /**
+     * Turn encoded INI text into a {@link CharSequence} for parsing. A UTF-8 byte order mark is skipped. Text in an
+     * ASCII compatible {@link Charset} that only contains ASCII characters is used without decoding, anything else is
+     * decoded once, strictly.
+     *
+     * @param share
+     *            whether ASCII text may refer to bytes instead of a copy of them
+     * @throws CharacterCodingException
+     *             When bytes are not valid in charset
+     */
+    static CharSequence decode(byte[] bytes, int offset, int length, Charset charset, boolean share)
+            throws CharacterCodingException
+    {
+        if (charset.equals(StandardCharsets.UTF_8) && length >= 3 && bytes[offset] == (byte) 0xEF
+                && bytes[offset + 1] == (byte) 0xBB && bytes[offset + 2] == (byte) 0xBF)
+        {
+            offset += 3;
+            length -= 3;
+        }
+
+        if ((charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1)) && AsciiSequence.isAscii(bytes, offset, length))
+        {
+            if (share)
+                return new AsciiSequence(bytes, offset, length);
+            return new AsciiSequence(Arrays.copyOfRange(bytes, offset, offset + length), 0, length);
+        }
+
+        return charset.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Read a file, decompressing it if its {@link Compression} is recognized. The file is streamed, a compressed file
+     * is never held in memory as a whole.
+     *
+     * @return a buffer with the (decompressed) bytes between its position and limit
+     */
+    static ByteBuffer readFile(Path path) throws IOException
+    {
+        long size = Files.size(path);
+        try (InputStream in = Compression.detectAndDecompress(Files.newInputStream(path)))
+        {
+            // One more than the size, so the end of a plain file is found without growing the buffer. Compressed
+            // files grow it as needed.
+            return readFully(in, (int) Math.min(size + 1, Integer.MAX_VALUE - 8));
+        }
+    }
+
+    /**
+     * Read all remaining bytes of a stream
+     *
+     * @return a buffer with the bytes between its position and limit
+     */
+    static ByteBuffer readFully(InputStream in) throws IOException
+    {
+        return readFully(in, 8192);
+    }
+
+    /**
+     * Read all remaining bytes of a stream
+     *
+     * @param capacity
+     *            the expected number of bytes
+     * @return a buffer with the bytes between its position and limit
+     */
+    private static ByteBuffer readFully(InputStream in, int capacity) throws IOException
+    {
+        byte[] bytes = new byte[Math.max(capacity, 16)];
+        int length = 0;
+        int count;
+        while ((count = in.read(bytes, length, bytes.length - length)) != -1)
+        {
+            length += count;
+            if (length == bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    /**
+     * Turn the remaining bytes of a buffer into a {@link CharSequence} for parsing, without changing its position
+     *
+     * @see #decode(byte[], int, int, Charset, boolean)
+     */
+    static CharSequence decode(ByteBuffer buffer, Charset charset, boolean share) throws CharacterCodingException
+    {
+        if (buffer.hasArray())
+            return decode(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), charset, share);
+
+        // Already a private copy
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return decode(bytes, 0, bytes.length, charset, true);
+    }
+
+    /**
+     * Copy a line out of the source text, for use in error messages
+     */
+    private static String line(CharSequence source, int lineStart, int lineEnd)
+    {
+        return source.subSequence(lineStart, lineEnd).toString();
+    }
+
+    private final List<ParsingError> errors = new ArrayList<>();
+
+    private final IniFormat format;
+
+    private final Matcher optionMatcher;
+
+    private final Map<String, SectionMap> parsedSections = new LinkedHashMap<>();
+
+    private final Matcher sectionMatcher;
+
+    /** Collects the lines of the value currently being read */
+    private final LazyValue.Builder valueBuilder = new LazyValue.Builder();
+
+    /**
+     * Creates a parser for a specified configuration
+     *
+     * @param format
+     *            the {@link IniFormat} of the text to parse
+     */
+    public IniParser(IniFormat format)
+    {
+        this.format = format;
+
+        sectionMatcher = sectionPattern.matcher("");
+        optionMatcher = format.getOptionPattern().matcher("");
+    }
+
+    public IniFormat getFormat()
+    {
+        return format;
+    }
+
+    /**
+     * Parse UTF-8 encoded INI text
+     *
+     * @param bytes
+     *            the INI text
+     * @return a new {@link Ini} with this parser's format
+     * @throws IOException
+     *             When bytes are not valid UTF-8
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     * @see #parse(byte[], Charset)
+     */
+    public Ini parse(byte[] bytes) throws IOException, IniParserException
+    {
+        return parse(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse encoded INI text. ASCII text in an ASCII compatible {@link Charset} is copied and parsed without decoding,
+     * so bytes may be reused once this returns.
+     *
+     * @param bytes
+     *            the INI text
+     * @param charset
+     *            the {@link Charset} to decode bytes with
+     * @return a new {@link Ini} with this parser's format
+     * @throws IOException
+     *             When bytes are not valid in charset
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     */
+    public Ini parse(byte[] bytes, Charset charset) throws IOException, IniParserException
+    {
+        return parse(decode(bytes, 0, bytes.length, charset, false));
+    }
+
+    /**
+     * Parse the remaining bytes of a buffer as encoded INI text, without changing its position. The buffer's content
+     * may be reused once this returns.
+     *
+     * @param buffer
+     *            the INI text
+     * @param charset
+     *            the {@link Charset} to decode buffer with
+     * @return a new {@link Ini} with this parser's format
+     * @throws IOException
+     *             When buffer is not valid in charset
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     * @see #parse(byte[], Charset)
+     */
+    public Ini parse(ByteBuffer buffer, Charset charset) throws IOException, IniParserException
+    {
+        return parse(decode(buffer, charset, false));
+    }
+
+    /**
+     * Parse INI text that is already in memory. Option values refer to text until they are first accessed, so it must
+     * not be modified after this call.
+     *
+     * @param text
+     *            the INI text
+     * @return a new {@link Ini} with this parser's format
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     */
+    public Ini parse(CharSequence text) throws IniParserException
+    {
+        Ini ini = new Ini(format);
+        parse(ini, text);
+        return ini;
+    }
+
+    /**
+     * Parse encoded INI text like {@link #parse(byte[], Charset)}, but without copying bytes. Option values refer to
+     * bytes until they are first accessed, so it must not be modified while the returned {@link Ini} is in use.
+     *
+     * @param bytes
+     *            the INI text
+     * @param charset
+     *            the {@link Charset} to decode bytes with
+     * @return a new {@link Ini} with this parser's format
+     * @throws IOException
+     *             When bytes are not valid in charset
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     */
+    public Ini parseZeroCopy(byte[] bytes, Charset charset) throws IOException, IniParserException
+    {
+        return parse(decode(bytes, 0, bytes.length, charset, true));
+    }
+
+    /**
+     * Parse the remaining bytes of a buffer like {@link #parse(ByteBuffer, Charset)}, but without copying a heap
+     * buffer's content. Option values refer to it until they are first accessed, so it must not be modified while the
+     * returned {@link Ini} is in use.
+     *
+     * @param buffer
+     *            the INI text
+     * @param charset
+     *            the {@link Charset} to decode buffer with
+     * @return a new {@link Ini} with this parser's format
+     * @throws IOException
+     *             When buffer is not valid in charset
+     * @throws IniParserException
+     *             When the INI text is invalid in some way.
+     */
+    public Ini parseZeroCopy(ByteBuffer buffer, Charset charset) throws IOException, IniParserException
+    {
+        return parse(decode(buffer, charset, true));
+    }
+
+    /**
+     * Parse INI text in place, adding the sections found to target. Lines are handled as index ranges of source, only
+     * section names, option names and error messages are copied out of it.
+     */
+    void parse(Ini target, CharSequence source) throws IniParserException
+    {
+        target.sections.checkWritable();
+        CommentMatcher commentMatcher = format.getCommentMatcher();
+        boolean allowDuplicates = format.isAllowDuplicates();
+        boolean emptyLinesInValues = format.isEmptyLinesInValues();
+        PositionTracking positionTracking = format.getPositionTracking();
+        // Values are kept as bounds into the source text until they are requested, see LazyValue
+        LazyValue.Builder valueBuilder = this.valueBuilder;
+        Map<String, SectionMap> parsedSections = this.parsedSections;
+        SectionMap currSection = null;
+        String currSectionName = null;
+        String currOptionName = null;
+        Matcher sectionMatcher = this.sectionMatcher.reset(source);
+        Matcher optionMatcher = this.optionMatcher.reset(source);
+
+        try
+        {
+            int indentLevel = 0;
+            int lineNo = 0;
+            int length = source.length();
+            int lineStart = 0;
+
+            while (lineStart < length)
+            {
+                lineNo++;
+
+                // Lines are terminated like BufferedReader.readLine(): by \n, \r or \r\n
+                int lineEnd = lineStart;
+                while (lineEnd < length && source.charAt(lineEnd) != '\n' && source.charAt(lineEnd) != '\r')
+                    lineEnd++;
+                int nextLineStart = lineEnd + 1;
+                if (nextLineStart < length && source.charAt(lineEnd) == '\r' && source.charAt(nextLineStart) == '\n')
+                    nextLineStart++;
+
+                // Strip comments. Either the whole line is a comment, or find the earliest instance of an inline
+                // comment prefix with a whitespace character before it.
+                int commentStart = commentMatcher.commentStart(source, lineStart, lineEnd);
+
+                // Get the bounds of the trimmed non-comment part of the line, if applicable
+                int valueEnd = commentStart != -1 ? lineStart + commentStart : lineEnd;
+                int valueStart = StringUtil.stripStart(source, lineStart, valueEnd);
+                valueEnd = StringUtil.stripEnd(source, valueStart, valueEnd);
+
+                if (valueStart == valueEnd)
+                {
+                    if (emptyLinesInValues)
+                    {
+                        // For ongoing option values, add an empty line, but only if there was no comment on this line
+                        if (commentStart == -1 && currSection != null && currOptionName != null)
+                        {
+                            valueBuilder.addLine(lineStart, lineStart);
+                        }
+                    }
+                    else
+                    {
+                        // Empty line marks the end of a value
+                        indentLevel = Integer.MAX_VALUE;
+                    }
+                }
+                else
+                {
+                    // The value starts at the first non-whitespace character in the raw line, which is the indent level
+                    int currIndentLevel = valueStart - lineStart;
+
+                    // Continuation line
+                    if (currSection != null && currOptionName != null && currIndentLevel > indentLevel)
+                    {
+                        valueBuilder.addLine(valueStart, valueEnd);
+                    }
+                    // Section/option header
+                    else
+                    {
+                        indentLevel = currIndentLevel;
+
+                        // Any previous value is complete
+                        valueBuilder.finish(source);
+
+                        sectionMatcher.region(valueStart, valueEnd);
+                        // Section header
+                        if (sectionMatcher.matches())
+                        {
+                            currSectionName = sectionMatcher.group("header");
+                            if (parsedSections.containsKey(currSectionName))
+                            {
+                                if (!allowDuplicates)
+                                {
+                                    errors.add(new DuplicateSectionError(lineNo, currSectionName));
+                                    currSectionName = null;
+                                    currSection = null;
+                                }
+                                else
+                                {
+                                    currSection = parsedSections.get(currSectionName);
+                                }
+                            }
+                            else
+                            {
+                                currSection = new SectionMap();
+                                parsedSections.put(currSectionName, currSection);
+                            }
+                            // So sections can't start with a continuation line
+                            currOptionName = null;
+                        }
+                        // No section header in file
+                        else if (currSection == null)
+                        {
+                            errors.add(new MissingSectionHeaderError(lineNo, line(source, lineStart, lineEnd)));
+                        }
+                        // Option header
+                        else
+                        {
+                            optionMatcher.region(valueStart, valueEnd);
+                            if (optionMatcher.matches())
+                            {
+                                int optionStart = optionMatcher.start(IniFormat.OPTION_GROUP);
+                                int optionEnd = optionMatcher.end(IniFormat.OPTION_GROUP);
+                                if (optionStart == optionEnd)
+                                {
+                                    errors.add(new InvalidLine(lineNo, line(source, lineStart, lineEnd)));
+                                }
+                                optionEnd = StringUtil.stripEnd(source, optionStart, optionEnd);
+                                currOptionName = source.subSequence(optionStart, optionEnd).toString().toLowerCase();
+                                if (!allowDuplicates && currSection.containsKey(currOptionName))
+                                {
+                                    errors.add(new DuplicateOptionError(lineNo, currSectionName, currOptionName));
+                                }
+                                else
+                                {
+                                    valueBuilder.start(currSection, currOptionName);
+                                    // The value group doesn't participate for options without values
+                                    int optionValueStart = optionMatcher.start(IniFormat.VALUE_GROUP);
+                                    if (optionValueStart != -1)
+                                    {
+                                        int optionValueEnd = StringUtil.stripEnd(source, optionValueStart,
+                                                optionMatcher.end(IniFormat.VALUE_GROUP));
+                                        valueBuilder.addLine(optionValueStart, optionValueEnd);
+                                    }
+                                    if (positionTracking != PositionTracking.NONE)
+                                        currSection.setPosition(currOptionName, positionTracking, lineNo,
+                                                optionStart - lineStart + 1, optionStart);
+                                }
+                            }
+                            else
+                            {
+                                errors.add(new InvalidLine(lineNo, line(source, lineStart, lineEnd)));
+                            }
+                        }
+                    }
+                }
+
+                lineStart = nextLineStart;
+            }
+
+            valueBuilder.finish(source);
+
+            if (errors.size() > 0)
+                throw new IniParserException(new ArrayList<>(errors));
+
+            target.sections.putAll(parsedSections);
+
+            if (format.isAllowInterpolation())
+            {
+                target.interpolate(errors);
+                if (errors.size() > 0)
+                    throw new IniParserException(new ArrayList<>(errors));
+            }
+        }
+        finally
+        {
+            reset();
+        }
+    }
+
+    /**
+     * Clear the state left over from the last parse. This is done automatically after every parse, including failed
+     * ones, so the parser never holds on to parsed text.
+     */
+    public void reset()
+    {
+        errors.clear();
+        parsedSections.clear();
+        valueBuilder.reset();
+        sectionMatcher.reset("");
+        optionMatcher.reset("");
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+/**
+ * Where an option was read from in INI text, see {@link Ini#getPosition(String, String)}
+ */
+public final class IniPosition
+{
+    private final int column;
+
+    private final int line;
+
+    private final int offset;
+
+    /**
+     * @param line
+     *            the line number, starting at 1
+     * @param column
+     *            the column number, starting at 1, or 0 if unknown
+     * @param offset
+     *            the character offset from the start of the text, starting at 0, or -1 if unknown
+     */
+    public IniPosition(int line, int column, int offset)
+    {
+        this.line = line;
+        this.column = column;
+        this.offset = offset;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof IniPosition))
+            return false;
+        IniPosition other = (IniPosition) obj;
+        return line == other.line && column == other.column && offset == other.offset;
+    }
+
+    /**
+     * @return the column of the first character of the option name, starting at 1, or 0 if columns are not tracked
+     */
+    public int getColumn()
+    {
+        return column;
+    }
+
+    /**
+     * @return the line of the option name, starting at 1
+     */
+    public int getLine()
+    {
+        return line;
+    }
+
+    /**
+     * @return the offset of the first character of the option name from the start of the decoded text, starting at
+     *         0, or -1 if offsets are not tracked
+     */
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (line * 31 + column) * 31 + offset;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (column == 0)
+            return "line " + line;
+        return "line " + line + ", column " + column;
+    }
+}
@@ -0,0 +1,362 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.szc.configparser.exceptions.NoOptionError;
+import ca.szc.configparser.exceptions.NoSectionError;
+
+/**
+ * Combines several {@link Ini}s into layers, such as vendor defaults, site overrides and host overrides, where an
+ * option in a higher layer overrides the same option in the layers below it. The layers' section maps are not
+ * copied. Instead a merged index records which layer provides each option, so lookups are a constant number of hash
+ * lookups no matter how many layers there are.
+ * <p>
+ * The index is kept current through an {@link IniChangeListener} on each layer that isn't frozen: a change to a layer
+ * only re-merges the option or section it affects, and replacing a layer only re-merges the sections the old and new
+ * layers have. All layers must have the same default section. Values are returned as the layer that provides them
+ * resolves them, interpolation does not cross layers. Instances are not thread-safe.
+ */
+public class IniStack
+{
+    /** Keeps the index current when a layer changes */
+    private final class LayerListener implements IniChangeListener
+    {
+        @Override
+        public void iniChanged(IniChangeEvent event)
+        {
+            switch (event.getType())
+            {
+                case OPTION_ADDED:
+                case OPTION_REMOVED:
+                    reindex(event.getSectionName(), event.getOptionName());
+                    break;
+                case SECTION_ADDED:
+                case SECTION_REMOVED:
+                    reindex(event.getSectionName());
+                    break;
+                default:
+                    // Values are looked up in the layers, a changed value needs no re-merge
+                    break;
+            }
+        }
+    }
+
+    /** Read-only view of a section merged from all layers, looking options up in the index as they are requested */
+    private final class MergedSection extends AbstractMap<String, String>
+    {
+        private final String sectionName;
+
+        private MergedSection(String sectionName)
+        {
+            this.sectionName = sectionName;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            Map<String, Integer> options = index.get(sectionName);
+            return options != null && options.containsKey(key);
+        }
+
+        /**
+         * The options in the order they were first found, from the lowest layer up
+         */
+        @Override
+        public Set<Entry<String, String>> entrySet()
+        {
+            return new AbstractSet<Entry<String, String>>()
+            {
+                @Override
+                public Iterator<Entry<String, String>> iterator()
+                {
+                    Map<String, Integer> options = index.get(sectionName);
+                    final Iterator<Entry<String, Integer>> owners = options == null ? Collections
+                            .<Entry<String, Integer>> emptyIterator() : options.entrySet().iterator();
+
+                    return new Iterator<Entry<String, String>>()
+                    {
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return owners.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, String> next()
+                        {
+                            Entry<String, Integer> owner = owners.next();
+                            return new SimpleImmutableEntry<>(owner.getKey(), value(owner.getValue(), owner.getKey()));
+                        }
+
+                        @Override
+                        public void remove()
+                        {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    Map<String, Integer> options = index.get(sectionName);
+                    return options == null ? 0 : options.size();
+                }
+            };
+        }
+
+        @Override
+        public String get(Object key)
+        {
+            Map<String, Integer> options = index.get(sectionName);
+            Integer owner = options == null ? null : options.get(key);
+            return owner == null ? null : value(owner, (String) key);
+        }
+
+        /**
+         * @return the stored value of an option in a layer
+         */
+        private String value(int layer, String optionName)
+        {
+            return layers.get(layer).getSections().get(sectionName).get(optionName);
+        }
+    }
+
+    private String defaultSection;
+
+    /** Section name to option name to the index of the highest layer with that option */
+    private final Map<String, Map<String, Integer>> index = new HashMap<>();
+
+    private final List<Ini> layers = new ArrayList<>();
+
+    private final LayerListener listener = new LayerListener();
+
+    /**
+     * Creates an empty stack
+     */
+    public IniStack()
+    {
+    }
+
+    /**
+     * Creates a stack from layers
+     *
+     * @param layers
+     *            the layers, from lowest to highest priority
+     * @throws IllegalArgumentException
+     *             When the layers have different default sections
+     */
+    public IniStack(List<Ini> layers)
+    {
+        for (Ini layer : layers)
+            push(layer);
+    }
+
+    /**
+     * Start following the changes of a layer
+     *
+     * @throws IllegalArgumentException
+     *             When the layer's default section differs from the other layers'
+     */
+    private void attach(Ini layer, boolean only)
+    {
+        String layerDefault = layer.getDefaultSection();
+        if (!only && (layerDefault == null ? defaultSection != null : !layerDefault.equals(defaultSection)))
+            throw new IllegalArgumentException("Layer has default section " + layerDefault + ", other layers have "
+                    + defaultSection);
+        defaultSection = layerDefault;
+
+        if (!layer.isFrozen())
+            layer.addChangeListener(listener);
+    }
+
+    /**
+     * @return the name of the section that provides default values for all other sections, as given by the layers'
+     *         formats, or null
+     */
+    public String getDefaultSection()
+    {
+        return defaultSection;
+    }
+
+    /**
+     * @return an unmodifiable list of the layers, from lowest to highest priority
+     */
+    public List<Ini> getLayers()
+    {
+        return Collections.unmodifiableList(layers);
+    }
+
+    /**
+     * Get a read-only view of a merged section. Options inherited from the default section are not included. Nothing
+     * is copied, each option is looked up in the layer that provides it when it is requested, so the view follows
+     * changes to the layers.
+     *
+     * @return the view, or null if no layer has the section
+     */
+    public Map<String, String> getSection(String sectionName)
+    {
+        if (!index.containsKey(sectionName))
+            return null;
+        return new MergedSection(sectionName);
+    }
+
+    /**
+     * @return an unmodifiable set of the names of the sections present in any layer
+     */
+    public Set<String> getSectionNames()
+    {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * Get the value of an option from the highest layer that has it. Options not present in the section in any layer
+     * are looked up in the default section, see {@link #getDefaultSection()}. An inherited value is resolved by the
+     * layer that provides it, in the context of the requested section if that layer has it too, otherwise in the
+     * context of the default section.
+     *
+     * @throws NoSectionError
+     *             When no layer has section sectionName
+     * @throws NoOptionError
+     *             When neither the section nor the default section have option optionName in any layer
+     */
+    public String getValue(String sectionName, String optionName) throws NoSectionError, NoOptionError
+    {
+        Map<String, Integer> options = index.get(sectionName);
+        if (options == null)
+            throw new NoSectionError(sectionName);
+
+        String key = optionName.toLowerCase();
+        Integer owner = options.get(key);
+        if (owner != null)
+            return layers.get(owner).getValue(sectionName, key);
+
+        if (defaultSection != null && !defaultSection.equals(sectionName))
+        {
+            Map<String, Integer> defaults = index.get(defaultSection);
+            owner = defaults == null ? null : defaults.get(key);
+            if (owner != null)
+            {
+                Ini layer = layers.get(owner);
+                if (layer.getSections().containsKey(sectionName))
+                    return layer.getValue(sectionName, key);
+                return layer.getValue(defaultSection, key);
+            }
+        }
+        throw new NoOptionError(sectionName, optionName);
+    }
+
+    /**
+     * Add a layer on top of the existing layers
+     *
+     * @return this IniStack
+     * @throws IllegalArgumentException
+     *             When the layer's default section differs from the other layers'
+     */
+    public IniStack push(Ini layer)
+    {
+        attach(layer, layers.isEmpty());
+        layers.add(layer);
+        for (String sectionName : layer.getSections().keySet())
+            reindex(sectionName);
+        return this;
+    }
+
+    /**
+     * Merge one section from all layers into the index
+     */
+    private void reindex(String sectionName)
+    {
+        Map<String, Integer> options = null;
+        for (int layer = 0; layer < layers.size(); layer++)
+        {
+            Map<String, String> section = layers.get(layer).getSections().get(sectionName);
+            if (section == null)
+                continue;
+            if (options == null)
+                options = new LinkedHashMap<>();
+            for (String option : section.keySet())
+                options.put(option, layer);
+        }
+
+        if (options == null)
+            index.remove(sectionName);
+        else
+            index.put(sectionName, options);
+    }
+
+    /**
+     * Merge one option from all layers into the index
+     */
+    private void reindex(String sectionName, String optionName)
+    {
+        Map<String, Integer> options = index.get(sectionName);
+        if (options == null)
+        {
+            reindex(sectionName);
+            return;
+        }
+
+        for (int layer = layers.size() - 1; layer >= 0; layer--)
+        {
+            Map<String, String> section = layers.get(layer).getSections().get(sectionName);
+            if (section != null && section.containsKey(optionName))
+            {
+                options.put(optionName, layer);
+                return;
+            }
+        }
+        options.remove(optionName);
+    }
+
+    /**
+     * Replace a layer, for example with a newly read version of the same file. Only the sections the old and new
+     * versions have are merged again.
+     *
+     * @param layer
+     *            the index of the layer, 0 being the lowest
+     * @param ini
+     *            the new layer
+     * @return this IniStack
+     * @throws IllegalArgumentException
+     *             When the new layer's default section differs from the other layers'
+     */
+    public IniStack set(int layer, Ini ini)
+    {
+        Ini old = layers.get(layer);
+        attach(ini, layers.size() == 1);
+        old.removeChangeListener(listener);
+        layers.set(layer, ini);
+
+        Set<String> affected = new HashSet<>(old.getSections().keySet());
+        affected.addAll(ini.getSections().keySet());
+        for (String sectionName : affected)
+            reindex(sectionName);
+        return this;
+    }
+}
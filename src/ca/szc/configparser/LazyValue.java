@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.Arrays;
+
+/**
+ * An option value that has not been turned into a {@link String} yet. Only the bounds of each of the value's lines
+ * in the parsed source text are kept, the lines are joined when the value is first requested.
+ */
+final class LazyValue
+{
+    /**
+     * Accumulates the line bounds of one option's value at a time, reusing a single buffer. Blank lines are kept
+     * only while a non-blank line follows them, so trailing blank lines are never part of the built value.
+     */
+    static final class Builder
+    {
+        private int[] bounds = new int[8];
+        private int length;
+        private int nonBlankLength;
+        private String option;
+        private SectionMap section;
+
+        /**
+         * Add the bounds of the next line of the value. Blank lines have equal start and end.
+         */
+        void addLine(int start, int end)
+        {
+            if (length + 2 > bounds.length)
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+
+            bounds[length++] = start;
+            bounds[length++] = end;
+            if (start != end)
+                nonBlankLength = length;
+        }
+
+        /**
+         * Store the value collected since {@link #start(SectionMap, String)} into its section, if there is one
+         * pending
+         *
+         * @param source
+         *            the text the line bounds refer to
+         */
+        void finish(CharSequence source)
+        {
+            if (section == null)
+                return;
+
+            Object value;
+            if (length == 0)
+                value = null;
+            else if (nonBlankLength == 0)
+                value = "";
+            else
+                value = new LazyValue(source, Arrays.copyOf(bounds, nonBlankLength));
+            section.putRaw(option, value);
+
+            section = null;
+            option = null;
+        }
+
+        /**
+         * Discard any pending value
+         */
+        void reset()
+        {
+            section = null;
+            option = null;
+            length = 0;
+            nonBlankLength = 0;
+        }
+
+        /**
+         * Begin collecting the value of a new option. The option is created in section immediately, with a null
+         * value until {@link #finish(CharSequence)} is called.
+         */
+        void start(SectionMap section, String option)
+        {
+            this.section = section;
+            this.option = option;
+            length = 0;
+            nonBlankLength = 0;
+
+            section.putRaw(option, null);
+        }
+    }
+
+    private final int[] bounds;
+
+    private final CharSequence source;
+
+    /**
+     * @param source
+     *            the text the value was parsed from
+     * @param bounds
+     *            start (inclusive) and end (exclusive) index pairs into source, one pair per line of the value
+     */
+    LazyValue(CharSequence source, int[] bounds)
+    {
+        this.source = source;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Check if a character is present in the value, without creating the joined {@link String}
+     */
+    boolean contains(char c)
+    {
+        for (int i = 0; i < bounds.length; i += 2)
+            for (int j = bounds[i]; j < bounds[i + 1]; j++)
+                if (source.charAt(j) == c)
+                    return true;
+        return false;
+    }
+
+    /**
+     * Check if the joined value would be equal to text, without creating the joined {@link String}
+     */
+    boolean contentEquals(CharSequence text)
+    {
+        int length = bounds.length / 2 - 1;
+        for (int i = 0; i < bounds.length; i += 2)
+            length += bounds[i + 1] - bounds[i];
+        if (length != text.length())
+            return false;
+
+        int pos = 0;
+        for (int i = 0; i < bounds.length; i += 2)
+        {
+            if (i > 0 && text.charAt(pos++) != '\n')
+                return false;
+            for (int j = bounds[i]; j < bounds[i + 1]; j++)
+                if (source.charAt(j) != text.charAt(pos++))
+                    return false;
+        }
+        return true;
+    }
+
+    /**
+     * Continue a {@link Fingerprint} hash with the joined value, without creating the joined {@link String}
+     */
+    long hash(long hash)
+    {
+        for (int i = 0; i < bounds.length; i += 2)
+        {
+            if (i > 0)
+                hash = Fingerprint.hash(hash, '\n');
+            hash = Fingerprint.hash(hash, source, bounds[i], bounds[i + 1]);
+        }
+        return hash;
+    }
+
+    /**
+     * Join the value's lines with newline characters
+     */
+    @Override
+    public String toString()
+    {
+        // Single line values are the common case, and don't need a builder
+        if (bounds.length == 2)
+            return source.subSequence(bounds[0], bounds[1]).toString();
+
+        int length = bounds.length / 2 - 1;
+        for (int i = 0; i < bounds.length; i += 2)
+            length += bounds[i + 1] - bounds[i];
+
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < bounds.length; i += 2)
+        {
+            if (i > 0)
+                sb.append('\n');
+            sb.append(source, bounds[i], bounds[i + 1]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+/**
+ * What an {@link Ini} indexes to answer {@link Ini#getSectionsWithOption(String)} and
+ * {@link Ini#getSectionsWithValue(String, String)} without scanning every section
+ */
+public enum OptionIndex
+{
+    /**
+     * No index, queries scan all sections
+     */
+    NONE,
+
+    /**
+     * Index the sections containing each option name
+     */
+    NAMES,
+
+    /**
+     * Index the sections containing each option name, and each value of every option. Values are materialized as
+     * they are indexed.
+     */
+    NAMES_AND_VALUES
+}
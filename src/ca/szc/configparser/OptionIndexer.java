@@ -0,0 +1,169 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintains the inverted indexes selected by an {@link OptionIndex}: option name to the names of the sections
+ * containing it, and optionally option name and value to the names of the sections with that value. Section names
+ * are kept in the order they were indexed.
+ */
+final class OptionIndexer implements SectionListener
+{
+    private static <K> void add(Map<K, Set<String>> index, K key, String sectionName)
+    {
+        Set<String> sectionNames = index.get(key);
+        if (sectionNames == null)
+        {
+            sectionNames = new LinkedHashSet<>();
+            index.put(key, sectionNames);
+        }
+        sectionNames.add(sectionName);
+    }
+
+    private static <K> void remove(Map<K, Set<String>> index, K key, String sectionName)
+    {
+        Set<String> sectionNames = index.get(key);
+        if (sectionNames != null && sectionNames.remove(sectionName) && sectionNames.isEmpty())
+            index.remove(key);
+    }
+
+    private static String valueOf(Object value)
+    {
+        return value == null ? null : value.toString();
+    }
+
+    private final Map<String, Set<String>> sectionsByOption = new HashMap<>();
+
+    /** Option name to value to section names, or null if values are not indexed */
+    private final Map<String, Map<String, Set<String>>> sectionsByValue;
+
+    /**
+     * Create an index of the current sections
+     *
+     * @param indexValues
+     *            index option values as well as names
+     */
+    OptionIndexer(SectionsMap sections, boolean indexValues)
+    {
+        sectionsByValue = indexValues ? new HashMap<String, Map<String, Set<String>>>() : null;
+        for (Map.Entry<String, Map<String, String>> section : sections.entrySet())
+            sectionAdded(section.getKey(), (SectionMap) section.getValue());
+    }
+
+    private void addValue(String optionName, String value, String sectionName)
+    {
+        Map<String, Set<String>> values = sectionsByValue.get(optionName);
+        if (values == null)
+        {
+            values = new HashMap<>();
+            sectionsByValue.put(optionName, values);
+        }
+        add(values, value, sectionName);
+    }
+
+    /**
+     * @return the names of the sections containing the option, or null if none do
+     */
+    Set<String> getSectionsWithOption(String optionName)
+    {
+        return sectionsByOption.get(optionName);
+    }
+
+    /**
+     * @return the names of the sections where the option has the value, or null if none do
+     */
+    Set<String> getSectionsWithValue(String optionName, String value)
+    {
+        Map<String, Set<String>> values = sectionsByValue.get(optionName);
+        return values == null ? null : values.get(value);
+    }
+
+    /**
+     * @return true if option values are indexed
+     */
+    boolean isIndexingValues()
+    {
+        return sectionsByValue != null;
+    }
+
+    @Override
+    public void optionAdded(String sectionName, String optionName, Object value)
+    {
+        add(sectionsByOption, optionName, sectionName);
+        if (sectionsByValue != null)
+            addValue(optionName, valueOf(value), sectionName);
+    }
+
+    @Override
+    public void optionChanged(String sectionName, String optionName, Object oldValue, Object newValue)
+    {
+        if (sectionsByValue == null)
+            return;
+
+        String oldString = valueOf(oldValue);
+        String newString = valueOf(newValue);
+        if (oldString == null ? newString == null : oldString.equals(newString))
+            return;
+        removeValue(optionName, oldString, sectionName);
+        addValue(optionName, newString, sectionName);
+    }
+
+    @Override
+    public void optionRemoved(String sectionName, String optionName, Object value)
+    {
+        remove(sectionsByOption, optionName, sectionName);
+        if (sectionsByValue != null)
+            removeValue(optionName, valueOf(value), sectionName);
+    }
+
+    private void removeValue(String optionName, String value, String sectionName)
+    {
+        Map<String, Set<String>> values = sectionsByValue.get(optionName);
+        if (values == null)
+            return;
+        remove(values, value, sectionName);
+        if (values.isEmpty())
+            sectionsByValue.remove(optionName);
+    }
+
+    @Override
+    public void sectionAdded(String sectionName, SectionMap section)
+    {
+        for (String optionName : section.keySet())
+        {
+            add(sectionsByOption, optionName, sectionName);
+            // Materializing through the section means the value isn't joined again when it is requested later
+            if (sectionsByValue != null)
+                addValue(optionName, section.get(optionName), sectionName);
+        }
+    }
+
+    @Override
+    public void sectionRemoved(String sectionName, SectionMap section)
+    {
+        for (String optionName : section.keySet())
+        {
+            remove(sectionsByOption, optionName, sectionName);
+            if (sectionsByValue != null)
+                removeValue(optionName, section.get(optionName), sectionName);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Writes the sections of an {@link Ini} to a {@link GatheringByteChannel}, see
+ * {@link Ini#write(GatheringByteChannel, Charset, ForkJoinPool)}. Each section is rendered by
+ * {@link Ini#writeSection(BufferedWriter, String, Map, String)}, the same as for a sequential write, and encoded into a
+ * buffer of its own. Only one batch of sections is rendered ahead of the one being written, so memory use is bounded
+ * by the size of two batches rather than the whole text.
+ */
+final class ParallelWriter
+{
+    /** Collects rendered text, which can be encoded straight from its array */
+    private static final class RenderBuffer extends CharArrayWriter
+    {
+        private RenderBuffer()
+        {
+            super(4096);
+        }
+
+        private CharBuffer chars()
+        {
+            return CharBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /** Carries an {@link IOException} out of a task */
+    private static final class RenderException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private RenderException(IOException cause)
+        {
+            super(cause);
+        }
+    }
+
+    /** Renders a range of a batch, splitting it in half until it is small enough for one thread */
+    private final class RenderTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer[] buffers;
+
+        private final int end;
+
+        /** The index of the first section of the batch, which goes in buffers[0] */
+        private final int first;
+
+        private final int start;
+
+        private RenderTask(ByteBuffer[] buffers, int first, int start, int end)
+        {
+            this.buffers = buffers;
+            this.first = first;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (end - start > TASK_SECTIONS)
+            {
+                int middle = (start + end) >>> 1;
+                invokeAll(new RenderTask(buffers, first, start, middle), new RenderTask(buffers, first, middle, end));
+                return;
+            }
+
+            try
+            {
+                render(buffers, first, start, end);
+            }
+            catch (IOException e)
+            {
+                throw new RenderException(e);
+            }
+        }
+    }
+
+    /** The number of sections rendered ahead of the ones being written */
+    static final int BATCH_SECTIONS = 1024;
+
+    /** The largest number of sections rendered by one task */
+    static final int TASK_SECTIONS = 16;
+
+    /**
+     * Check if text encoded in pieces is the same as the text encoded at once. It isn't if the encoder starts with a
+     * byte order mark. Rendered sections always end with a line separator, so that is what's checked.
+     */
+    static boolean encodesInPieces(Charset charset) throws CharacterCodingException
+    {
+        String separator = System.lineSeparator();
+        CharsetEncoder encoder = charset.newEncoder();
+        int once = encoder.encode(CharBuffer.wrap(separator)).remaining();
+        int twice = encoder.encode(CharBuffer.wrap(separator + separator)).remaining();
+        return twice == once * 2;
+    }
+
+    /**
+     * Wait for a batch to be rendered
+     *
+     * @throws IOException
+     *             the first {@link IOException} thrown while rendering, or {@link InterruptedIOException} if
+     *             interrupted while waiting
+     */
+    private static void join(ForkJoinTask<?> task) throws IOException
+    {
+        try
+        {
+            task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering sections");
+        }
+        catch (ExecutionException e)
+        {
+            // The pool may have wrapped the exception again when rethrowing it in another thread
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Write all of the buffers, however many calls that takes
+     */
+    private static void writeFully(GatheringByteChannel channel, ByteBuffer[] buffers) throws IOException
+    {
+        int offset = 0;
+        while (offset < buffers.length)
+        {
+            channel.write(buffers, offset, buffers.length - offset);
+            while (offset < buffers.length && !buffers[offset].hasRemaining())
+            {
+                // Let the buffer be collected while the rest are written
+                buffers[offset] = null;
+                offset++;
+            }
+        }
+    }
+
+    private final Charset charset;
+
+    private final String delimiter;
+
+    private final Ini ini;
+
+    private final ForkJoinPool pool;
+
+    private final List<Entry<String, Map<String, String>>> sections;
+
+    ParallelWriter(Ini ini, Charset charset, ForkJoinPool pool)
+    {
+        this.charset = charset;
+        this.ini = ini;
+        this.pool = pool;
+
+        delimiter = ini.getFormat().getWriteDelimiter();
+        sections = ini.writeOrder();
+    }
+
+    /**
+     * Render and encode sections into buffers[index - first]
+     */
+    private void render(ByteBuffer[] buffers, int first, int start, int end) throws IOException
+    {
+        RenderBuffer text = new RenderBuffer();
+        BufferedWriter writer = new BufferedWriter(text);
+        CharsetEncoder encoder = charset.newEncoder();
+        for (int index = start; index < end; index++)
+        {
+            Entry<String, Map<String, String>> section = sections.get(index);
+            ini.writeSection(writer, section.getKey(), section.getValue(), delimiter);
+            writer.flush();
+
+            buffers[index - first] = encoder.encode(text.chars());
+            text.reset();
+        }
+    }
+
+    /**
+     * Start rendering the batch of sections starting at first
+     */
+    private ForkJoinTask<Void> submit(ByteBuffer[] buffers, int first)
+    {
+        return pool.submit(new RenderTask(buffers, first, first, first + buffers.length));
+    }
+
+    /**
+     * Write all sections to a channel
+     */
+    void write(GatheringByteChannel channel) throws IOException
+    {
+        if (!encodesInPieces(charset))
+        {
+            BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, charset.newEncoder(), -1));
+            ini.write(writer);
+            writer.flush();
+            return;
+        }
+
+        int count = sections.size();
+        int first = 0;
+        ByteBuffer[] buffers = new ByteBuffer[Math.min(BATCH_SECTIONS, count)];
+        ForkJoinTask<Void> rendering = count == 0 ? null : submit(buffers, first);
+        try
+        {
+            while (rendering != null)
+            {
+                join(rendering);
+                ByteBuffer[] rendered = buffers;
+
+                // Render the next batch while this one is written
+                first += rendered.length;
+                rendering = null;
+                if (first < count)
+                {
+                    buffers = new ByteBuffer[Math.min(BATCH_SECTIONS, count - first)];
+                    rendering = submit(buffers, first);
+                }
+
+                writeFully(channel, rendered);
+            }
+        }
+        finally
+        {
+            if (rendering != null)
+                rendering.cancel(false);
+        }
+    }
+}
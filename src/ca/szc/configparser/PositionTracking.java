@@ -0,0 +1,37 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+/**
+ * How much an {@link Ini} remembers about where each option was read from, see {@link Ini#getPosition(String, String)}
+ */
+public enum PositionTracking
+{
+    /**
+     * Remember nothing. Interpolation errors have no line numbers.
+     */
+    NONE,
+
+    /**
+     * Remember the line of each option
+     */
+    LINE,
+
+    /**
+     * Remember the line, column and character offset of each option
+     */
+    FULL
+}
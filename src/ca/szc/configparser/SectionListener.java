@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+/**
+ * Receives the changes made to the sections of an {@link Ini}, see {@link SectionsMap}. Values are passed as stored,
+ * so they may be {@link String}s, {@link LazyValue}s or null.
+ */
+interface SectionListener
+{
+    /**
+     * An option was added to a section
+     */
+    void optionAdded(String sectionName, String optionName, Object value);
+
+    /**
+     * The value of an existing option was replaced
+     */
+    void optionChanged(String sectionName, String optionName, Object oldValue, Object newValue);
+
+    /**
+     * An option was removed from a section
+     */
+    void optionRemoved(String sectionName, String optionName, Object value);
+
+    /**
+     * A section was added, along with all of its options
+     */
+    void sectionAdded(String sectionName, SectionMap section);
+
+    /**
+     * A section was removed, along with all of its options
+     */
+    void sectionRemoved(String sectionName, SectionMap section);
+}
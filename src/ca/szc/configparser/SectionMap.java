@@ -0,0 +1,689 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Insertion ordered option name to value {@link Map} for a single section. Values parsed from INI text are kept as
+ * {@link LazyValue}s until they are first accessed. Changes are reported to the {@link SectionsMap} the section
+ * belongs to, if any, and rejected if those sections are read-only.
+ * <p>
+ * Options are stored in two parallel arrays in insertion order, names and values, so there is no object per option.
+ * Sections are usually small, so up to {@value #LINEAR_LIMIT} slots the names are searched one by one. Larger
+ * sections also have an open addressing index with linear probing from name hash to slot. Removing an option clears
+ * its slot, slots are compacted when the arrays are full.
+ * <p>
+ * Where options were read from is kept in a third array aligned with the slots, see {@link PositionTracking}, which
+ * is only allocated once a position is recorded.
+ */
+final class SectionMap extends AbstractMap<String, String>
+{
+    private final class EntrySet extends AbstractSet<Entry<String, String>>
+    {
+        @Override
+        public void clear()
+        {
+            SectionMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Entry<String, String>> iterator()
+        {
+            return new Iterator<Entry<String, String>>()
+            {
+                private int current = -1;
+
+                private int expectedModCount = modCount;
+
+                private int next = nextSlot(0);
+
+                @Override
+                public boolean hasNext()
+                {
+                    return next < used;
+                }
+
+                @Override
+                public Entry<String, String> next()
+                {
+                    if (modCount != expectedModCount)
+                        throw new ConcurrentModificationException();
+                    if (next >= used)
+                        throw new NoSuchElementException();
+                    current = next;
+                    next = nextSlot(next + 1);
+                    return new OptionEntry(current);
+                }
+
+                @Override
+                public void remove()
+                {
+                    if (current == -1 || names[current] == null)
+                        throw new IllegalStateException();
+                    if (modCount != expectedModCount)
+                        throw new ConcurrentModificationException();
+                    checkWritable();
+                    removeSlot(current);
+                    expectedModCount = modCount;
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+
+    private final class OptionEntry implements Entry<String, String>
+    {
+        private final String key;
+
+        private final int slot;
+
+        private OptionEntry(int slot)
+        {
+            this.key = names[slot];
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Entry))
+                return false;
+            Entry<?, ?> other = (Entry<?, ?>) obj;
+            String value = getValue();
+            return getKey().equals(other.getKey())
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public String getKey()
+        {
+            return key;
+        }
+
+        @Override
+        public String getValue()
+        {
+            return materializeSlot(slot);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            String value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String setValue(String value)
+        {
+            checkWritable();
+            Object previous = values[slot];
+            values[slot] = value;
+            updateContentHash(key, true, previous, true, value);
+            if (owner != null && owner.isObserved())
+                owner.optionChanged(name, key, previous, value);
+            return materialize(previous);
+        }
+
+        @Override
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private static final Object[] NO_VALUES = new Object[0];
+
+    /** The largest number of slots that are searched without an index */
+    static final int LINEAR_LIMIT = 8;
+
+    /**
+     * Compare two stored values, materializing at most one of them
+     */
+    static boolean valueEquals(Object a, Object b)
+    {
+        if (a == null || b == null)
+            return a == b;
+        if (a instanceof LazyValue)
+            return ((LazyValue) a).contentEquals(b.toString());
+        if (b instanceof LazyValue)
+            return ((LazyValue) b).contentEquals((String) a);
+        return a.equals(b);
+    }
+
+    /**
+     * Spread a name hash over the index, so names with similar hashes don't cluster
+     */
+    private static int indexHash(Object key)
+    {
+        int hash = key.hashCode() * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String materialize(Object value)
+    {
+        return value == null ? null : value.toString();
+    }
+
+    private long contentHash;
+
+    private boolean contentHashValid;
+
+    /** Slot + 1 by name hash, 0 for free positions, or null while there are at most LINEAR_LIMIT slots */
+    private int[] index;
+
+    /** Incremented by every added and removed option, so iterators can detect concurrent changes */
+    private int modCount;
+
+    /** Option names by slot, in insertion order, null for removed options */
+    private String[] names = NO_NAMES;
+
+    /**
+     * Where options were read from, {@link #positionStride} ints by slot: the line, then the column and offset if the
+     * stride is 3. A line of 0 means no position. Null if no position has been recorded.
+     */
+    private int[] positions;
+
+    /** 1 to record lines, 3 to record lines, columns and offsets */
+    private int positionStride;
+
+    /** The number of options */
+    private int size;
+
+    /** The number of slots in use, including those of removed options */
+    private int used;
+
+    /** Option values by slot: a {@link String}, a {@link LazyValue} or null */
+    private Object[] values = NO_VALUES;
+
+    /** The name of this section in owner */
+    String name;
+
+    /** The sections this section belongs to, or null */
+    SectionsMap owner;
+
+    /**
+     * Add an option to the end, making room first if the arrays are full
+     */
+    private void append(String key, Object value)
+    {
+        // Compact without growing if at least half of the slots are empty, so removing and adding doesn't grow. Most
+        // sections fit in the first arrays.
+        if (used == names.length)
+            resize(Math.max(LINEAR_LIMIT, size * 2 > used ? used * 2 : used));
+
+        int slot = used++;
+        names[slot] = key;
+        values[slot] = value;
+        size++;
+        modCount++;
+        if (index != null)
+            indexSlot(slot);
+    }
+
+    /**
+     * @throws UnsupportedOperationException
+     *             if the sections this section belongs to are read-only
+     */
+    private void checkWritable()
+    {
+        if (owner != null)
+            owner.checkWritable();
+    }
+
+    /**
+     * @return the number of slots, used or not
+     */
+    int capacity()
+    {
+        return names.length;
+    }
+
+    @Override
+    public void clear()
+    {
+        checkWritable();
+        if (owner != null && owner.isObserved())
+        {
+            Iterator<Entry<String, String>> iter = entrySet().iterator();
+            while (iter.hasNext())
+            {
+                iter.next();
+                iter.remove();
+            }
+            positions = null;
+        }
+        else
+        {
+            names = NO_NAMES;
+            positions = null;
+            values = NO_VALUES;
+            index = null;
+            size = 0;
+            used = 0;
+            modCount++;
+            contentHash = 0;
+        }
+    }
+
+    /**
+     * Forget where an option was read from
+     */
+    void clearPosition(String key)
+    {
+        int slot = slotOf(key);
+        if (positions != null && slot != -1)
+            Arrays.fill(positions, slot * positionStride, (slot + 1) * positionStride, 0);
+    }
+
+    /**
+     * Forget where all options were read from
+     */
+    void clearPositions()
+    {
+        positions = null;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return slotOf(key) != -1;
+    }
+
+    /**
+     * Get a hash of the options and their values that doesn't depend on option order, see {@link Fingerprint}. It is
+     * computed without materializing values when first requested, then updated with every change. Computing it writes
+     * to this section, so {@link Ini#freeze()} computes it before the section can be read from several threads.
+     */
+    long contentHash()
+    {
+        if (!contentHashValid)
+        {
+            long hash = 0;
+            for (int slot = nextSlot(0); slot < used; slot = nextSlot(slot + 1))
+                hash += Fingerprint.option(names[slot], values[slot]);
+            contentHash = hash;
+            contentHashValid = true;
+        }
+        return contentHash;
+    }
+
+    /**
+     * Replace the recorded positions with those of the same options in another section
+     */
+    void copyPositions(SectionMap other)
+    {
+        positions = null;
+        if (other.positions == null)
+            return;
+
+        positionStride = other.positionStride;
+        positions = new int[names.length * positionStride];
+        for (int slot = nextSlot(0); slot < used; slot = nextSlot(slot + 1))
+        {
+            int otherSlot = other.slotOf(names[slot]);
+            if (otherSlot != -1)
+                System.arraycopy(other.positions, otherSlot * positionStride, positions, slot * positionStride,
+                        positionStride);
+        }
+    }
+
+    /**
+     * @return true if the content hash has been computed, and is kept up to date with every change
+     */
+    boolean isContentHashed()
+    {
+        return contentHashValid;
+    }
+
+    /**
+     * @return true if options are found through the index rather than by searching the slots one by one
+     */
+    boolean isIndexed()
+    {
+        return index != null;
+    }
+
+    /**
+     * Check if another section has the same options with the same values, in the same order. Values are compared
+     * without materializing them where possible.
+     */
+    boolean contentEquals(SectionMap other)
+    {
+        if (size != other.size)
+            return false;
+
+        int otherSlot = other.nextSlot(0);
+        for (int slot = nextSlot(0); slot < used; slot = nextSlot(slot + 1))
+        {
+            if (!names[slot].equals(other.names[otherSlot]) || !valueEquals(values[slot], other.values[otherSlot]))
+                return false;
+            otherSlot = other.nextSlot(otherSlot + 1);
+        }
+        return true;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet()
+    {
+        return new EntrySet();
+    }
+
+    @Override
+    public String get(Object key)
+    {
+        int slot = slotOf(key);
+        return slot == -1 ? null : materializeSlot(slot);
+    }
+
+    /**
+     * @return where an option was read from, or null if it doesn't exist or no position was recorded
+     */
+    IniPosition getPosition(String key)
+    {
+        int slot = slotOf(key);
+        if (positions == null || slot == -1)
+            return null;
+
+        int start = slot * positionStride;
+        if (positions[start] == 0)
+            return null;
+        if (positionStride == 1 || positions[start + 1] == 0)
+            return new IniPosition(positions[start], 0, -1);
+        return new IniPosition(positions[start], positions[start + 1], positions[start + 2]);
+    }
+
+    /**
+     * Get the stored value without materializing it
+     *
+     * @return a {@link String}, a {@link LazyValue}, or null
+     */
+    Object getRaw(String key)
+    {
+        int slot = slotOf(key);
+        return slot == -1 ? null : values[slot];
+    }
+
+    /**
+     * Add a slot to the index, which must have a free position
+     */
+    private void indexSlot(int slot)
+    {
+        int mask = index.length - 1;
+        int position = indexHash(names[slot]) & mask;
+        while (index[position] != 0)
+            position = (position + 1) & mask;
+        index[position] = slot + 1;
+    }
+
+    /**
+     * Get the value in a slot, replacing a {@link LazyValue} with its {@link String}. Replacing a value is not a
+     * structural change, so this is safe during iteration.
+     */
+    private String materializeSlot(int slot)
+    {
+        Object value = values[slot];
+        if (value instanceof LazyValue)
+        {
+            String materialized = value.toString();
+            values[slot] = materialized;
+            return materialized;
+        }
+        return (String) value;
+    }
+
+    /**
+     * Replace the {@link LazyValue}s with {@link String}s, so the text they were parsed from is no longer referenced.
+     * This is not reported as a change, the values stay the same.
+     */
+    void materializeValues()
+    {
+        for (int slot = 0; slot < used; slot++)
+            if (values[slot] instanceof LazyValue)
+                values[slot] = values[slot].toString();
+    }
+
+    /**
+     * @return the first slot at or after start that holds an option, or used if there is none
+     */
+    private int nextSlot(int start)
+    {
+        while (start < used && names[start] == null)
+            start++;
+        return start;
+    }
+
+    @Override
+    public String put(String key, String value)
+    {
+        return materialize(putRaw(key, (Object) value));
+    }
+
+    /**
+     * Store a value without materializing it
+     *
+     * @param value
+     *            a {@link String}, a {@link LazyValue}, or null
+     * @return the previous stored value
+     */
+    Object putRaw(String key, Object value)
+    {
+        checkWritable();
+        if (key == null)
+            throw new NullPointerException("Option names must not be null");
+
+        int slot = slotOf(key);
+        Object previous = null;
+        if (slot == -1)
+        {
+            append(key, value);
+        }
+        else
+        {
+            previous = values[slot];
+            values[slot] = value;
+        }
+
+        boolean observed = owner != null && owner.isObserved();
+        if (!observed && !contentHashValid)
+            return previous;
+
+        updateContentHash(key, slot != -1, previous, true, value);
+        if (!observed)
+            return previous;
+        if (slot != -1)
+            owner.optionChanged(name, key, previous, value);
+        else
+            owner.optionAdded(name, key, value);
+        return previous;
+    }
+
+    @Override
+    public String remove(Object key)
+    {
+        checkWritable();
+        int slot = slotOf(key);
+        if (slot == -1)
+            return null;
+        return materialize(removeSlot(slot));
+    }
+
+    /**
+     * Remove the option in a slot, leaving the slot empty
+     *
+     * @return the removed value
+     */
+    private Object removeSlot(int slot)
+    {
+        String key = names[slot];
+        Object previous = values[slot];
+        // The index keeps pointing at the empty slot, which probing skips, until the slots are compacted
+        names[slot] = null;
+        values[slot] = null;
+        size--;
+        modCount++;
+
+        updateContentHash(key, true, previous, false, null);
+        if (owner != null && owner.isObserved())
+            owner.optionRemoved(name, key, previous);
+        return previous;
+    }
+
+    /**
+     * Move the options to arrays with a given number of slots, dropping empty slots, and rebuild the index
+     */
+    private void resize(int capacity)
+    {
+        String[] newNames = new String[capacity];
+        Object[] newValues = new Object[capacity];
+        int[] newPositions = positions == null ? null : new int[capacity * positionStride];
+        int count = 0;
+        for (int slot = 0; slot < used; slot++)
+        {
+            if (names[slot] != null)
+            {
+                newNames[count] = names[slot];
+                newValues[count] = values[slot];
+                if (newPositions != null)
+                    System.arraycopy(positions, slot * positionStride, newPositions, count * positionStride,
+                            positionStride);
+                count++;
+            }
+        }
+        names = newNames;
+        values = newValues;
+        positions = newPositions;
+        used = count;
+
+        index = null;
+        if (capacity > LINEAR_LIMIT)
+        {
+            // At most half full
+            index = new int[Integer.highestOneBit(capacity - 1) << 2];
+            for (int slot = 0; slot < used; slot++)
+                indexSlot(slot);
+        }
+    }
+
+    /**
+     * Record where an option was read from. Recording a column and offset for one option makes room for them for all
+     * options.
+     *
+     * @param tracking
+     *            {@link PositionTracking#LINE} to record only the line
+     * @param line
+     *            the line, starting at 1
+     * @param column
+     *            the column, starting at 1
+     * @param offset
+     *            the character offset, starting at 0
+     */
+    void setPosition(String key, PositionTracking tracking, int line, int column, int offset)
+    {
+        int slot = slotOf(key);
+        if (slot == -1 || tracking == PositionTracking.NONE)
+            return;
+
+        int stride = tracking == PositionTracking.FULL ? 3 : 1;
+        if (positions == null)
+        {
+            positions = new int[names.length * stride];
+            positionStride = stride;
+        }
+        else if (stride > positionStride)
+        {
+            // Keep the lines already recorded, without columns or offsets
+            int[] newPositions = new int[names.length * stride];
+            for (int i = 0; i < used; i++)
+                newPositions[i * stride] = positions[i * positionStride];
+            positions = newPositions;
+            positionStride = stride;
+        }
+
+        int start = slot * positionStride;
+        positions[start] = line;
+        if (positionStride == 3)
+        {
+            positions[start + 1] = tracking == PositionTracking.FULL ? column : 0;
+            positions[start + 2] = tracking == PositionTracking.FULL ? offset : 0;
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the slot holding an option, or -1 if there is no such option
+     */
+    private int slotOf(Object key)
+    {
+        if (key == null)
+            return -1;
+
+        if (index == null)
+        {
+            for (int slot = 0; slot < used; slot++)
+                if (key.equals(names[slot]))
+                    return slot;
+            return -1;
+        }
+
+        int mask = index.length - 1;
+        for (int position = indexHash(key) & mask; index[position] != 0; position = (position + 1) & mask)
+        {
+            int slot = index[position] - 1;
+            if (key.equals(names[slot]))
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Replace an option's contribution to the content hash, if it has been computed
+     *
+     * @param existed
+     *            true if the option had a previous value
+     * @param present
+     *            true if the option has a new value, false if it was removed
+     */
+    private void updateContentHash(String key, boolean existed, Object previous, boolean present, Object value)
+    {
+        if (!contentHashValid)
+            return;
+        if (existed)
+            contentHash -= Fingerprint.option(key, previous);
+        if (present)
+            contentHash += Fingerprint.option(key, value);
+    }
+}
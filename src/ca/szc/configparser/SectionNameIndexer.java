@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the section names of an {@link Ini} sorted, so the names starting with a prefix form one contiguous range
+ */
+final class SectionNameIndexer implements SectionListener
+{
+    /**
+     * Get the part of a wildcard pattern before its first wildcard, which every matching name starts with
+     */
+    static String literalPrefix(String glob)
+    {
+        for (int i = 0; i < glob.length(); i++)
+        {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?' || c == '[')
+                return glob.substring(0, i);
+        }
+        return glob;
+    }
+
+    private final TreeSet<String> names = new TreeSet<>();
+
+    /**
+     * Create an index of the current sections
+     */
+    SectionNameIndexer(SectionsMap sections)
+    {
+        names.addAll(sections.keySet());
+    }
+
+    /**
+     * @return the section names matching the wildcard pattern, in sorted order
+     */
+    Set<String> getSectionsMatching(String glob)
+    {
+        Pattern pattern = Pattern.compile(StringUtil.translateGlob(glob), Pattern.DOTALL);
+        Set<String> found = new TreeSet<>();
+        for (String name : getSectionsWithPrefix(literalPrefix(glob)))
+            if (pattern.matcher(name).matches())
+                found.add(name);
+        return found;
+    }
+
+    /**
+     * @return a view of the section names starting with prefix, in sorted order
+     */
+    NavigableSet<String> getSectionsWithPrefix(String prefix)
+    {
+        // Every name with the prefix sorts before the prefix with its last incrementable character incremented
+        for (int i = prefix.length() - 1; i >= 0; i--)
+        {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE)
+                return names.subSet(prefix, true, prefix.substring(0, i) + (char) (c + 1), false);
+        }
+        return names.tailSet(prefix, true);
+    }
+
+    @Override
+    public void optionAdded(String sectionName, String optionName, Object value)
+    {
+    }
+
+    @Override
+    public void optionChanged(String sectionName, String optionName, Object oldValue, Object newValue)
+    {
+    }
+
+    @Override
+    public void optionRemoved(String sectionName, String optionName, Object value)
+    {
+    }
+
+    @Override
+    public void sectionAdded(String sectionName, SectionMap section)
+    {
+        names.add(sectionName);
+    }
+
+    @Override
+    public void sectionRemoved(String sectionName, SectionMap section)
+    {
+        names.remove(sectionName);
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Insertion ordered section name to {@link SectionMap} {@link Map} holding all sections of an {@link Ini}. Every
+ * change to the sections or their options is reported to the registered {@link SectionListener}s, which is how the
+ * indexes are kept up to date.
+ * <p>
+ * Section maps are adopted when they are added: a {@link SectionMap} that is not part of any other section is stored
+ * as is, any other {@link Map} is copied. Removed or replaced sections stop reporting changes.
+ * <p>
+ * Once made read-only, any change to the sections or their options throws {@link UnsupportedOperationException}.
+ */
+final class SectionsMap extends AbstractMap<String, Map<String, String>>
+{
+    private final class EntrySet extends AbstractSet<Entry<String, Map<String, String>>>
+    {
+        @Override
+        public void clear()
+        {
+            SectionsMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Entry<String, Map<String, String>>> iterator()
+        {
+            final Iterator<Entry<String, SectionMap>> iter = sections.entrySet().iterator();
+            return new Iterator<Entry<String, Map<String, String>>>()
+            {
+                private Entry<String, SectionMap> current;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return iter.hasNext();
+                }
+
+                @Override
+                public Entry<String, Map<String, String>> next()
+                {
+                    current = iter.next();
+                    return new SectionEntry(current);
+                }
+
+                @Override
+                public void remove()
+                {
+                    checkWritable();
+                    iter.remove();
+                    detach(current.getKey(), current.getValue());
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return sections.size();
+        }
+    }
+
+    private final class SectionEntry implements Entry<String, Map<String, String>>
+    {
+        private final Entry<String, SectionMap> entry;
+
+        private SectionEntry(Entry<String, SectionMap> entry)
+        {
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Entry))
+                return false;
+            Entry<?, ?> other = (Entry<?, ?>) obj;
+            return getKey().equals(other.getKey()) && getValue().equals(other.getValue());
+        }
+
+        @Override
+        public String getKey()
+        {
+            return entry.getKey();
+        }
+
+        @Override
+        public Map<String, String> getValue()
+        {
+            return entry.getValue();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return getKey().hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public Map<String, String> setValue(Map<String, String> value)
+        {
+            // Replacing the value of an existing key is not a structural modification, so this is safe during
+            // iteration
+            return put(getKey(), value);
+        }
+
+        @Override
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private static final SectionListener[] NO_LISTENERS = new SectionListener[0];
+
+    private SectionListener[] listeners = NO_LISTENERS;
+
+    private boolean readOnly;
+
+    private final Map<String, SectionMap> sections = new LinkedHashMap<>();
+
+    void addListener(SectionListener listener)
+    {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    /**
+     * Take ownership of a section, copying it if it can't be used as is
+     */
+    private SectionMap adopt(String sectionName, Map<String, String> section)
+    {
+        if (section == null)
+            throw new NullPointerException("Section " + sectionName + " must not be null");
+
+        SectionMap adopted;
+        if (section instanceof SectionMap && ((SectionMap) section).owner == null)
+        {
+            adopted = (SectionMap) section;
+        }
+        else
+        {
+            adopted = new SectionMap();
+            for (String optionName : section.keySet())
+            {
+                if (section instanceof SectionMap)
+                    adopted.putRaw(optionName, ((SectionMap) section).getRaw(optionName));
+                else
+                    adopted.putRaw(optionName, section.get(optionName));
+            }
+        }
+        adopted.owner = this;
+        adopted.name = sectionName;
+        return adopted;
+    }
+
+    /**
+     * @throws UnsupportedOperationException
+     *             if this map is read-only
+     */
+    void checkWritable()
+    {
+        if (readOnly)
+            throw new UnsupportedOperationException("Sections are read-only");
+    }
+
+    @Override
+    public void clear()
+    {
+        Iterator<Entry<String, Map<String, String>>> iter = entrySet().iterator();
+        while (iter.hasNext())
+        {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return sections.containsKey(key);
+    }
+
+    /**
+     * Stop reporting changes to a section that is no longer part of this map
+     */
+    private void detach(String sectionName, SectionMap section)
+    {
+        section.owner = null;
+        section.name = null;
+        for (SectionListener listener : listeners)
+            listener.sectionRemoved(sectionName, section);
+    }
+
+    @Override
+    public Set<Entry<String, Map<String, String>>> entrySet()
+    {
+        return new EntrySet();
+    }
+
+    @Override
+    public SectionMap get(Object key)
+    {
+        return sections.get(key);
+    }
+
+    /**
+     * @return true if changes need to be reported
+     */
+    boolean isObserved()
+    {
+        return listeners.length > 0;
+    }
+
+    boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    void optionAdded(String sectionName, String optionName, Object value)
+    {
+        for (SectionListener listener : listeners)
+            listener.optionAdded(sectionName, optionName, value);
+    }
+
+    void optionChanged(String sectionName, String optionName, Object oldValue, Object newValue)
+    {
+        for (SectionListener listener : listeners)
+            listener.optionChanged(sectionName, optionName, oldValue, newValue);
+    }
+
+    void optionRemoved(String sectionName, String optionName, Object value)
+    {
+        for (SectionListener listener : listeners)
+            listener.optionRemoved(sectionName, optionName, value);
+    }
+
+    @Override
+    public SectionMap put(String key, Map<String, String> value)
+    {
+        checkWritable();
+        if (value != null && value == sections.get(key))
+            return (SectionMap) value;
+
+        SectionMap section = adopt(key, value);
+        SectionMap previous = sections.put(key, section);
+        if (previous != null)
+            detach(key, previous);
+        for (SectionListener listener : listeners)
+            listener.sectionAdded(key, section);
+        return previous;
+    }
+
+    @Override
+    public SectionMap remove(Object key)
+    {
+        checkWritable();
+        SectionMap previous = sections.remove(key);
+        if (previous != null)
+            detach((String) key, previous);
+        return previous;
+    }
+
+    void removeListener(SectionListener listener)
+    {
+        for (int i = 0; i < listeners.length; i++)
+        {
+            if (listeners[i] == listener)
+            {
+                SectionListener[] remaining = new SectionListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, remaining, 0, i);
+                System.arraycopy(listeners, i + 1, remaining, i, remaining.length - i);
+                listeners = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reject all further changes to the sections and their options
+     */
+    void setReadOnly()
+    {
+        readOnly = true;
+    }
+
+    /**
+     * Replace a section with an equal section that is shared with other read-only sections, keeping its position. This
+     * is not reported as a change, and the shared section keeps its owner.
+     */
+    void share(String sectionName, SectionMap shared)
+    {
+        sections.put(sectionName, shared);
+    }
+
+    @Override
+    public int size()
+    {
+        return sections.size();
+    }
+}
@@ -21,20 +21,78 @@ package ca.szc.configparser;
 public class StringUtil
 {
     /**
-     * Return a copy of a String with all whitespace characters removed from the end. Whitespace as defined by
-     * {@link Character#isWhitespace(char)}
+     * Translate a shell-style wildcard pattern to an equivalent regular expression, like Python's
+     * fnmatch.translate(). '*' matches everything, '?' matches any single character, '[seq]' matches any character in
+     * seq and '[!seq]' matches any character not in seq. The expression is meant to be used with
+     * {@link java.util.regex.Pattern#DOTALL} and {@link java.util.regex.Matcher#matches()}.
      */
-    public static String rstrip(String s)
+    public static String translateGlob(String glob)
     {
-        char[] val = s.toCharArray();
+        StringBuilder sb = new StringBuilder(glob.length() + 8);
+        int length = glob.length();
+        int i = 0;
+        while (i < length)
+        {
+            char c = glob.charAt(i++);
+            if (c == '*')
+            {
+                sb.append(".*");
+            }
+            else if (c == '?')
+            {
+                sb.append('.');
+            }
+            else if (c == '[')
+            {
+                int j = i;
+                if (j < length && glob.charAt(j) == '!')
+                    j++;
+                if (j < length && glob.charAt(j) == ']')
+                    j++;
+                while (j < length && glob.charAt(j) != ']')
+                    j++;
 
-        int start = 0;
-        int length = val.length;
+                // An unterminated set is a literal '['
+                if (j >= length)
+                {
+                    sb.append("\\[");
+                    continue;
+                }
 
-        while ((start < length) && (Character.isWhitespace(val[length - 1])))
-            length--;
+                sb.append('[');
+                int k = i;
+                if (glob.charAt(k) == '!')
+                {
+                    sb.append('^');
+                    k++;
+                }
+                for (; k < j; k++)
+                {
+                    char s = glob.charAt(k);
+                    if (s == '\\' || s == '[' || s == ']' || s == '&' || s == '^')
+                        sb.append('\\');
+                    sb.append(s);
+                }
+                sb.append(']');
+                i = j + 1;
+            }
+            else
+            {
+                if (!Character.isLetterOrDigit(c))
+                    sb.append('\\');
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
 
-        return s.substring(start, length);
+    /**
+     * Return a copy of a String with all whitespace characters removed from the end. Whitespace as defined by
+     * {@link Character#isWhitespace(char)}
+     */
+    public static String rstrip(String s)
+    {
+        return s.substring(0, stripEnd(s, 0, s.length()));
     }
 
     /**
@@ -43,16 +101,29 @@ public class StringUtil
      */
     public static String strip(String s)
     {
-        char[] val = s.toCharArray();
+        int start = stripStart(s, 0, s.length());
+        return s.substring(start, stripEnd(s, start, s.length()));
+    }
 
-        int start = 0;
-        int length = val.length;
+    /**
+     * Return the index after the last non-whitespace character in a range of a CharSequence, or start if the range is
+     * all whitespace. Whitespace as defined by {@link Character#isWhitespace(char)}
+     */
+    public static int stripEnd(CharSequence s, int start, int end)
+    {
+        while ((start < end) && (Character.isWhitespace(s.charAt(end - 1))))
+            end--;
+        return end;
+    }
 
-        while ((start < length) && (Character.isWhitespace(val[start])))
+    /**
+     * Return the index of the first non-whitespace character in a range of a CharSequence, or end if the range is all
+     * whitespace. Whitespace as defined by {@link Character#isWhitespace(char)}
+     */
+    public static int stripStart(CharSequence s, int start, int end)
+    {
+        while ((start < end) && (Character.isWhitespace(s.charAt(start))))
             start++;
-        while ((start < length) && (Character.isWhitespace(val[length - 1])))
-            length--;
-
-        return s.substring(start, length);
+        return start;
     }
 }
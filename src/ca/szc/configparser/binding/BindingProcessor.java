@@ -0,0 +1,451 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser.binding;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+
+import ca.szc.configparser.exceptions.InvalidValueError;
+
+/**
+ * Generates a binder for every {@link IniSection} interface. For an interface DbConfig the binder is DbConfigBinder,
+ * in the same package, with static bind methods that read every option once, convert it and return an
+ * implementation of the interface whose methods return the converted values. Options are looked up with
+ * {@link ca.szc.configparser.Ini#getValue(String, String)}, so the default section applies. Option names are
+ * lowercased at compile time.
+ * <p>
+ * Annotated classes are left to {@link IniBinder}. Mistakes are reported as compile errors: annotated enums and
+ * annotation types, methods that take parameters or return unsupported types, options bound twice, and fallbacks
+ * that are not valid for their type. Supported types are String, the primitive types except char, their wrapper
+ * classes and enums, see {@link IniConversions}.
+ * <p>
+ * The processor is not registered as a service, so it doesn't run for every project that has this library on its
+ * compile classpath. Name it to enable it, for example with
+ * {@code javac -processor ca.szc.configparser.binding.BindingProcessor} or in the annotationProcessors of the
+ * maven-compiler-plugin.
+ */
+@SupportedAnnotationTypes("ca.szc.configparser.binding.IniSection")
+public class BindingProcessor extends AbstractProcessor
+{
+    /** An option bound to a method */
+    private static final class Binding
+    {
+        private final String conversion;
+
+        private final ExecutableElement method;
+
+        private final String optionName;
+
+        private final TypeMirror type;
+
+        private Binding(ExecutableElement method, TypeMirror type, String optionName, String conversion)
+        {
+            this.conversion = conversion;
+            this.method = method;
+            this.optionName = optionName;
+            this.type = type;
+        }
+    }
+
+    /** Wrapper class name to the primitive type it wraps */
+    private static final Map<String, TypeKind> WRAPPERS = new HashMap<>();
+    static
+    {
+        WRAPPERS.put("java.lang.Boolean", TypeKind.BOOLEAN);
+        WRAPPERS.put("java.lang.Byte", TypeKind.BYTE);
+        WRAPPERS.put("java.lang.Double", TypeKind.DOUBLE);
+        WRAPPERS.put("java.lang.Float", TypeKind.FLOAT);
+        WRAPPERS.put("java.lang.Integer", TypeKind.INT);
+        WRAPPERS.put("java.lang.Long", TypeKind.LONG);
+        WRAPPERS.put("java.lang.Short", TypeKind.SHORT);
+    }
+
+    /**
+     * @return the name of the binder class for an interface, without the package
+     */
+    static String binderName(TypeElement type)
+    {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing
+                .getEnclosingElement())
+            name.insert(0, '_').insert(0, enclosing.getSimpleName());
+        return name.append("Binder").toString();
+    }
+
+    /**
+     * @return a Java string literal. Control characters are written as escape sequences rather than Unicode escapes,
+     *         which javac would turn back into line breaks before reading the literal.
+     */
+    private static String literal(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            switch (c)
+            {
+                case '"':
+                case '\\':
+                    sb.append('\\').append(c);
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    if (c < ' ')
+                        sb.append(String.format("\\%03o", (int) c));
+                    else if (c > '~')
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+                    break;
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Check a fallback by converting it like the binder will
+     */
+    private static void checkFallback(TypeKind kind, String fallback) throws InvalidValueError
+    {
+        switch (kind)
+        {
+            case BOOLEAN:
+                IniConversions.toBoolean(null, null, fallback);
+                break;
+            case BYTE:
+                IniConversions.toByte(null, null, fallback);
+                break;
+            case DOUBLE:
+                IniConversions.toDouble(null, null, fallback);
+                break;
+            case FLOAT:
+                IniConversions.toFloat(null, null, fallback);
+                break;
+            case INT:
+                IniConversions.toInt(null, null, fallback);
+                break;
+            case LONG:
+                IniConversions.toLong(null, null, fallback);
+                break;
+            case SHORT:
+                IniConversions.toShort(null, null, fallback);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the code that converts the String named value to a type, or null if the type isn't supported
+     */
+    private static String conversion(TypeMirror type, String optionName)
+    {
+        TypeKind kind = type.getKind();
+        if (kind == TypeKind.DECLARED)
+        {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            String name = element.getQualifiedName().toString();
+            if (name.equals("java.lang.String"))
+                return "value";
+            if (element.getKind() == ElementKind.ENUM)
+                return "IniConversions.toEnum(" + name + ".class, sectionName, " + literal(optionName) + ", value)";
+            kind = WRAPPERS.get(name);
+            if (kind == null)
+                return null;
+        }
+
+        String method;
+        switch (kind)
+        {
+            case BOOLEAN:
+                method = "toBoolean";
+                break;
+            case BYTE:
+                method = "toByte";
+                break;
+            case DOUBLE:
+                method = "toDouble";
+                break;
+            case FLOAT:
+                method = "toFloat";
+                break;
+            case INT:
+                method = "toInt";
+                break;
+            case LONG:
+                method = "toLong";
+                break;
+            case SHORT:
+                method = "toShort";
+                break;
+            default:
+                return null;
+        }
+        return "IniConversions." + method + "(sectionName, " + literal(optionName) + ", value)";
+    }
+
+    /**
+     * Collect and check the bindings of an interface
+     *
+     * @return the bindings, or null if there were errors
+     */
+    private List<Binding> bindings(TypeElement type)
+    {
+        List<Binding> bindings = new ArrayList<>();
+        Map<String, ExecutableElement> boundOptions = new HashMap<>();
+        boolean valid = true;
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type)))
+        {
+            if (!method.getModifiers().contains(Modifier.ABSTRACT))
+                continue;
+
+            IniOption option = method.getAnnotation(IniOption.class);
+            String optionName = option == null || option.value().isEmpty() ? method.getSimpleName().toString()
+                    : option.value();
+            optionName = optionName.toLowerCase(Locale.ROOT);
+
+            // As seen from the interface, so type variables of generic super interfaces are resolved
+            TypeMirror returnType = ((ExecutableType) processingEnv.getTypeUtils()
+                    .asMemberOf((DeclaredType) type.asType(), method)).getReturnType();
+            String conversion = conversion(returnType, optionName);
+            if (!method.getParameters().isEmpty() || !method.getTypeParameters().isEmpty())
+            {
+                error(method, "Bound methods must not take parameters");
+                valid = false;
+            }
+            else if (conversion == null)
+            {
+                error(method, "Can't bind an option to " + returnType);
+                valid = false;
+            }
+            else if (boundOptions.containsKey(optionName))
+            {
+                error(method, "Option '" + optionName + "' is already bound to " + boundOptions.get(optionName));
+                valid = false;
+            }
+            else if (option != null && !option.fallback().equals(IniOption.NO_FALLBACK)
+                    && !isValidFallback(returnType, option.fallback()))
+            {
+                error(method, "Fallback '" + option.fallback() + "' is not a valid " + returnType);
+                valid = false;
+            }
+            else
+            {
+                boundOptions.put(optionName, method);
+                bindings.add(new Binding(method, returnType, optionName, conversion));
+            }
+        }
+        return valid ? bindings : null;
+    }
+
+    private void error(Element element, String message)
+    {
+        processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+    }
+
+    /**
+     * Write the binder for an interface
+     */
+    private void generate(TypeElement type, String sectionName, List<Binding> bindings) throws IOException
+    {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binderName = binderName(type);
+        String typeName = type.getQualifiedName().toString();
+        String visibility = type.getModifiers().contains(Modifier.PUBLIC) ? "public " : "";
+
+        StringBuilder src = new StringBuilder();
+        src.append("// Generated by ").append(BindingProcessor.class.getName()).append(", do not edit\n");
+        if (!packageName.isEmpty())
+            src.append("package ").append(packageName).append(";\n\n");
+        src.append("import ca.szc.configparser.Ini;\n");
+        src.append("import ca.szc.configparser.binding.IniConversions;\n");
+        src.append("import ca.szc.configparser.exceptions.InvalidValueError;\n");
+        src.append("import ca.szc.configparser.exceptions.NoOptionError;\n");
+        src.append("import ca.szc.configparser.exceptions.NoSectionError;\n\n");
+        src.append("/**\n * Binds section ").append(literal(sectionName)).append(" to {@link ").append(typeName)
+                .append("}\n */\n");
+        src.append(visibility).append("final class ").append(binderName).append("\n{\n");
+
+        src.append("    private static final class Bound implements ").append(typeName).append("\n    {\n");
+        for (Binding binding : bindings)
+            src.append("        private final ").append(binding.type).append(' ')
+                    .append(binding.method.getSimpleName()).append(";\n\n");
+        src.append("        private Bound(Ini ini, String sectionName)\n");
+        src.append("                throws NoSectionError, NoOptionError, InvalidValueError\n        {\n");
+        src.append("            String value;\n");
+        for (Binding binding : bindings)
+        {
+            IniOption option = binding.method.getAnnotation(IniOption.class);
+            src.append("            value = ini.getValue(sectionName, ").append(literal(binding.optionName));
+            if (option != null && !option.fallback().equals(IniOption.NO_FALLBACK))
+                src.append(", ").append(literal(option.fallback()));
+            src.append(");\n");
+            src.append("            this.").append(binding.method.getSimpleName()).append(" = ").append(binding.conversion)
+                    .append(";\n");
+        }
+        src.append("        }\n");
+        for (Binding binding : bindings)
+        {
+            src.append("\n        @Override\n");
+            src.append("        public ").append(binding.type).append(' ')
+                    .append(binding.method.getSimpleName()).append("()\n        {\n");
+            src.append("            return ").append(binding.method.getSimpleName()).append(";\n        }\n");
+        }
+        src.append("    }\n\n");
+
+        src.append("    /** The section bound by default */\n");
+        src.append("    public static final String SECTION = ").append(literal(sectionName)).append(";\n\n");
+
+        src.append("    /**\n     * Read the options of section ").append(literal(sectionName)).append("\n     */\n");
+        src.append("    public static ").append(typeName).append(" bind(Ini ini)\n");
+        src.append("            throws NoSectionError, NoOptionError, InvalidValueError\n    {\n");
+        src.append("        return new Bound(ini, SECTION);\n    }\n\n");
+
+        src.append("    /**\n     * Read the options of another section\n     */\n");
+        src.append("    public static ").append(typeName).append(" bind(Ini ini, String sectionName)\n");
+        src.append("            throws NoSectionError, NoOptionError, InvalidValueError\n    {\n");
+        src.append("        return new Bound(ini, sectionName);\n    }\n\n");
+
+        src.append("    private ").append(binderName).append("()\n    {\n    }\n}\n");
+
+        String qualifiedName = packageName.isEmpty() ? binderName : packageName + "." + binderName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter())
+        {
+            writer.write(src.toString());
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    private boolean isValidFallback(TypeMirror type, String fallback)
+    {
+        if (type.getKind() == TypeKind.DECLARED)
+        {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            if (element.getKind() == ElementKind.ENUM)
+            {
+                for (Element constant : element.getEnclosedElements())
+                    if (constant.getKind() == ElementKind.ENUM_CONSTANT
+                            && constant.getSimpleName().toString().equalsIgnoreCase(fallback))
+                        return true;
+                return false;
+            }
+            TypeKind kind = WRAPPERS.get(element.getQualifiedName().toString());
+            type = kind == null ? type : processingEnv.getTypeUtils().getPrimitiveType(kind);
+        }
+
+        try
+        {
+            checkFallback(type.getKind(), fallback);
+            return true;
+        }
+        catch (InvalidValueError e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if an interface can be implemented by a class in its package
+     */
+    private static boolean isAccessible(TypeElement type)
+    {
+        for (Element element = type; !(element instanceof PackageElement); element = element.getEnclosingElement())
+            if (element.getModifiers().contains(Modifier.PRIVATE))
+                return false;
+        return true;
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(IniSection.class)))
+        {
+            // Classes are bound at runtime by IniBinder
+            if (type.getKind() == ElementKind.CLASS)
+                continue;
+            if (type.getKind() != ElementKind.INTERFACE)
+            {
+                error(type, "@IniSection can only be applied to interfaces and classes");
+                continue;
+            }
+            if (!type.getTypeParameters().isEmpty())
+            {
+                error(type, "@IniSection interfaces must not be generic");
+                continue;
+            }
+            if (!isAccessible(type))
+            {
+                error(type, "@IniSection interfaces must not be private");
+                continue;
+            }
+
+            List<Binding> bindings = bindings(type);
+            if (bindings == null)
+                continue;
+            try
+            {
+                generate(type, type.getAnnotation(IniSection.class).value(), bindings);
+            }
+            catch (IOException e)
+            {
+                error(type, "Can't write " + binderName(type) + ": " + e);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser.binding;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import ca.szc.configparser.Ini;
+import ca.szc.configparser.exceptions.InvalidValueError;
+import ca.szc.configparser.exceptions.NoOptionError;
+import ca.szc.configparser.exceptions.NoSectionError;
+
+/**
+ * Binds sections to bean classes at runtime, for code that can't use {@link BindingProcessor}. A bean needs a public
+ * no argument constructor. Its public setters and public non-final fields are bound to options named like the
+ * property, lowercased, unless {@link IniOption} says otherwise. Options are looked up with
+ * {@link Ini#getValue(String, String)}, so the default section applies.
+ * <p>
+ * Properties of the types supported by {@link IniConversions} are bound to option values. Properties of other types
+ * are bound to sections when the type is a bean annotated with {@link IniSection}:
+ * <ul>
+ * <li>A bean property is bound to the nested section named section + separator + option, like [server.tls] for the
+ * property tls of the bean bound to [server]</li>
+ * <li>A Map&lt;String, bean&gt; property is bound to all sections named section + separator + option + separator +
+ * key, like [server.pools.primary] and [server.pools.replica] for the property pools, keyed by primary and replica.
+ * Sections are found with {@link Ini#getSectionsWithPrefix(String)}.</li>
+ * </ul>
+ * Properties of any other type are left alone, unless they are annotated with {@link IniOption}.
+ * <p>
+ * Each bean class is examined once, the first time it is bound. Its constructor, setters and conversions are kept as
+ * {@link MethodHandle}s, so binding again, after a reload for example, doesn't use reflection. Instances are
+ * thread-safe.
+ */
+public class IniBinder
+{
+    /** How a bean class is bound */
+    private static final class Plan
+    {
+        private final MethodHandle constructor;
+
+        private final List<Property> properties;
+
+        private Plan(MethodHandle constructor, List<Property> properties)
+        {
+            this.constructor = constructor;
+            this.properties = properties;
+        }
+    }
+
+    /** How a property is bound */
+    private static final class Property
+    {
+        /** Converts (section name, value) to the property type, or null for nested beans and maps */
+        private final MethodHandle converter;
+
+        /** The fallback, or null if the option is required */
+        private final String fallback;
+
+        /** True if this is a map of beans */
+        private final boolean map;
+
+        /** The bean type of a nested bean or map */
+        private final Class<?> nestedType;
+
+        private final String optionName;
+
+        /** Sets (bean, value) */
+        private final MethodHandle setter;
+
+        private Property(String optionName, MethodHandle setter, MethodHandle converter, String fallback,
+                Class<?> nestedType, boolean map)
+        {
+            this.converter = converter;
+            this.fallback = fallback;
+            this.map = map;
+            this.nestedType = nestedType;
+            this.optionName = optionName;
+            this.setter = setter;
+        }
+    }
+
+    private static final MethodType CONVERTER_TYPE = MethodType.methodType(Object.class, String.class, String.class,
+            String.class);
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /** The name of the IniConversions method for each type it converts to */
+    private static final Map<Class<?>, String> CONVERSIONS = new HashMap<>();
+    static
+    {
+        CONVERSIONS.put(boolean.class, "toBoolean");
+        CONVERSIONS.put(Boolean.class, "toBoolean");
+        CONVERSIONS.put(byte.class, "toByte");
+        CONVERSIONS.put(Byte.class, "toByte");
+        CONVERSIONS.put(double.class, "toDouble");
+        CONVERSIONS.put(Double.class, "toDouble");
+        CONVERSIONS.put(float.class, "toFloat");
+        CONVERSIONS.put(Float.class, "toFloat");
+        CONVERSIONS.put(int.class, "toInt");
+        CONVERSIONS.put(Integer.class, "toInt");
+        CONVERSIONS.put(long.class, "toLong");
+        CONVERSIONS.put(Long.class, "toLong");
+        CONVERSIONS.put(short.class, "toShort");
+        CONVERSIONS.put(Short.class, "toShort");
+    }
+
+    private static final ClassValue<Plan> PLANS = new ClassValue<Plan>()
+    {
+        @Override
+        protected Plan computeValue(Class<?> type)
+        {
+            return plan(type);
+        }
+    };
+
+    private String separator = ".";
+
+    /**
+     * Add a property to a plan, or ignore it if its type can't be bound
+     */
+    private static void addProperty(List<Property> properties, AnnotatedElement member, String propertyName,
+            MethodHandle setter, Class<?> type, Type genericType) throws ReflectiveOperationException
+    {
+        IniOption option = member.getAnnotation(IniOption.class);
+        String optionName = option == null || option.value().isEmpty() ? propertyName : option.value();
+        optionName = optionName.toLowerCase(Locale.ROOT);
+        String fallback = option == null || option.fallback().equals(IniOption.NO_FALLBACK) ? null : option
+                .fallback();
+        setter = setter.asType(SETTER_TYPE);
+
+        MethodHandle converter = converter(type);
+        if (converter != null)
+        {
+            if (fallback != null)
+                checkFallback(member, converter, fallback);
+            properties.add(new Property(optionName, setter, MethodHandles.insertArguments(converter, 1, optionName),
+                    fallback, null, false));
+            return;
+        }
+
+        if (type.isAnnotationPresent(IniSection.class))
+        {
+            properties.add(new Property(optionName, setter, null, null, type, false));
+            return;
+        }
+
+        if (type == Map.class && genericType instanceof ParameterizedType)
+        {
+            Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+            if (arguments[0] == String.class && arguments[1] instanceof Class
+                    && ((Class<?>) arguments[1]).isAnnotationPresent(IniSection.class))
+            {
+                properties.add(new Property(optionName, setter, null, null, (Class<?>) arguments[1], true));
+                return;
+            }
+        }
+
+        if (option != null)
+            throw new IllegalArgumentException("Can't bind an option to " + genericType + " of " + member);
+    }
+
+    private static void checkFallback(AnnotatedElement member, MethodHandle converter, String fallback)
+    {
+        try
+        {
+            // The call site type has to match exactly, including the return type
+            Object value = converter.invokeExact((String) null, (String) null, fallback);
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalArgumentException("Fallback '" + fallback + "' of " + member + " is not valid", e);
+        }
+    }
+
+    /**
+     * Get a converter from (section name, option name, value) to a type
+     *
+     * @return the converter, or null if the type isn't supported
+     */
+    private static MethodHandle converter(Class<?> type) throws ReflectiveOperationException
+    {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle converter;
+        if (type == String.class)
+        {
+            converter = MethodHandles.dropArguments(MethodHandles.identity(String.class), 0, String.class,
+                    String.class);
+        }
+        else if (type.isEnum())
+        {
+            converter = lookup.findStatic(IniConversions.class, "toEnum", MethodType.methodType(Enum.class,
+                    Class.class, String.class, String.class, String.class));
+            converter = MethodHandles.insertArguments(converter, 0, type);
+        }
+        else if (CONVERSIONS.containsKey(type))
+        {
+            Class<?> primitive = MethodType.methodType(type).unwrap().returnType();
+            converter = lookup.findStatic(IniConversions.class, CONVERSIONS.get(type), MethodType.methodType(
+                    primitive, String.class, String.class, String.class));
+        }
+        else
+        {
+            return null;
+        }
+        return converter.asType(CONVERTER_TYPE);
+    }
+
+    /**
+     * Examine a bean class
+     *
+     * @throws IllegalArgumentException
+     *             if the class can't be bound
+     */
+    private static Plan plan(Class<?> type)
+    {
+        try
+        {
+            MethodHandle constructor = MethodHandles.publicLookup().findConstructor(type,
+                    MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+
+            List<Property> properties = new ArrayList<>();
+            for (Method method : type.getMethods())
+            {
+                String name = method.getName();
+                if (name.length() > 3 && name.startsWith("set") && method.getParameterTypes().length == 1
+                        && !Modifier.isStatic(method.getModifiers()))
+                {
+                    String propertyName = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+                    MethodHandle setter = MethodHandles.publicLookup().unreflect(method);
+                    addProperty(properties, method, propertyName, setter, method.getParameterTypes()[0],
+                            method.getGenericParameterTypes()[0]);
+                }
+            }
+            for (Field field : type.getFields())
+            {
+                if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers()))
+                {
+                    MethodHandle setter = MethodHandles.publicLookup().unreflectSetter(field);
+                    addProperty(properties, field, field.getName(), setter, field.getType(), field.getGenericType());
+                }
+            }
+            return new Plan(constructor, properties);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalArgumentException("Can't bind " + type.getName() + ": " + e, e);
+        }
+    }
+
+    /**
+     * Bind a bean to the section named by its {@link IniSection} annotation
+     *
+     * @param ini
+     *            the Ini to read options from
+     * @param type
+     *            the bean class
+     * @return a new bean
+     * @throws NoSectionError
+     *             If the section, or a nested section, doesn't exist
+     * @throws NoOptionError
+     *             If an option without a fallback doesn't exist
+     * @throws InvalidValueError
+     *             If a value can't be converted to its property's type
+     * @throws IllegalArgumentException
+     *             If the class is not annotated or can't be bound
+     */
+    public <T> T bind(Ini ini, Class<T> type) throws NoSectionError, NoOptionError, InvalidValueError
+    {
+        IniSection section = type.getAnnotation(IniSection.class);
+        if (section == null)
+            throw new IllegalArgumentException(type.getName() + " is not annotated with @IniSection");
+        return bind(ini, section.value(), type);
+    }
+
+    /**
+     * Bind a bean to a section, see {@link #bind(Ini, Class)}
+     */
+    public <T> T bind(Ini ini, String sectionName, Class<T> type) throws NoSectionError, NoOptionError,
+            InvalidValueError
+    {
+        try
+        {
+            return type.cast(bindSection(ini, sectionName, type));
+        }
+        catch (NoSectionError | NoOptionError | InvalidValueError | RuntimeException | Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            // The constructors and setters don't declare checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object bindSection(Ini ini, String sectionName, Class<?> type) throws Throwable
+    {
+        if (!ini.getSections().containsKey(sectionName))
+            throw new NoSectionError(sectionName);
+
+        Plan plan = PLANS.get(type);
+        Object bean = plan.constructor.invokeExact();
+        for (Property property : plan.properties)
+        {
+            Object value;
+            if (property.converter != null)
+            {
+                String rawValue = ini.getValue(sectionName, property.optionName, property.fallback);
+                value = property.converter.invokeExact(sectionName, rawValue);
+            }
+            else if (property.map)
+            {
+                String prefix = sectionName + separator + property.optionName + separator;
+                Map<String, Object> beans = new LinkedHashMap<>();
+                for (String nestedName : ini.getSectionsWithPrefix(prefix))
+                {
+                    String key = nestedName.substring(prefix.length());
+                    // Sections nested in the map's beans are bound by those beans
+                    if (!key.isEmpty() && !key.contains(separator))
+                        beans.put(key, bindSection(ini, nestedName, property.nestedType));
+                }
+                value = beans;
+            }
+            else
+            {
+                value = bindSection(ini, sectionName + separator + property.optionName, property.nestedType);
+            }
+            property.setter.invokeExact(bean, value);
+        }
+        return bean;
+    }
+
+    /**
+     * @return the text between a section's name and the names of the sections nested in it
+     */
+    public String getSeparator()
+    {
+        return separator;
+    }
+
+    /**
+     * Set the text between a section's name and the names of the sections nested in it, "." by default
+     *
+     * @return this IniBinder
+     */
+    public IniBinder setSeparator(String separator)
+    {
+        if (separator.isEmpty())
+            throw new IllegalArgumentException("The separator must not be empty");
+        this.separator = separator;
+        return this;
+    }
+}
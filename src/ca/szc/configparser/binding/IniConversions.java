@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser.binding;
+
+import java.util.Locale;
+
+import ca.szc.configparser.exceptions.InvalidValueError;
+
+/**
+ * Converts option values to the types options can be bound to. Booleans are read like Python's
+ * ConfigParser.getboolean(): "1", "yes", "true" and "on" are true, "0", "no", "false" and "off" are false, ignoring
+ * case. Numbers are read with the parse methods of their wrapper classes, and enum constants by name, ignoring case.
+ * A missing value, as allowed by {@link ca.szc.configparser.Ini#setAllowNoValue(boolean)}, is not valid for any of
+ * them.
+ */
+public final class IniConversions
+{
+    public static boolean toBoolean(String sectionName, String optionName, String value) throws InvalidValueError
+    {
+        if (value != null)
+        {
+            switch (value.toLowerCase(Locale.ROOT))
+            {
+                case "1":
+                case "yes":
+                case "true":
+                case "on":
+                    return true;
+                case "0":
+                case "no":
+                case "false":
+                case "off":
+                    return false;
+                default:
+                    break;
+            }
+        }
+        throw new InvalidValueError(sectionName, optionName, value, "boolean");
+    }
+
+    public static byte toByte(String sectionName, String optionName, String value) throws InvalidValueError
+    {
+        try
+        {
+            return Byte.parseByte(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new InvalidValueError(sectionName, optionName, value, "byte");
+        }
+    }
+
+    public static double toDouble(String sectionName, String optionName, String value) throws InvalidValueError
+    {
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException | NullPointerException e)
+        {
+            throw new InvalidValueError(sectionName, optionName, value, "double");
+        }
+    }
+
+    public static <E extends Enum<E>> E toEnum(Class<E> type, String sectionName, String optionName, String value)
+            throws InvalidValueError
+    {
+        if (value != null)
+            for (E constant : type.getEnumConstants())
+                if (constant.name().equalsIgnoreCase(value))
+                    return constant;
+        throw new InvalidValueError(sectionName, optionName, value, type.getSimpleName());
+    }
+
+    public static float toFloat(String sectionName, String optionName, String value) throws InvalidValueError
+    {
+        try
+        {
+            return Float.parseFloat(value);
+        }
+        catch (NumberFormatException | NullPointerException e)
+        {
+            throw new InvalidValueError(sectionName, optionName, value, "float");
+        }
+    }
+
+    public static int toInt(String sectionName, String optionName, String value) throws InvalidValueError
+    {
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new InvalidValueError(sectionName, optionName, value, "int");
+        }
+    }
+
+    public static long toLong(String sectionName, String optionName, String value) throws InvalidValueError
+    {
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new InvalidValueError(sectionName, optionName, value, "long");
+        }
+    }
+
+    public static short toShort(String sectionName, String optionName, String value) throws InvalidValueError
+    {
+        try
+        {
+            return Short.parseShort(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new InvalidValueError(sectionName, optionName, value, "short");
+        }
+    }
+
+    private IniConversions()
+    {
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser.binding;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Customizes how a method of an {@link IniSection} interface, or a bean property bound by {@link IniBinder}, is bound.
+ * Methods and properties without this annotation are bound to the option named like them, with no fallback.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD })
+public @interface IniOption
+{
+    /** The value of {@link #fallback()} when there is none, so the option is required */
+    String NO_FALLBACK = "\u0000";
+
+    /**
+     * @return the value to use when the option is missing, it must be valid for the method's return type
+     */
+    String fallback() default NO_FALLBACK;
+
+    /**
+     * @return the name of the option, or "" for the method or property name
+     */
+    String value() default "";
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser.exceptions;
+
+/**
+ * This exception is thrown when an option's value can't be converted to the type it is bound to.
+ */
+public class InvalidValueError extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+    private String section;
+    private String option;
+    private String type;
+    private String value;
+
+    public InvalidValueError (String section, String option, String value, String type)
+    {
+        super("Value '" + value + "' of option '" + option + "' in section '" + section + "' is not a valid " + type);
+        this.section = section;
+        this.option = option;
+        this.type = type;
+        this.value = value;
+    }
+
+    public String getSectionName()
+    {
+        return section;
+    }
+
+    public String getOption()
+    {
+        return option;
+    }
+
+    public String getType()
+    {
+        return type;
+    }
+
+    public String getValue()
+    {
+        return value;
+    }
+}
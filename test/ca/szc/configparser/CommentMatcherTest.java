@@ -0,0 +1,77 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CommentMatcherTest
+{
+    private static final List<String> none = Collections.emptyList();
+
+    @Test
+    public void testFullLine()
+    {
+        CommentMatcher matcher = new CommentMatcher(Arrays.asList("#", ";", "//"), none);
+
+        Assert.assertEquals("Did not match at start of line", 0, matcher.commentStart("# comment"));
+        Assert.assertEquals("Did not match after indentation", 0, matcher.commentStart(" \t; comment"));
+        Assert.assertEquals("Did not match multi character prefix", 0, matcher.commentStart("  // comment"));
+        Assert.assertEquals("Matched partial multi character prefix", -1, matcher.commentStart("/ not a comment"));
+        Assert.assertEquals("Matched full line prefix inline", -1, matcher.commentStart("key = value # text"));
+        Assert.assertEquals("Matched blank line", -1, matcher.commentStart("   "));
+    }
+
+    @Test
+    public void testInline()
+    {
+        CommentMatcher matcher = new CommentMatcher(none, Arrays.asList(";", "#", "//", "/*"));
+
+        Assert.assertEquals("Did not find earliest prefix", 8, matcher.commentStart("key = v ; a # b"));
+        Assert.assertEquals("Did not find earliest prefix", 8, matcher.commentStart("key = v # a ; b"));
+        Assert.assertEquals("Matched prefix without whitespace before it", -1, matcher.commentStart("key = a;b"));
+        Assert.assertEquals("Did not match later occurrence of prefix", 10,
+                matcher.commentStart("key = a;b ;c"));
+        Assert.assertEquals("Did not match overlapping prefixes", 6, matcher.commentStart("key = /* c"));
+        Assert.assertEquals("Did not match at start of line", 0, matcher.commentStart("// c"));
+        Assert.assertEquals("Matched without a prefix present", -1, matcher.commentStart("key = value"));
+    }
+
+    @Test
+    public void testNonAscii()
+    {
+        CommentMatcher matcher = new CommentMatcher(Arrays.asList("§"), Arrays.asList("——"));
+
+        Assert.assertEquals("Did not match non-ASCII full line prefix", 0, matcher.commentStart(" § c"));
+        Assert.assertEquals("Did not match non-ASCII inline prefix", 8, matcher.commentStart("k = été —— c"));
+        Assert.assertEquals("Matched partial non-ASCII prefix", -1, matcher.commentStart("k = — c"));
+    }
+
+    @Test
+    public void testRange()
+    {
+        CommentMatcher matcher = new CommentMatcher(Arrays.asList("#"), Arrays.asList(";"));
+        String text = "a = 1\n  # c\nb = 2 ; c\n";
+
+        Assert.assertEquals("Did not find inline comment relative to line", -1, matcher.commentStart(text, 0, 5));
+        Assert.assertEquals("Did not find full line comment in range", 0, matcher.commentStart(text, 6, 11));
+        Assert.assertEquals("Did not find inline comment relative to line", 6, matcher.commentStart(text, 12, 21));
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressionTest
+{
+    private static byte[] roundTrip(Compression compression, byte[] bytes) throws Exception
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = compression.compress(compressed))
+        {
+            out.write(bytes);
+        }
+
+        try (InputStream in = Compression.detectAndDecompress(new ByteArrayInputStream(compressed.toByteArray())))
+        {
+            ByteBuffer buffer = IniParser.readFully(in);
+            byte[] decompressed = new byte[buffer.remaining()];
+            buffer.get(decompressed);
+            return decompressed;
+        }
+    }
+
+    @Test
+    public void detect()
+    {
+        byte[] gzip = { 0x1f, (byte) 0x8b, 8, 0 };
+        Assert.assertEquals(Compression.GZIP, Compression.detect(gzip, 0, gzip.length));
+        Assert.assertEquals(Compression.NONE, Compression.detect(gzip, 1, 3));
+        Assert.assertEquals(Compression.NONE, Compression.detect(gzip, 0, 1));
+        byte[] text = "[a]\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(Compression.NONE, Compression.detect(text, 0, text.length));
+    }
+
+    @Test
+    public void roundTrip() throws Exception
+    {
+        byte[] text = "[a]\nkey = value\n".getBytes(StandardCharsets.UTF_8);
+        for (Compression compression : Compression.values())
+            Assert.assertArrayEquals(text, roundTrip(compression, text));
+        Assert.assertArrayEquals(new byte[0], roundTrip(Compression.NONE, new byte[0]));
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.szc.configparser.exceptions.DuplicateOptionError;
+import ca.szc.configparser.exceptions.DuplicateSectionError;
+import ca.szc.configparser.exceptions.IniParserException;
+import ca.szc.configparser.exceptions.NoSectionError;
+
+public class IniAppenderTest
+{
+    private static Map<String, String> options(String... namesAndValues)
+    {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2)
+            options.put(namesAndValues[i], namesAndValues[i + 1]);
+        return options;
+    }
+
+    private static Path prepare(String name, String text) throws IOException
+    {
+        Path path = IniTest.outputRoot.resolve(name);
+        Files.deleteIfExists(path.resolveSibling(name + IniAppender.INDEX_SUFFIX));
+        if (text == null)
+            Files.deleteIfExists(path);
+        else
+            Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test
+    public void appendedTextIsWrittenLikeIni() throws Exception
+    {
+        Path path = prepare("append-like-ini.cfg", null);
+        new IniAppender(path).appendSection("host1", options("address", "10.0.0.1", "roles", "web\ndb"))
+                .appendSection("host2", options("Address", "10.0.0.2"));
+
+        Ini expected = new Ini();
+        expected.getSections().put("host1", options("address", "10.0.0.1", "roles", "web\ndb"));
+        expected.getSections().put("host2", options("address", "10.0.0.2"));
+        Path written = IniTest.outputRoot.resolve("append-like-ini-expected.cfg");
+        expected.write(written);
+
+        // Only the case of the option name differs
+        String appended = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        Assert.assertEquals(new String(Files.readAllBytes(written), StandardCharsets.UTF_8),
+                appended.replace("Address", "address"));
+        Assert.assertEquals("web\ndb", new Ini().read(path).getValue("host1", "roles"));
+    }
+
+    @Test
+    public void duplicatesAreRejected() throws Exception
+    {
+        Path path = prepare("append-duplicates.cfg", "[common]\nkey = 1\n\n[host1]\naddress = 10.0.0.1");
+        IniAppender appender = new IniAppender(path);
+        Assert.assertTrue(appender.hasSection("host1"));
+        Assert.assertFalse(appender.hasSection("host2"));
+
+        try
+        {
+            appender.appendSection("common", options("key", "2"));
+            Assert.fail();
+        }
+        catch (IniParserException e)
+        {
+            Assert.assertEquals(Arrays.asList(new DuplicateSectionError(0, "common")), e.getParsingErrors());
+        }
+
+        try
+        {
+            appender.appendOptions("host1", options("Address", "10.0.0.2", "port", "80"));
+            Assert.fail();
+        }
+        catch (IniParserException e)
+        {
+            Assert.assertEquals(Arrays.asList(new DuplicateOptionError(0, "host1", "Address")), e.getParsingErrors());
+        }
+
+        try
+        {
+            appender.appendOptions("common", options("other", "2"));
+            Assert.fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected, only the last section can be appended to
+        }
+
+        try
+        {
+            appender.appendOptions("missing", options("other", "2"));
+            Assert.fail();
+        }
+        catch (NoSectionError e)
+        {
+            Assert.assertEquals("missing", e.getSectionName());
+        }
+
+        // The file had no line break at the end
+        appender.appendOptions("host1", options("port", "80"));
+        Ini ini = new Ini().read(path);
+        Assert.assertEquals("10.0.0.1", ini.getValue("host1", "address"));
+        Assert.assertEquals("80", ini.getValue("host1", "port"));
+        Assert.assertEquals(Arrays.asList("common", "host1"), new ArrayList<>(ini.getSections().keySet()));
+    }
+
+    @Test
+    public void duplicateSectionsAreMerged() throws Exception
+    {
+        Path path = prepare("append-merged.cfg", "[common]\nkey = 1\n\n[host1]\naddress = 10.0.0.1\n");
+        IniFormat format = new IniFormat.Builder().setAllowDuplicates(true).build();
+        new IniAppender(path, format, StandardCharsets.UTF_8).appendOptions("common", options("other", "2"))
+                .appendSection("host1", options("port", "80"));
+
+        Ini ini = new Ini(format).read(path);
+        Assert.assertEquals("1", ini.getValue("common", "key"));
+        Assert.assertEquals("2", ini.getValue("common", "other"));
+        Assert.assertEquals("10.0.0.1", ini.getValue("host1", "address"));
+        Assert.assertEquals("80", ini.getValue("host1", "port"));
+    }
+
+    @Test
+    public void indexIsReusedAndRebuilt() throws Exception
+    {
+        Path path = prepare("append-index.cfg", "[host1]\naddress = 10.0.0.1\n");
+        new IniAppender(path).appendSection("host2", options("address", "10.0.0.2"));
+
+        List<String> index = Files.readAllLines(path.resolveSibling("append-index.cfg.names"), StandardCharsets.UTF_8);
+        Assert.assertTrue(index.get(0).contains(String.format("%019d", Files.size(path))));
+        // Options are indexed for the last section when the index is built, and for appended sections
+        Assert.assertEquals(Arrays.asList("[host1]", "\taddress", "[host2]", "\taddress"),
+                index.subList(1, index.size()));
+
+        // Another appender, such as in another process, finds the names in the index
+        IniAppender appender = new IniAppender(path);
+        Assert.assertTrue(appender.hasSection("host2"));
+        new IniAppender(path).appendSection("host3", Collections.<String, String> emptyMap());
+        Assert.assertTrue(appender.hasSection("host3"));
+
+        // The file is read again when it is changed without an appender
+        Ini ini = new Ini().read(path);
+        ini.getSections().remove("host1");
+        ini.getSections().put("host4", options("address", "10.0.0.4"));
+        ini.write(path);
+        Assert.assertFalse(appender.hasSection("host1"));
+        appender.appendOptions("host4", options("port", "80"));
+        Assert.assertEquals("80", new Ini().read(path).getValue("host4", "port"));
+    }
+
+    @Test
+    public void instancesShareFile() throws Exception
+    {
+        final Path path = prepare("append-shared.cfg", null);
+        final int sections = 200;
+        final Throwable[] failures = new Throwable[2];
+        Thread[] threads = new Thread[failures.length];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int thread = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        IniAppender appender = new IniAppender(path);
+                        for (int i = 0; i < sections; i++)
+                            appender.appendSection("host" + thread + "." + i, options("address", "10.0." + thread
+                                    + "." + i));
+                    }
+                    catch (Throwable e)
+                    {
+                        failures[thread] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        for (Throwable failure : failures)
+            if (failure != null)
+                throw new AssertionError(failure);
+        Ini ini = new Ini().read(path);
+        Assert.assertEquals(sections * threads.length, ini.getSections().size());
+        Assert.assertEquals("10.0.1.7", ini.getValue("host1.7", "address"));
+        Assert.assertTrue(new IniAppender(path).hasSection("host0." + (sections - 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidOptionName() throws Exception
+    {
+        new IniAppender(prepare("append-invalid.cfg", null)).appendSection("host", options("a = b", "c"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedCharset() throws Exception
+    {
+        new IniAppender(prepare("append-utf16.cfg", null), IniFormat.DEFAULT, StandardCharsets.UTF_16);
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IniCacheTest
+{
+    private static Path write(String name, String text) throws Exception
+    {
+        Path path = IniTest.outputRoot.resolve(name);
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test
+    public void changedFileIsReadAgain() throws Exception
+    {
+        Path path = write("cache-changed.cfg", "[a]\nkey = 1\n");
+        FileTime modified = Files.getLastModifiedTime(path);
+        IniCache cache = new IniCache(4);
+
+        Ini first = cache.get(path);
+        Assert.assertEquals("1", first.getValue("a", "key"));
+
+        // Same size and modification time, so not noticed
+        write("cache-changed.cfg", "[a]\nkey = 2\n");
+        Files.setLastModifiedTime(path, modified);
+        Assert.assertSame(first, cache.get(path));
+
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified.toMillis() + 2000));
+        Ini second = cache.get(path);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals("2", second.getValue("a", "key"));
+        Assert.assertEquals("1", first.getValue("a", "key"));
+
+        write("cache-changed.cfg", "[a]\nkey = 33\n");
+        Assert.assertEquals("33", cache.get(path).getValue("a", "key"));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(3, cache.getMisses());
+
+        Files.delete(path);
+    }
+
+    @Test
+    public void hitsAreShared() throws Exception
+    {
+        Path path = write("cache-hits.cfg", "[a]\nkey = value\n");
+        IniCache cache = new IniCache(4);
+
+        Ini ini = cache.get(path);
+        Assert.assertTrue(ini.isFrozen());
+        Assert.assertSame(ini, cache.get(path));
+        Assert.assertSame(ini, cache.get(path.toAbsolutePath()));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertTrue(cache.getLoadNanos() > 0);
+
+        cache.invalidate(path);
+        Assert.assertNotSame(ini, cache.get(path));
+        Assert.assertEquals(2, cache.getMisses());
+
+        Files.delete(path);
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception
+    {
+        Path a = write("cache-a.cfg", "[a]\n");
+        Path b = write("cache-b.cfg", "[b]\n");
+        Path c = write("cache-c.cfg", "[c]\n");
+        IniCache cache = new IniCache(2);
+
+        Ini iniA = cache.get(a);
+        Ini iniB = cache.get(b);
+        Assert.assertSame(iniA, cache.get(a));
+        cache.get(c);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+
+        Assert.assertSame(iniA, cache.get(a));
+        Assert.assertNotSame(iniB, cache.get(b));
+        Assert.assertEquals(4, cache.getMisses());
+
+        Files.delete(a);
+        Files.delete(b);
+        Files.delete(c);
+    }
+}
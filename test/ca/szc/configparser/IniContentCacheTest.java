@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IniContentCacheTest
+{
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void equalSectionsAreShared() throws Exception
+    {
+        IniContentCache cache = new IniContentCache(4);
+
+        Ini first = cache.get(bytes("[db]\nhost = db1\nport = 5432\n\n[tenant]\nname = first\n"));
+        Ini second = cache.get(bytes("[tenant]\nname = second\n\n[database]\nhost = db1\nport = 5432\n"));
+        Ini third = cache.get(bytes("[db]\nport = 5432\nhost = db1\n"));
+
+        Map<String, String> shared = first.getSections().get("db");
+        Assert.assertSame(shared, second.getSections().get("database"));
+        // Option order is kept, so this one differs
+        Assert.assertNotSame(shared, third.getSections().get("db"));
+        Assert.assertEquals(third.getSections().get("db"), shared);
+        Assert.assertEquals(1, cache.getSharedSections());
+
+        Assert.assertEquals("first", first.getValue("tenant", "name"));
+        Assert.assertEquals("second", second.getValue("tenant", "name"));
+        Assert.assertEquals("5432", second.getValue("database", "port"));
+
+        try
+        {
+            shared.put("host", "db2");
+            Assert.fail();
+        }
+        catch (UnsupportedOperationException e)
+        {
+        }
+
+        // Adding a shared section to another Ini copies it
+        Ini copy = new Ini();
+        copy.getSections().put("db", shared);
+        copy.getSections().get("db").put("host", "db2");
+        Assert.assertEquals("db1", first.getValue("db", "host"));
+    }
+
+    @Test
+    public void identicalPayloadsAreShared() throws Exception
+    {
+        IniContentCache cache = new IniContentCache(4);
+
+        Ini ini = cache.get(bytes("[a]\nkey = value\n"));
+        Assert.assertTrue(ini.isFrozen());
+        Assert.assertSame(ini, cache.get(bytes("[a]\nkey = value\n")));
+        Assert.assertNotSame(ini, cache.get(bytes("[a]\nkey = value\n"), StandardCharsets.ISO_8859_1));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals("value", ini.getValue("a", "key"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception
+    {
+        IniContentCache cache = new IniContentCache(2);
+
+        Ini a = cache.get(bytes("[a]\n"));
+        Ini b = cache.get(bytes("[b]\n"));
+        Assert.assertSame(a, cache.get(bytes("[a]\n")));
+        cache.get(bytes("[c]\n"));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertSame(a, cache.get(bytes("[a]\n")));
+        Assert.assertNotSame(b, cache.get(bytes("[b]\n")));
+    }
+}
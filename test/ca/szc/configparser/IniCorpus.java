@@ -0,0 +1,159 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.Random;
+
+/**
+ * Generates large INI texts for performance tests. The same settings and seed always produce the same text.
+ */
+public class IniCorpus
+{
+    private double commentDensity = 0.1;
+
+    private double continuationRatio = 0.1;
+
+    private int interpolationDepth = 0;
+
+    private int interpolationFanOut = 0;
+
+    private double inlineCommentRatio = 0;
+
+    private int lines;
+
+    private int optionsPerSection = 6;
+
+    private int sections = 1000;
+
+    private long seed = 42;
+
+    /**
+     * @return the INI text, with '\n' line endings
+     */
+    public String generate()
+    {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(sections * optionsPerSection * 40);
+        lines = 0;
+
+        for (int s = 0; s < sections; s++)
+        {
+            sb.append("[section.").append(s % 16).append('.').append(s).append("]\n");
+            lines++;
+
+            for (int o = 0; o < optionsPerSection; o++)
+            {
+                if (random.nextDouble() < commentDensity)
+                {
+                    sb.append("# comment about option ").append(o).append('\n');
+                    lines++;
+                }
+
+                sb.append("option").append(o).append(" = ");
+                // The first interpolationDepth options form a chain of references, each referring to up to
+                // interpolationFanOut of the options before it
+                if (o > 0 && o <= interpolationDepth)
+                {
+                    for (int r = 1; r <= interpolationFanOut && r <= o; r++)
+                        sb.append("${option").append(o - r).append("}/");
+                }
+                sb.append("value-").append(Long.toHexString(random.nextLong()));
+                if (random.nextDouble() < inlineCommentRatio)
+                    sb.append(" ; inline comment");
+                sb.append('\n');
+                lines++;
+
+                while (random.nextDouble() < continuationRatio)
+                {
+                    sb.append("    continued ").append(random.nextInt(1000)).append('\n');
+                    lines++;
+                }
+            }
+            sb.append('\n');
+            lines++;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the number of lines in the last generated text
+     */
+    public int getLines()
+    {
+        return lines;
+    }
+
+    /**
+     * @param commentDensity
+     *            the probability of a full line comment before each option
+     */
+    public IniCorpus setCommentDensity(double commentDensity)
+    {
+        this.commentDensity = commentDensity;
+        return this;
+    }
+
+    /**
+     * @param continuationRatio
+     *            the probability of each further continuation line of a value
+     */
+    public IniCorpus setContinuationRatio(double continuationRatio)
+    {
+        this.continuationRatio = continuationRatio;
+        return this;
+    }
+
+    /**
+     * @param inlineCommentRatio
+     *            the probability of an inline comment, prefixed by ';', after a value
+     */
+    public IniCorpus setInlineCommentRatio(double inlineCommentRatio)
+    {
+        this.inlineCommentRatio = inlineCommentRatio;
+        return this;
+    }
+
+    /**
+     * @param interpolationDepth
+     *            the length of the chain of references in each section
+     * @param interpolationFanOut
+     *            the number of references in each value of the chain
+     */
+    public IniCorpus setInterpolation(int interpolationDepth, int interpolationFanOut)
+    {
+        this.interpolationDepth = interpolationDepth;
+        this.interpolationFanOut = interpolationFanOut;
+        return this;
+    }
+
+    public IniCorpus setOptionsPerSection(int optionsPerSection)
+    {
+        this.optionsPerSection = optionsPerSection;
+        return this;
+    }
+
+    public IniCorpus setSections(int sections)
+    {
+        this.sections = sections;
+        return this;
+    }
+
+    public IniCorpus setSeed(long seed)
+    {
+        this.seed = seed;
+        return this;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IniDiffTest
+{
+    private static String write(Ini ini) throws IOException
+    {
+        StringWriter text = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(text))
+        {
+            ini.write(writer);
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void computeAndApply() throws Exception
+    {
+        Ini from = new Ini().read("[same]\na = 1\nb = 2\n[changed]\nkeep = 1\nedit = 1\ndrop = 1\n[removed]\nx = 1\n");
+        Ini to = new Ini().read("[same]\nb = 2\na = 1\n[changed]\nkeep = 1\nedit = 2\nadd = 3\n[added]\ny = 2\n");
+
+        IniDiff diff = IniDiff.compute(from, to);
+        Assert.assertEquals(Collections.singleton("removed"), diff.getRemovedSections());
+        Assert.assertEquals(Collections.singletonMap("y", "2"), diff.getAddedSections().get("added"));
+        Assert.assertEquals(Collections.singleton("changed"), diff.getChangedSections());
+        Assert.assertEquals(Collections.singletonMap("edit", "2"), diff.getChangedOptions().get("changed"));
+        Assert.assertEquals(Collections.singletonMap("add", "3"), diff.getAddedOptions().get("changed"));
+        Assert.assertEquals(Collections.singleton("drop"), diff.getRemovedOptions().get("changed"));
+
+        // A diff survives being sent elsewhere
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(diff);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+        {
+            diff = (IniDiff) in.readObject();
+        }
+
+        diff.apply(from);
+        Assert.assertEquals(to.getSections(), from.getSections());
+        Assert.assertEquals(Arrays.asList("same", "changed", "added"), Arrays.asList(
+                from.getSections().keySet().toArray()));
+        Assert.assertTrue(IniDiff.compute(from, to).isEmpty());
+    }
+
+    @Test
+    public void hashesFollowChanges() throws Exception
+    {
+        Ini from = new Ini().read("[a]\nkey = line one\n  line two\n");
+        Ini to = new Ini().read("[a]\nkey = line one\n  line two\n");
+        Assert.assertTrue(IniDiff.compute(from, to).isEmpty());
+
+        to.getSections().get("a").put("key", "line one\nline three");
+        Assert.assertEquals(Collections.singletonMap("key", "line one\nline three"),
+                IniDiff.compute(from, to).getChangedOptions().get("a"));
+
+        to.getSections().get("a").put("key", "line one\nline two");
+        Assert.assertTrue(IniDiff.compute(from, to).isEmpty());
+
+        to.getSections().get("a").put("other", null);
+        Assert.assertEquals(Collections.singletonMap("other", null),
+                IniDiff.compute(from, to).getAddedOptions().get("a"));
+    }
+
+    @Test
+    public void keepReferences() throws Exception
+    {
+        Ini from = new Ini().read("[DEFAULT]\nhost = localhost\nurl = http://${host}:${port}/\n"
+                + "[server]\nport = 80\nhost = web1\n[client]\nport = 81\nname = ${host}\n");
+        Ini to = new Ini().read("[DEFAULT]\nhost = localhost\nurl = https://${host}:${port}/\n"
+                + "[server]\nport = 8080\nhost = web1\n[client]\nport = 81\nname = ${host}-${port}\n"
+                + "[added]\nport = 82\nlink = ${url}\n");
+
+        IniDiff diff = IniDiff.compute(from, to);
+        Assert.assertEquals(Collections.singletonMap("url", "https://${host}:${port}/"),
+                diff.getChangedOptions().get("DEFAULT"));
+        Assert.assertEquals(Collections.singletonMap("name", "${host}-${port}"),
+                diff.getChangedOptions().get("client"));
+        Assert.assertEquals("${url}", diff.getAddedSections().get("added").get("link"));
+
+        diff.apply(from);
+        Assert.assertEquals(write(to), write(from));
+        Assert.assertEquals("https://web1:8080/", from.getValue("server", "url"));
+        Assert.assertEquals("https://localhost:81/", from.getValue("client", "url"));
+        Assert.assertEquals("localhost-81", from.getValue("client", "name"));
+        Assert.assertEquals("https://localhost:82/", from.getValue("added", "link"));
+        Assert.assertTrue(IniDiff.compute(from, to).isEmpty());
+
+        // References stay tracked, so a later edit resolves the options that refer to the changed one
+        from.edit(new IniEditor()
+        {
+            @Override
+            public void edit(IniBatch batch)
+            {
+                batch.set("client", "port", "90");
+            }
+        });
+        Assert.assertEquals("localhost-90", from.getValue("client", "name"));
+        Assert.assertEquals("https://localhost:90/", from.getValue("client", "url"));
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IniFingerprintTest
+{
+    private static Ini generate(int sections)
+    {
+        Ini ini = new Ini();
+        for (int i = 0; i < sections; i++)
+        {
+            Map<String, String> options = new LinkedHashMap<>();
+            options.put("host", "host" + i + ".example.com");
+            options.put("port", Integer.toString(8000 + i % 100));
+            ini.getSections().put("server" + i, options);
+        }
+        return ini;
+    }
+
+    @Test
+    public void findDifferences() throws Exception
+    {
+        Ini a = generate(5000);
+        Ini b = generate(5000);
+        IniFingerprint fa = a.getFingerprint();
+        IniFingerprint fb = b.getFingerprint();
+        Assert.assertEquals(fa.getRoot(), fb.getRoot());
+        Assert.assertTrue(IniFingerprint.findDifferences(fa, fb).isEmpty());
+
+        b.getSections().get("server42").put("port", "9000");
+        b.getSections().remove("server7");
+        b.getSections().put("extra", Collections.singletonMap("key", "value"));
+        Assert.assertNotEquals(fa.getRoot(), fb.getRoot());
+        Assert.assertNotEquals(fa.getSectionHash("server42"), fb.getSectionHash("server42"));
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("extra", "server42", "server7")),
+                IniFingerprint.findDifferences(fa, fb));
+
+        b.getSections().get("server42").put("port", "8042");
+        b.getSections().remove("extra");
+        b.getSections().put("server7", a.getSections().get("server7"));
+        Assert.assertEquals(fa.getRoot(), fb.getRoot());
+    }
+
+    @Test
+    public void frozenIsComputedOnce() throws Exception
+    {
+        final Ini ini = generate(2000).freeze();
+        final IniFingerprint[] fingerprints = new IniFingerprint[8];
+        Thread[] threads = new Thread[fingerprints.length];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final int index = i;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    fingerprints[index] = ini.getFingerprint();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        for (IniFingerprint fingerprint : fingerprints)
+            Assert.assertSame(fingerprints[0], fingerprint);
+        Assert.assertEquals(generate(2000).getFingerprint().getRoot(), fingerprints[0].getRoot());
+    }
+
+    @Test
+    public void incrementalMatchesFresh() throws Exception
+    {
+        Ini ini = new Ini().read("[a]\nx = 1\ny = multi\n  line\n[b]\nz = \n");
+        IniFingerprint incremental = ini.getFingerprint();
+
+        ini.getSections().get("a").put("x", "2");
+        ini.getSections().get("a").remove("y");
+        ini.getSections().get("b").clear();
+        ini.getSections().get("b").put("w", null);
+        for (Map.Entry<String, String> option : ini.getSections().get("a").entrySet())
+            option.setValue("3");
+
+        Ini copy = new Ini();
+        for (Map.Entry<String, Map<String, String>> section : ini.getSections().entrySet())
+            copy.getSections().put(section.getKey(), new LinkedHashMap<>(section.getValue()));
+        IniFingerprint fresh = copy.getFingerprint();
+
+        Assert.assertEquals(fresh.getRoot(), incremental.getRoot());
+        Assert.assertEquals(fresh.getOptionHash("a", "X"), incremental.getOptionHash("a", "x"));
+        Assert.assertEquals(fresh.getNode(1, 1), incremental.getNode(1, 1));
+    }
+
+    @Test
+    public void stableAndOrderIndependent() throws Exception
+    {
+        Ini a = new Ini().read("[one]\nk1 = v1\nk2 = v2\n[two]\nk = line one\n  line two\n");
+        Ini b = new Ini().read("[two]\nk = line one\n  line two\n[one]\nk2 = v2\nk1 = v1\n");
+        Assert.assertEquals(a.getFingerprint().getRoot(), b.getFingerprint().getRoot());
+        // Hosts running different versions must agree, so this may only change along with the hash format
+        Assert.assertEquals(3472164622047845571L, a.getFingerprint().getRoot());
+    }
+}
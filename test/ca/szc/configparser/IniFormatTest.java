@@ -0,0 +1,80 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.szc.configparser.exceptions.NoOptionError;
+import ca.szc.configparser.exceptions.NoSectionError;
+
+public class IniFormatTest
+{
+    @Test
+    public void builderCopiesFormat()
+    {
+        IniFormat format = new IniFormat.Builder().setAllowNoValue(true).setDelimiters(Arrays.asList(":"))
+                .setPositionTracking(PositionTracking.FULL).build();
+        IniFormat copy = new IniFormat.Builder(format).setSpaceAroundDelimiters(false).build();
+
+        Assert.assertTrue(copy.isAllowNoValue());
+        Assert.assertEquals(Arrays.asList(":"), copy.getDelimiters());
+        Assert.assertEquals(PositionTracking.FULL, copy.getPositionTracking());
+        Assert.assertFalse(copy.isSpaceAroundDelimiters());
+        Assert.assertTrue("Original format was modified", format.isSpaceAroundDelimiters());
+    }
+
+    @Test
+    public void listsAreCopied()
+    {
+        List<String> delimiters = new ArrayList<>(Arrays.asList("="));
+        IniFormat format = new IniFormat.Builder().setDelimiters(delimiters).build();
+
+        delimiters.add(":");
+
+        Assert.assertEquals(Arrays.asList("="), format.getDelimiters());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listsAreUnmodifiable()
+    {
+        IniFormat.DEFAULT.getDelimiters().add("->");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noDelimiters()
+    {
+        new IniFormat.Builder().setDelimiters(new ArrayList<String>()).build();
+    }
+
+    @Test
+    public void sharedFormat() throws IOException, NoSectionError, NoOptionError
+    {
+        IniFormat format = new IniFormat.Builder().setDelimiters(Arrays.asList("->")).build();
+
+        Ini first = new Ini(format).read("[a]\nkey -> 1\n");
+        Ini second = new Ini(format).read("[a]\nkey -> 2\n");
+
+        Assert.assertSame(format, first.getFormat());
+        Assert.assertEquals("1", first.getValue("a", "key"));
+        Assert.assertEquals("2", second.getValue("a", "key"));
+    }
+}
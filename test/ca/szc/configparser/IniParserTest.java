@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.szc.configparser.exceptions.IniParserException;
+import ca.szc.configparser.exceptions.MissingSectionHeaderError;
+
+public class IniParserTest
+{
+    @Test
+    public void errorsDoNotCarryOver() throws Exception
+    {
+        IniParser parser = new IniParser(IniFormat.DEFAULT);
+
+        try
+        {
+            parser.parse("key = value\n");
+            Assert.fail("Did not throw IniParserException");
+        }
+        catch (IniParserException e)
+        {
+            Assert.assertEquals(1, e.getParsingErrors().size());
+            Assert.assertEquals(new MissingSectionHeaderError(1, "key = value"), e.getParsingErrors().get(0));
+        }
+
+        Ini ini = parser.parse("[a]\nkey = value\n");
+        Assert.assertEquals("value", ini.getValue("a", "key"));
+    }
+
+    @Test
+    public void parseBytes() throws Exception
+    {
+        IniParser parser = new IniParser(IniFormat.DEFAULT);
+
+        Ini ini = parser.parse("[ä]\nkey = ü\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("ü", ini.getValue("ä", "key"));
+
+        ini = parser.parse("[ä]\nkey = ü\n".getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1);
+        Assert.assertEquals("ü", ini.getValue("ä", "key"));
+    }
+
+    @Test
+    public void reuse() throws Exception
+    {
+        IniParser parser = new IniParser(IniFormat.DEFAULT);
+
+        Ini first = parser.parse("[a]\nkey = 1\n  continued\n");
+        Ini second = parser.parse("[b]\nkey = 2\n");
+
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(parser.getFormat(), first.getFormat());
+        Assert.assertEquals("1\ncontinued", first.getValue("a", "key"));
+        Assert.assertEquals("2", second.getValue("b", "key"));
+        Assert.assertFalse(second.getSections().containsKey("a"));
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Throughput and allocation budgets for reading and writing large generated INI texts. The budgets are loose enough
+ * for slow build machines, they are meant to catch regressions by an order of magnitude, such as accidentally
+ * quadratic behaviour or a copy of every line.
+ * <p>
+ * Allocation is counted per thread, so it is checked in every build. Throughput and heap footprint depend on the
+ * machine and its load, so they are only checked when the system property {@value #PERFORMANCE_PROPERTY} is true, as
+ * it is in the performance profile: {@code mvn test -Pperformance}.
+ */
+public class IniPerformanceTest
+{
+    private interface Task
+    {
+        void run() throws Exception;
+    }
+
+    /** Discards everything written to it */
+    private static final class NullWriter extends Writer
+    {
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len)
+        {
+        }
+
+        @Override
+        public void write(String str, int off, int len)
+        {
+        }
+    }
+
+    private static final int MAX_READ_BYTES_PER_LINE = 1024;
+
+    private static final int MAX_WRITE_BYTES_PER_LINE = 512;
+
+    private static final int MIN_READ_LINES_PER_SECOND = 50000;
+
+    private static final int MIN_WRITE_LINES_PER_SECOND = 200000;
+
+    /** Set to true to check the budgets that depend on the machine */
+    static final String PERFORMANCE_PROPERTY = "configparser.performance";
+
+    private static final int RUNS = 5;
+
+    /**
+     * @return the bytes allocated by the current thread so far, or -1 if that can't be measured
+     */
+    private static long allocatedBytes()
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled())
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static List<IniCorpus> corpora()
+    {
+        return Arrays.asList(
+                new IniCorpus().setSections(20000),
+                new IniCorpus().setSections(2000).setOptionsPerSection(60).setContinuationRatio(0.5),
+                new IniCorpus().setSections(20000).setCommentDensity(0.5).setInlineCommentRatio(0.5),
+                new IniCorpus().setSections(10000).setOptionsPerSection(10).setInterpolation(4, 2));
+    }
+
+    /**
+     * Run a task a few times, then check its best time and least allocation against the budgets
+     */
+    private static void measure(String name, int lines, Task task, int minLinesPerSecond, int maxBytesPerLine)
+            throws Exception
+    {
+        long bestNanos = Long.MAX_VALUE;
+        long leastBytes = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++)
+        {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            task.run();
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            if (bytes != -1)
+                leastBytes = Math.min(leastBytes, allocatedBytes() - bytes);
+        }
+
+        double linesPerSecond = lines * 1e9 / bestNanos;
+        if (Boolean.getBoolean(PERFORMANCE_PROPERTY))
+            Assert.assertTrue(name + ": " + (long) linesPerSecond + " lines/s, budget " + minLinesPerSecond,
+                    linesPerSecond >= minLinesPerSecond);
+        if (leastBytes != Long.MAX_VALUE)
+        {
+            long bytesPerLine = leastBytes / lines;
+            Assert.assertTrue(name + ": " + bytesPerLine + " bytes/line, budget " + maxBytesPerLine,
+                    bytesPerLine <= maxBytesPerLine);
+        }
+    }
+
+    /**
+     * @return the heap in use after collecting garbage, until collecting again doesn't free anything. Some objects,
+     *         like those with cleaners or weak references, take more than one collection to free.
+     */
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 20; i++)
+        {
+            System.gc();
+            long nowUsed = runtime.totalMemory() - runtime.freeMemory();
+            if (nowUsed >= used)
+                break;
+            used = nowUsed;
+        }
+        return used;
+    }
+
+    @Test
+    public void corpusIsDeterministic()
+    {
+        IniCorpus corpus = new IniCorpus().setSections(100).setInlineCommentRatio(0.2).setInterpolation(3, 2);
+        String text = corpus.generate();
+        Assert.assertEquals(text, corpus.generate());
+        Assert.assertEquals(text.split("\n", -1).length - 1, corpus.getLines());
+        Assert.assertNotEquals(text, corpus.setSeed(7).generate());
+    }
+
+    @Test
+    public void read() throws Exception
+    {
+        final IniFormat format = new IniFormat.Builder().setAllowInterpolation(true)
+                .setInlineCommentPrefixes(Arrays.asList(";")).build();
+        for (IniCorpus corpus : corpora())
+        {
+            final String text = corpus.generate();
+            measure("read " + corpus.getLines() + " lines", corpus.getLines(), new Task()
+            {
+                @Override
+                public void run() throws Exception
+                {
+                    new Ini(format).read(text);
+                }
+            }, MIN_READ_LINES_PER_SECOND, MAX_READ_BYTES_PER_LINE);
+        }
+    }
+
+    /**
+     * Compare the heap retained by sections with the LinkedHashMap they used to be stored in. The layout itself is
+     * checked in every build by {@link SectionMapTest#compactLayout()}.
+     */
+    @Test
+    public void sectionFootprint()
+    {
+        Assume.assumeTrue(Boolean.getBoolean(PERFORMANCE_PROPERTY));
+        for (int options : new int[] { 6, 40 })
+        {
+            String[] names = new String[options];
+            for (int i = 0; i < options; i++)
+                names[i] = "option" + i;
+
+            // Large enough that the heap measurement's granularity, such as thread local allocation buffers, is small
+            // in comparison
+            Map<?, ?>[] sections = new Map<?, ?>[600000 / options];
+            long start = usedHeap();
+            for (int s = 0; s < sections.length; s++)
+            {
+                SectionMap section = new SectionMap();
+                for (String name : names)
+                    section.putRaw(name, name);
+                sections[s] = section;
+            }
+            long compact = (usedHeap() - start) / sections.length / options;
+
+            Arrays.fill(sections, null);
+            start = usedHeap();
+            for (int s = 0; s < sections.length; s++)
+            {
+                Map<String, Object> section = new LinkedHashMap<>();
+                for (String name : names)
+                    section.put(name, name);
+                sections[s] = section;
+            }
+            long linked = (usedHeap() - start) / sections.length / options;
+
+            // Typical sections take at most half as much, large ones less
+            Assert.assertTrue(options + " options: " + compact + " bytes/option, LinkedHashMap " + linked,
+                    options <= SectionMap.LINEAR_LIMIT ? compact * 2 <= linked : compact < linked);
+        }
+    }
+
+    @Test
+    public void write() throws Exception
+    {
+        IniFormat format = new IniFormat.Builder().setAllowInterpolation(true)
+                .setInlineCommentPrefixes(Arrays.asList(";")).build();
+        for (IniCorpus corpus : corpora())
+        {
+            final Ini ini = new Ini(format).read(corpus.generate());
+            measure("write " + corpus.getLines() + " lines", corpus.getLines(), new Task()
+            {
+                @Override
+                public void run() throws IOException
+                {
+                    try (BufferedWriter writer = new BufferedWriter(new NullWriter()))
+                    {
+                        ini.write(writer);
+                    }
+                }
+            }, MIN_WRITE_LINES_PER_SECOND, MAX_WRITE_BYTES_PER_LINE);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.szc.configparser.exceptions.NoOptionError;
+import ca.szc.configparser.exceptions.NoSectionError;
+
+public class IniStackTest
+{
+    private static Ini parse(String text) throws Exception
+    {
+        return new IniParser(IniFormat.DEFAULT).parse(text);
+    }
+
+    @Test
+    public void higherLayersOverride() throws Exception
+    {
+        Ini vendor = parse("[DEFAULT]\nlevel = info\n[server]\nport = 80\nhost = localhost\n");
+        Ini site = parse("[server]\nport = 8080\n[client]\nretries = 3\n");
+        Ini host = parse("[DEFAULT]\nlevel = debug\n");
+        IniStack stack = new IniStack(Arrays.asList(vendor, site, host));
+
+        Assert.assertEquals("8080", stack.getValue("server", "port"));
+        Assert.assertEquals("localhost", stack.getValue("server", "Host"));
+        Assert.assertEquals("3", stack.getValue("client", "retries"));
+        Assert.assertEquals("debug", stack.getValue("client", "level"));
+        Assert.assertEquals("8080", stack.getSection("server").get("port"));
+        Assert.assertEquals(Arrays.asList("port", "host"), Arrays.asList(
+                stack.getSection("server").keySet().toArray()));
+
+        try
+        {
+            stack.getValue("missing", "port");
+            Assert.fail("Did not throw NoSectionError");
+        }
+        catch (NoSectionError e)
+        {
+        }
+        try
+        {
+            stack.getValue("client", "port");
+            Assert.fail("Did not throw NoOptionError");
+        }
+        catch (NoOptionError e)
+        {
+        }
+    }
+
+    @Test
+    public void followLayerChanges() throws Exception
+    {
+        Ini vendor = parse("[server]\nport = 80\n");
+        Ini site = parse("[server]\nport = 8080\n[old]\nkey = value\n");
+        IniStack stack = new IniStack().push(vendor).push(site);
+
+        site.getSections().get("server").remove("port");
+        Assert.assertEquals("80", stack.getValue("server", "port"));
+
+        vendor.getSections().get("server").put("port", "81");
+        Assert.assertEquals("81", stack.getValue("server", "port"));
+
+        site.getSections().get("server").put("host", "localhost");
+        Assert.assertEquals("localhost", stack.getValue("server", "host"));
+
+        Map<String, String> old = stack.getSection("old");
+        site.getSections().remove("old");
+        Assert.assertNull(stack.getSection("old"));
+        Assert.assertTrue(old.isEmpty());
+
+        // Views look options up as they are requested
+        Map<String, String> server = stack.getSection("server");
+        vendor.getSections().get("server").put("port", "82");
+        Assert.assertEquals("82", server.get("port"));
+        Assert.assertEquals(Arrays.asList("port", "host"), Arrays.asList(server.keySet().toArray()));
+
+        vendor.getSections().remove("server");
+        Assert.assertEquals(Arrays.asList("server"), Arrays.asList(stack.getSectionNames().toArray()));
+        site.getSections().remove("server");
+        Assert.assertFalse(stack.getSectionNames().contains("server"));
+    }
+
+    @Test
+    public void inheritedValuesResolvedByOwningLayer() throws Exception
+    {
+        Ini vendor = parse("[DEFAULT]\nhost = localhost\nurl = http://${host}/\n[server]\nhost = db1\n");
+        Ini site = parse("[server]\nport = 8080\n[client]\nretries = 3\n");
+        IniStack stack = new IniStack(Arrays.asList(vendor, site));
+
+        Assert.assertEquals("http://db1/", stack.getValue("server", "url"));
+        Assert.assertEquals("http://localhost/", stack.getValue("client", "url"));
+        Assert.assertEquals("http://localhost/", stack.getValue("DEFAULT", "url"));
+    }
+
+    @Test
+    public void layersShareDefaultSection() throws Exception
+    {
+        Ini common = new Ini(new IniFormat.Builder().setDefaultSection("common").build()).read("[common]\na = 1\n");
+        IniStack stack = new IniStack().push(common);
+        Assert.assertEquals("common", stack.getDefaultSection());
+
+        try
+        {
+            stack.push(parse("[a]\nb = 2\n"));
+            Assert.fail("Did not reject a layer with another default section");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+        Assert.assertEquals(1, stack.getLayers().size());
+
+        stack.set(0, parse("[a]\nb = 2\n"));
+        Assert.assertEquals("DEFAULT", stack.getDefaultSection());
+    }
+
+    @Test
+    public void replaceLayers() throws Exception
+    {
+        Ini vendor = parse("[server]\nport = 80\n");
+        Ini site = parse("[server]\nport = 8080\n[old]\nkey = value\n");
+        IniStack stack = new IniStack().push(vendor).push(site);
+
+        stack.set(1, parse("[new]\nkey = value\n"));
+        Assert.assertEquals("80", stack.getValue("server", "port"));
+        Assert.assertNull(stack.getSection("old"));
+        Assert.assertEquals("value", stack.getValue("new", "key"));
+
+        // The replaced layer is no longer followed
+        site.getSections().get("server").put("port", "8081");
+        Assert.assertEquals("80", stack.getValue("server", "port"));
+    }
+}
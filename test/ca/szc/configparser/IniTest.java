@@ -16,17 +16,42 @@
 package ca.szc.configparser;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import ca.szc.configparser.Ini;
+import ca.szc.configparser.IniFormat;
+import ca.szc.configparser.IniParser;
+import ca.szc.configparser.IniPosition;
+import ca.szc.configparser.OptionIndex;
+import ca.szc.configparser.PositionTracking;
+import ca.szc.configparser.SectionMap;
 import ca.szc.configparser.exceptions.DuplicateOptionError;
 import ca.szc.configparser.exceptions.DuplicateSectionError;
 import ca.szc.configparser.exceptions.IniParserException;
@@ -34,6 +59,8 @@ import ca.szc.configparser.exceptions.InterpolationMissingOptionError;
 import ca.szc.configparser.exceptions.InterpolationSyntaxError;
 import ca.szc.configparser.exceptions.InvalidLine;
 import ca.szc.configparser.exceptions.MissingSectionHeaderError;
+import ca.szc.configparser.exceptions.NoOptionError;
+import ca.szc.configparser.exceptions.NoSectionError;
 import ca.szc.configparser.exceptions.ParsingError;
 
 public class IniTest
@@ -178,6 +205,45 @@ public class IniTest
         new Ini().setAllowNoValue(true).read(cfg);
     }
 
+    @Test
+    public void changeEvents() throws IOException
+    {
+        final List<String> events = new ArrayList<>();
+        IniChangeListener listener = new IniChangeListener()
+        {
+            @Override
+            public void iniChanged(IniChangeEvent event)
+            {
+                events.add(event.toString());
+            }
+        };
+
+        Ini ini = new Ini().addChangeListener(listener);
+        ini.read("[a]\nkey = value\nref = ${key}\n[b]\nkey = value\n");
+        Assert.assertEquals(Arrays.asList("SECTION_ADDED a", "SECTION_ADDED b"), events);
+
+        events.clear();
+        ini.getSections().get("a").put("key", "other");
+        ini.getSections().get("a").put("key", "other");
+        ini.getSections().get("b").remove("key");
+        Assert.assertEquals(Arrays.asList("OPTION_CHANGED a:key old=value new=other", "OPTION_REMOVED b:key old=value"),
+                events);
+
+        events.clear();
+        ini.reload("[a]\nkey = other\nref = ${key}\n[c]\n");
+        Assert.assertEquals(Arrays.asList("SECTION_REMOVED b", "OPTION_CHANGED a:ref old=value new=other",
+                "SECTION_ADDED c"), events);
+
+        events.clear();
+        ini.reload("[a]\nkey = other\nref = ${key}\n[c]\nnew = 1\n");
+        Assert.assertEquals(Arrays.asList("OPTION_ADDED c:new new=1"), events);
+
+        events.clear();
+        ini.removeChangeListener(listener);
+        ini.getSections().remove("a");
+        Assert.assertTrue(events.isEmpty());
+    }
+
     @Test
     public void checkAgainstReferenceImpl() throws IOException
     {
@@ -186,6 +252,60 @@ public class IniTest
         Assert.assertTrue("The outputs of python and java differ", compareOutputs(cfg));
     }
 
+    @Test
+    public void checkDefaultSectionAgainstReferenceImpl() throws IOException
+    {
+        Path cfg = resourcesRoot.resolve("default-section.cfg");
+
+        Assert.assertTrue("The outputs of python and java differ", compareOutputs(cfg));
+    }
+
+    @Test
+    public void defaultSection() throws IOException, NoSectionError, NoOptionError
+    {
+        Path cfg = resourcesRoot.resolve("default-section.cfg");
+
+        Ini ini = new Ini().read(cfg);
+
+        // Own values take precedence
+        Assert.assertEquals("/var/srv", ini.getValue("server", "path"));
+        // Inherited values are interpolated in the context of the inheriting section
+        Assert.assertEquals("/var/web", ini.getValue("web", "path"));
+        Assert.assertEquals("hello web", ini.getValue("web", "greeting"));
+        Assert.assertEquals("/opt/default", ini.getValue("db", "path"));
+        Assert.assertEquals("example.com:5432", ini.getValue("db", "url"));
+        Assert.assertEquals("/var/default", ini.getValue("DEFAULT", "path"));
+
+        // Defaults are not copied into sections
+        Assert.assertFalse(ini.getSections().get("web").containsKey("root"));
+
+        Map<String, String> web = ini.getSection("web");
+        Assert.assertEquals(Arrays.asList("name", "root", "path", "greeting"), new ArrayList<>(web.keySet()));
+        Assert.assertEquals("/var/web", web.get("path"));
+        Assert.assertNull(ini.getSection("missing"));
+
+        try
+        {
+            ini.getValue("web", "port");
+            Assert.fail("Did not throw NoOptionError");
+        }
+        catch (NoOptionError e)
+        {
+            // Expected
+        }
+
+        Ini noDefaults = new Ini().setDefaultSection(null).setAllowInterpolation(false).read(cfg);
+        try
+        {
+            noDefaults.getValue("web", "root");
+            Assert.fail("Did not throw NoOptionError");
+        }
+        catch (NoOptionError e)
+        {
+            // Expected
+        }
+    }
+
     @Test
     public void disallowDuplicates() throws IOException
     {
@@ -210,6 +330,73 @@ public class IniTest
         readWithExpectedErrors(cfg, expectedErrors);
     }
 
+    @Test
+    public void editInterpolation() throws IOException, NoSectionError, NoOptionError
+    {
+        final Ini ini = new Ini().setAllowInterpolation(true).read(
+                "[DEFAULT]\nbase = /opt\n[a]\nb = 1\nc = ${b}\nd = ${c}x\ne = plain\n[app]\npath = ${base}/app\n");
+        final List<String> events = new ArrayList<>();
+        ini.addChangeListener(new IniChangeListener()
+        {
+            @Override
+            public void iniChanged(IniChangeEvent event)
+            {
+                events.add(event.toString());
+            }
+        });
+
+        ini.edit(new IniEditor()
+        {
+            @Override
+            public void edit(IniBatch batch)
+            {
+                batch.set("a", "b", "2").set("DEFAULT", "base", "/srv").set("new", "ref", "${a:d}");
+            }
+        });
+        Assert.assertEquals("2x", ini.getValue("a", "d"));
+        Assert.assertEquals("/srv/app", ini.getValue("app", "path"));
+        Assert.assertEquals("2x", ini.getValue("new", "ref"));
+        Assert.assertEquals(Arrays.asList("OPTION_CHANGED a:b old=1 new=2",
+                "OPTION_CHANGED DEFAULT:base old=/opt new=/srv", "SECTION_ADDED new", "OPTION_ADDED new:ref new=2x",
+                "OPTION_CHANGED a:c old=1 new=2",
+                "OPTION_CHANGED a:d old=1x new=2x", "OPTION_CHANGED app:path old=/opt/app new=/srv/app"), events);
+
+        // Nothing is changed when a reference can't be resolved
+        events.clear();
+        try
+        {
+            ini.edit(new IniEditor()
+            {
+                @Override
+                public void edit(IniBatch batch)
+                {
+                    batch.set("a", "e", "changed").remove("a", "b");
+                }
+            });
+            Assert.fail("Did not throw IniParserException");
+        }
+        catch (IniParserException e)
+        {
+            // a:c refers to a:b directly, a:d and new:ref through a:c
+            Assert.assertEquals(3, e.getParsingErrors().size());
+            for (ParsingError error : e.getParsingErrors())
+                Assert.assertTrue(error instanceof InterpolationMissingOptionError);
+        }
+        Assert.assertTrue(events.isEmpty());
+        Assert.assertEquals("plain", ini.getValue("a", "e"));
+
+        // References are written, unless the value was replaced directly
+        ini.getSections().get("a").put("d", "literal");
+        StringWriter out = new StringWriter();
+        BufferedWriter writer = new BufferedWriter(out);
+        ini.write(writer);
+        writer.flush();
+        String written = out.toString();
+        Assert.assertTrue(written, written.contains("c = ${b}"));
+        Assert.assertTrue(written, written.contains("d = literal"));
+        Assert.assertTrue(written, written.contains("ref = ${a:d}"));
+    }
+
     @Test
     public void emptyLinesInValues() throws IOException
     {
@@ -218,6 +405,99 @@ public class IniTest
         new Ini().read(cfg);
     }
 
+    @Test
+    public void emptyLinesInValuesJoined() throws IOException
+    {
+        Path cfg = resourcesRoot.resolve("docs-example-emptylines.cfg");
+
+        Ini ini = new Ini().read(cfg);
+        Map<String, String> section = ini.getSections().get("All Values Are Strings");
+
+        Assert.assertEquals("strings\n\nmultiline1\n\n\nmultiline2",
+                section.get("integers, floats and booleans are held as"));
+        Assert.assertEquals("I'm a lumberjack, and I'm okay\nI sleep all night and I work all day",
+                ini.getSections().get("Multiline Values").get("chorus"));
+        Assert.assertEquals("", ini.getSections().get("No Values").get("empty string value here"));
+
+        // Values read through iteration are the same as through get
+        for (Map.Entry<String, String> entry : section.entrySet())
+            Assert.assertEquals(section.get(entry.getKey()), entry.getValue());
+    }
+
+    @Test
+    public void freeze() throws IOException, NoSectionError, NoOptionError
+    {
+        final Ini ini = new Ini().read("[a]\nkey = value\n[b]\n").freeze();
+        Assert.assertTrue(ini.isFrozen());
+        for (Map<String, String> frozen : ini.getSections().values())
+            Assert.assertTrue(((SectionMap) frozen).isContentHashed());
+        Assert.assertEquals("value", ini.getValue("a", "key"));
+
+        final Map<String, String> section = ini.getSections().get("a");
+        List<Runnable> changes = Arrays.<Runnable> asList(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ini.getSections().remove("b");
+            }
+        }, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                section.put("key", "other");
+            }
+        }, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                section.entrySet().iterator().next().setValue("other");
+            }
+        }, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ini.setAllowNoValue(true);
+            }
+        });
+        for (Runnable change : changes)
+        {
+            try
+            {
+                change.run();
+                Assert.fail();
+            }
+            catch (UnsupportedOperationException e)
+            {
+            }
+        }
+        try
+        {
+            ini.read("[c]\n");
+            Assert.fail();
+        }
+        catch (UnsupportedOperationException e)
+        {
+        }
+        Assert.assertEquals("value", ini.getValue("a", "key"));
+        Assert.assertEquals(2, ini.getSections().size());
+    }
+
+    @Test
+    public void inlineComments() throws IOException
+    {
+        String text = "[section]\nkey = value ; comment\nother = a;b # comment\n";
+
+        Ini ini = new Ini().setInlineCommentPrefixes(Arrays.asList(";", "#"))
+                .read(new BufferedReader(new StringReader(text)));
+
+        Assert.assertEquals("value", ini.getSections().get("section").get("key"));
+        Assert.assertEquals("a;b", ini.getSections().get("section").get("other"));
+    }
+
     @Test
     public void interpolationErrors() throws IOException
     {
@@ -278,6 +558,283 @@ public class IniTest
         readWithExpectedErrors(new Ini().setEmptyLinesInValues(false), cfg, expectedErrors);
     }
 
+    @Test
+    public void optionIndex() throws IOException
+    {
+        for (OptionIndex optionIndex : OptionIndex.values())
+        {
+            String text = "[a]\nenabled = true\n[b]\nenabled = false\n[c]\nEnabled = true\n";
+            Ini ini = new Ini().setOptionIndex(optionIndex).read(new BufferedReader(new StringReader(text)));
+            Assert.assertEquals(optionIndex, ini.getOptionIndex());
+            Assert.assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(ini.getSectionsWithOption("enabled")));
+            Assert.assertEquals(Arrays.asList("a", "c"), new ArrayList<>(ini.getSectionsWithValue("Enabled", "true")));
+
+            ini.getSections().get("a").put("enabled", "false");
+            ini.getSections().get("b").remove("enabled");
+            Map<String, String> d = new LinkedHashMap<>();
+            d.put("enabled", "true");
+            ini.getSections().put("d", d);
+            d.put("enabled", "false");
+            Assert.assertEquals(Arrays.asList("a", "c", "d"), new ArrayList<>(ini.getSectionsWithOption("enabled")));
+            Assert.assertEquals(Arrays.asList("c", "d"), new ArrayList<>(ini.getSectionsWithValue("enabled", "true")));
+
+            ini.getSections().remove("c");
+            Assert.assertEquals(Arrays.asList("d"), new ArrayList<>(ini.getSectionsWithValue("enabled", "true")));
+            Assert.assertTrue(ini.getSectionsWithOption("missing").isEmpty());
+        }
+    }
+
+    @Test
+    public void positionTracking() throws IOException, IniParserException
+    {
+        String text = "[DEFAULT]\nbase = /opt\n[a]\n  path = ${base}/a\nmulti = one\n    two\n[b]\nbroken = ${missing}\n";
+
+        Ini ini = new Ini().setPositionTracking(PositionTracking.FULL).setAllowInterpolation(false);
+        ini.read(text);
+        Assert.assertEquals(PositionTracking.FULL, ini.getPositionTracking());
+        Assert.assertEquals(new IniPosition(4, 3, 28), ini.getPosition("a", "Path"));
+        Assert.assertEquals(new IniPosition(5, 1, 45), ini.getPosition("a", "multi"));
+        // Inherited from the default section
+        Assert.assertEquals(new IniPosition(2, 1, 10), ini.getPosition("a", "base"));
+        Assert.assertNull(ini.getPosition("a", "missing"));
+        Assert.assertNull(ini.getPosition("missing", "path"));
+
+        ini.edit(new IniEditor()
+        {
+            @Override
+            public void edit(IniBatch batch)
+            {
+                batch.set("a", "multi", "three");
+            }
+        });
+        Assert.assertNull(ini.getPosition("a", "multi"));
+        Assert.assertEquals(new IniPosition(4, 3, 28), ini.getPosition("a", "path"));
+
+        // Reloading moves the positions of unchanged options too
+        ini.reload("\n" + text);
+        Assert.assertEquals(new IniPosition(5, 3, 29), ini.getPosition("a", "path"));
+        Assert.assertEquals(new IniPosition(6, 1, 46), ini.getPosition("a", "multi"));
+
+        ini = new Ini().setAllowInterpolation(false).read(text);
+        Assert.assertEquals(PositionTracking.LINE, ini.getPositionTracking());
+        Assert.assertEquals(new IniPosition(4, 0, -1), ini.getPosition("a", "path"));
+
+        ini = new Ini().setPositionTracking(PositionTracking.NONE).setAllowInterpolation(false);
+        ini.read(text);
+        Assert.assertNull(ini.getPosition("a", "path"));
+
+        // Interpolation errors report the line only if it was tracked
+        for (PositionTracking tracking : PositionTracking.values())
+        {
+            try
+            {
+                new Ini().setPositionTracking(tracking).read(text);
+                Assert.fail();
+            }
+            catch (IniParserException ex)
+            {
+                int expected = tracking == PositionTracking.NONE ? 0 : 8;
+                Assert.assertEquals(expected, ex.getParsingErrors().get(0).getLineNo());
+            }
+        }
+
+        // Sections larger than the linear search limit keep positions through compaction
+        StringBuilder sb = new StringBuilder("[big]\n");
+        for (int i = 0; i < 40; i++)
+            sb.append("option").append(i).append(" = ").append(i).append('\n');
+        ini = new Ini().setPositionTracking(PositionTracking.FULL).read(sb);
+        ini.getSections().get("big").remove("option3");
+        for (int i = 40; i < 80; i++)
+            ini.getSections().get("big").put("option" + i, "added");
+        Assert.assertEquals(40, ini.getPosition("big", "option38").getLine());
+        Assert.assertNull(ini.getPosition("big", "option3"));
+        Assert.assertNull(ini.getPosition("big", "option50"));
+    }
+
+    @Test
+    public void readBytes() throws IOException, NoSectionError, NoOptionError
+    {
+        byte[] ascii = "[a]\nkey = value\n  continued\n".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals("value\ncontinued", new Ini().read(ascii).getValue("a", "key"));
+
+        byte[] bom = "\uFEFF[a]\nkey = value\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals("value", new Ini().read(bom).getValue("a", "key"));
+
+        byte[] utf8 = "[a]\nkey = välue\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals("välue", new Ini().read(utf8).getValue("a", "key"));
+
+        byte[] latin1 = "[a]\nkey = välue\n".getBytes(StandardCharsets.ISO_8859_1);
+        Assert.assertEquals("välue", new Ini().read(latin1, StandardCharsets.ISO_8859_1).getValue("a", "key"));
+
+        byte[] utf16 = "[a]\nkey = välue\n".getBytes(StandardCharsets.UTF_16);
+        Assert.assertEquals("välue", new Ini().read(utf16, StandardCharsets.UTF_16).getValue("a", "key"));
+
+        try
+        {
+            new Ini().read(latin1);
+            Assert.fail("Did not reject invalid UTF-8");
+        }
+        catch (CharacterCodingException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void readByteBuffer() throws IOException, NoSectionError, NoOptionError
+    {
+        byte[] bytes = "ignored[a]\nkey = value\n".getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        heap.position(7);
+        Assert.assertEquals("value", new Ini().read(heap.slice()).getValue("a", "key"));
+        Assert.assertEquals("value", new Ini().read(heap).getValue("a", "key"));
+        Assert.assertEquals("Position was changed", 7, heap.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).position(7);
+        Assert.assertEquals("value", new Ini().read(direct).getValue("a", "key"));
+    }
+
+    @Test
+    public void readCopiesBytes() throws IOException, NoSectionError, NoOptionError
+    {
+        byte[] bytes = "[a]\nkey = value\n".getBytes(StandardCharsets.UTF_8);
+        Ini ini = new Ini().read(bytes);
+        Ini buffered = new Ini().read(ByteBuffer.wrap(bytes), StandardCharsets.UTF_8);
+        Ini parsed = new IniParser(IniFormat.DEFAULT).parse(bytes);
+        Arrays.fill(bytes, 10, 15, (byte) 'x');
+
+        Assert.assertEquals("value", ini.getValue("a", "key"));
+        Assert.assertEquals("value", buffered.getValue("a", "key"));
+        Assert.assertEquals("value", parsed.getValue("a", "key"));
+    }
+
+    @Test
+    public void readZeroCopy() throws IOException, NoSectionError, NoOptionError
+    {
+        byte[] bytes = "[a]\nkey = value\n".getBytes(StandardCharsets.UTF_8);
+        Ini ini = new Ini().readZeroCopy(bytes, StandardCharsets.UTF_8);
+        Ini buffered = new Ini().readZeroCopy(ByteBuffer.wrap(bytes), StandardCharsets.UTF_8);
+
+        Assert.assertEquals("value", ini.getValue("a", "key"));
+        Assert.assertEquals("value", buffered.getValue("a", "key"));
+    }
+
+    @Test
+    public void readWriteGzip() throws IOException
+    {
+        Path cfg = resourcesRoot.resolve("docs-example.cfg");
+        Path outputCfg = outputRoot.resolve("docs-example.cfg.gz");
+
+        Ini ini = new Ini().setAllowNoValue(true).read(cfg);
+        ini.write(outputCfg, StandardCharsets.UTF_8, Compression.GZIP);
+
+        byte[] bytes = Files.readAllBytes(outputCfg);
+        Assert.assertEquals(Compression.GZIP, Compression.detect(bytes, 0, bytes.length));
+        Assert.assertEquals(ini.getSections(), new Ini().setAllowNoValue(true).read(outputCfg).getSections());
+        try (InputStream in = Files.newInputStream(outputCfg))
+        {
+            Assert.assertEquals(ini.getSections(), new Ini().setAllowNoValue(true).read(in).getSections());
+        }
+
+        outputCfg.toFile().delete();
+    }
+
+    @Test
+    public void readInputStream() throws IOException, NoSectionError, NoOptionError
+    {
+        // Larger than the initial read buffer
+        StringBuilder sb = new StringBuilder("[a]\n");
+        for (int i = 0; i < 2000; i++)
+            sb.append("key").append(i).append(" = välue").append(i).append('\n');
+        InputStream in = new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        Ini ini = new Ini().read(in, StandardCharsets.UTF_8);
+
+        Assert.assertEquals("välue0", ini.getValue("a", "key0"));
+        Assert.assertEquals("välue1999", ini.getValue("a", "key1999"));
+    }
+
+    @Test
+    public void readCharSequence() throws IOException, NoSectionError, NoOptionError
+    {
+        CharBuffer buffer = CharBuffer.wrap("ignored[a]\r\nkey = one\r\n  two\r[b]\nkey=three\n");
+        buffer.position(7);
+
+        Ini ini = new Ini().read(buffer);
+        // Moving the caller's buffer does not affect unread values
+        buffer.position(0);
+
+        Assert.assertEquals("one\ntwo", ini.getValue("a", "key"));
+        Assert.assertEquals("three", ini.getValue("b", "key"));
+    }
+
+    @Test
+    public void sectionNameQueries() throws IOException
+    {
+        for (boolean indexed : new boolean[] { false, true })
+        {
+            String text = "[server.eu.web02]\n[server.eu.web01]\n[server.us.web01]\n[servers]\n[client]\n";
+            Ini ini = new Ini().setIndexSectionNames(indexed).read(new BufferedReader(new StringReader(text)));
+            Assert.assertEquals(indexed, ini.isIndexSectionNames());
+            Assert.assertEquals(Arrays.asList("server.eu.web01", "server.eu.web02"),
+                    new ArrayList<>(ini.getSectionsWithPrefix("server.eu.")));
+            Assert.assertEquals(Arrays.asList("server.eu.web01", "server.us.web01"),
+                    new ArrayList<>(ini.getSectionsMatching("server.*.web01")));
+            Assert.assertEquals(Arrays.asList("server.eu.web01", "server.eu.web02", "server.us.web01"),
+                    new ArrayList<>(ini.getSectionsMatching("server.[!a]?.*")));
+            Assert.assertEquals(5, ini.getSectionsWithPrefix("").size());
+
+            ini.getSections().remove("server.eu.web02");
+            ini.getSections().put("server.eu.web03", new LinkedHashMap<String, String>());
+            Assert.assertEquals(Arrays.asList("server.eu.web01", "server.eu.web03"),
+                    new ArrayList<>(ini.getSectionsWithPrefix("server.eu")));
+            Assert.assertEquals(Arrays.asList("server.eu.web01", "server.us.web01", "servers", "client",
+                    "server.eu.web03"), new ArrayList<>(ini.getSections().keySet()));
+        }
+    }
+
+    @Test
+    public void writeChannel() throws IOException
+    {
+        // More sections than one batch, with a default section, continuations and interpolated values
+        String text = "[DEFAULT]\nshared = ${option0} everywhere\nbare\n\n"
+                + new IniCorpus().setSections(ParallelWriter.BATCH_SECTIONS * 2 + 100).setInterpolation(2, 1)
+                        .setContinuationRatio(0.3).generate();
+        Ini ini = new Ini().setAllowNoValue(true).read(text);
+        ini.getSections().get("section.3.3").put("unicode", "\u00e9t\u00e9 \u65e5\u672c");
+
+        for (Charset charset : Arrays.asList(StandardCharsets.UTF_8, StandardCharsets.UTF_16))
+        {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(expected, charset.newEncoder())))
+            {
+                ini.write(writer);
+            }
+
+            Path output = outputRoot.resolve("write-channel.cfg");
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                ini.write(channel, charset);
+            }
+            Assert.assertArrayEquals(charset.name(), expected.toByteArray(), Files.readAllBytes(output));
+        }
+
+        // Encoding errors are reported, like when writing through an encoder
+        try (FileChannel channel = FileChannel.open(outputRoot.resolve("write-channel.cfg"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ini.write(channel, StandardCharsets.US_ASCII);
+            Assert.fail();
+        }
+        catch (CharacterCodingException e)
+        {
+            // Expected
+        }
+    }
+
     @Test
     public void writeInterpolation() throws IOException
     {
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SectionMapTest
+{
+    /**
+     * Make the same random changes to a section and a LinkedHashMap, and check they agree after each one
+     */
+    private static void compareWithLinkedHashMap(int optionNames, int changes, long seed)
+    {
+        Random random = new Random(seed);
+        SectionMap section = new SectionMap();
+        Map<String, String> expected = new LinkedHashMap<>();
+        for (int i = 0; i < changes; i++)
+        {
+            String key = "option" + random.nextInt(optionNames);
+            String value = "value" + i;
+            switch (random.nextInt(5))
+            {
+                case 0:
+                    Assert.assertEquals(expected.remove(key), section.remove(key));
+                    break;
+                case 1:
+                    Iterator<Map.Entry<String, String>> iter = section.entrySet().iterator();
+                    if (iter.hasNext())
+                    {
+                        String removed = iter.next().getKey();
+                        iter.remove();
+                        expected.remove(removed);
+                    }
+                    break;
+                case 2:
+                    for (Map.Entry<String, String> entry : section.entrySet())
+                    {
+                        if (entry.getKey().equals(key))
+                        {
+                            entry.setValue(value);
+                            expected.put(key, value);
+                        }
+                    }
+                    break;
+                default:
+                    Assert.assertEquals(expected.put(key, value), section.put(key, value));
+                    break;
+            }
+            Assert.assertEquals(expected.size(), section.size());
+            Assert.assertEquals(expected.get(key), section.get(key));
+            Assert.assertEquals(expected.containsKey(key), section.containsKey(key));
+        }
+        Assert.assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(section.entrySet()));
+        Assert.assertEquals(expected, section);
+        Assert.assertEquals(expected.hashCode(), section.hashCode());
+    }
+
+    @Test
+    public void compareWithLinkedHashMap()
+    {
+        // Small sections are searched linearly, large ones are indexed
+        compareWithLinkedHashMap(SectionMap.LINEAR_LIMIT, 2000, 1);
+        compareWithLinkedHashMap(100, 20000, 2);
+        compareWithLinkedHashMap(1000, 20000, 3);
+    }
+
+    @Test
+    public void compactLayout()
+    {
+        SectionMap section = new SectionMap();
+        Assert.assertEquals(0, section.capacity());
+
+        // Typical sections fit in the first arrays and are searched without an index
+        for (int i = 0; i < SectionMap.LINEAR_LIMIT; i++)
+            section.put("option" + i, "value");
+        Assert.assertEquals(SectionMap.LINEAR_LIMIT, section.capacity());
+        Assert.assertFalse(section.isIndexed());
+
+        // Once at least half of the slots are empty, they are reused instead of growing the arrays
+        for (int i = 0; i < SectionMap.LINEAR_LIMIT / 2; i++)
+            section.remove("option" + i);
+        for (int i = 0; i < SectionMap.LINEAR_LIMIT / 2; i++)
+            section.put("new" + i, "value");
+        Assert.assertEquals(SectionMap.LINEAR_LIMIT, section.capacity());
+
+        // Removing and adding options indefinitely doesn't grow a section past twice its size
+        for (int i = 0; i < 1000; i++)
+        {
+            section.remove(section.keySet().iterator().next());
+            section.put("churn" + i, "value");
+            Assert.assertEquals(SectionMap.LINEAR_LIMIT, section.size());
+            Assert.assertTrue(section.capacity() <= SectionMap.LINEAR_LIMIT * 2);
+        }
+
+        // Larger sections double their arrays and are indexed
+        section.clear();
+        for (int i = 0; i <= SectionMap.LINEAR_LIMIT; i++)
+            section.put("option" + i, "value");
+        Assert.assertEquals(SectionMap.LINEAR_LIMIT * 2, section.capacity());
+        Assert.assertTrue(section.isIndexed());
+        for (int i = 0; i <= SectionMap.LINEAR_LIMIT; i++)
+            Assert.assertEquals("value", section.get("option" + i));
+    }
+
+    @Test
+    public void contentHash()
+    {
+        SectionMap section = new SectionMap();
+        for (int i = 0; i < 20; i++)
+            section.put("option" + i, "value" + i);
+        long contentHash = section.contentHash();
+
+        SectionMap other = new SectionMap();
+        for (int i = 19; i >= 0; i--)
+            other.put("option" + i, "value" + i);
+        Assert.assertEquals(contentHash, other.contentHash());
+        Assert.assertFalse(section.contentEquals(other));
+
+        for (int i = 0; i < 20; i += 2)
+            section.remove("option" + i);
+        for (int i = 0; i < 20; i += 2)
+            section.put("option" + i, "value" + i);
+        Assert.assertEquals(contentHash, section.contentHash());
+
+        section.clear();
+        Assert.assertTrue(section.isEmpty());
+        Assert.assertEquals(0, section.contentHash());
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iteratorFailsFast()
+    {
+        SectionMap section = new SectionMap();
+        section.put("a", "1");
+        section.put("b", "2");
+        for (String key : section.keySet())
+            section.put(key + key, "3");
+    }
+}
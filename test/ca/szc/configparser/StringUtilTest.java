@@ -49,4 +49,32 @@ public class StringUtilTest
         Assert.assertEquals("Did not remove all from 2 whitespace string", "", StringUtil.strip("  "));
         Assert.assertEquals("Did not remove all from 1 whitespace string", "", StringUtil.strip(" "));
     }
+
+    @Test
+    public void testStripEnd()
+    {
+        Assert.assertEquals("Did not stop at last non-whitespace", 4, StringUtil.stripEnd(" a b  \t", 0, 7));
+        Assert.assertEquals("Did not respect range end", 2, StringUtil.stripEnd(" a b  \t", 0, 3));
+        Assert.assertEquals("Did not return start for whitespace range", 4, StringUtil.stripEnd("ab   cd", 4, 5));
+        Assert.assertEquals("Did not handle empty range", 3, StringUtil.stripEnd("abc", 3, 3));
+    }
+
+    @Test
+    public void testStripStart()
+    {
+        Assert.assertEquals("Did not stop at first non-whitespace", 2, StringUtil.stripStart(" \tab ", 0, 5));
+        Assert.assertEquals("Did not respect range start", 3, StringUtil.stripStart("a  b", 1, 4));
+        Assert.assertEquals("Did not return end for whitespace range", 3, StringUtil.stripStart("a  b", 1, 3));
+        Assert.assertEquals("Did not handle empty range", 0, StringUtil.stripStart("abc", 0, 0));
+    }
+
+    @Test
+    public void testTranslateGlob()
+    {
+        Assert.assertEquals("Did not translate wildcards", "a\\..*\\.b.", StringUtil.translateGlob("a.*.b?"));
+        Assert.assertEquals("Did not translate sets", "[^a-c][\\]x]", StringUtil.translateGlob("[!a-c][]x]"));
+        Assert.assertEquals("Did not treat unterminated set as literal", "\\[ab", StringUtil.translateGlob("[ab"));
+        Assert.assertTrue("Did not match across lines",
+                "x\ny".matches("(?s)" + StringUtil.translateGlob("x*")));
+    }
 }
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser.binding;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.szc.configparser.Ini;
+import ca.szc.configparser.exceptions.InvalidValueError;
+import ca.szc.configparser.exceptions.NoOptionError;
+
+public class BindingProcessorTest
+{
+    public enum Mode
+    {
+        PRIMARY, REPLICA
+    }
+
+    @IniSection("db")
+    public interface DbConfig
+    {
+        String host();
+
+        @IniOption("max_connections")
+        int maxConnections();
+
+        @IniOption(fallback = "primary")
+        Mode mode();
+
+        @IniOption(fallback = "5432")
+        Integer port();
+
+        boolean ssl();
+
+        double timeout();
+    }
+
+    @IniSection("motd")
+    interface Motd
+    {
+        @IniOption(fallback = "Welcome\r\n\tto \"db1\"\b\f\001\u00e9")
+        String text();
+    }
+
+    @IniSection("a")
+    interface Names
+    {
+        String value();
+
+        @IniOption("sectionname")
+        String sectionName();
+    }
+
+    private static final String DB = "[DEFAULT]\ntimeout = 2.5\n\n[db]\nhost = db1\nmax_connections = 20\nssl = yes\n";
+
+    /**
+     * Run the processor on one source file
+     *
+     * @return the error messages
+     */
+    private static List<String> compile(String className, String source) throws IOException
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Path output = Files.createTempDirectory("binding");
+        final String code = source;
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"),
+                JavaFileObject.Kind.SOURCE)
+        {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors)
+            {
+                return code;
+            }
+        };
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = Arrays.asList("-proc:only", "-s", output.toString(), "-classpath",
+                Paths.get("target", "classes").toString());
+        CompilationTask task = compiler.getTask(null, null, diagnostics, options, null, Arrays.asList(file));
+        task.setProcessors(Arrays.asList(new BindingProcessor()));
+        task.call();
+
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                errors.add(diagnostic.getMessage(null));
+        return errors;
+    }
+
+    @Test
+    public void bind() throws Exception
+    {
+        Ini ini = new Ini().read(DB);
+
+        DbConfig config = BindingProcessorTest_DbConfigBinder.bind(ini);
+        Assert.assertEquals("db1", config.host());
+        Assert.assertEquals(20, config.maxConnections());
+        Assert.assertEquals(Mode.PRIMARY, config.mode());
+        Assert.assertEquals(Integer.valueOf(5432), config.port());
+        Assert.assertTrue(config.ssl());
+        Assert.assertEquals(2.5, config.timeout(), 0);
+        Assert.assertEquals("db", BindingProcessorTest_DbConfigBinder.SECTION);
+
+        ini.read("[replica]\nhost = db2\nmax_connections = 5\nssl = off\nmode = Replica\nport = 5433\n");
+        DbConfig replica = BindingProcessorTest_DbConfigBinder.bind(ini, "replica");
+        Assert.assertEquals(Mode.REPLICA, replica.mode());
+        Assert.assertEquals(Integer.valueOf(5433), replica.port());
+        Assert.assertFalse(replica.ssl());
+
+        // Method names that clash with the binder's own names
+        Names names = BindingProcessorTest_NamesBinder.bind(new Ini().read("[a]\nvalue = 1\nsectionname = 2\n"));
+        Assert.assertEquals("1", names.value());
+        Assert.assertEquals("2", names.sectionName());
+    }
+
+    @Test
+    public void bindControlCharacters() throws Exception
+    {
+        Motd motd = BindingProcessorTest_MotdBinder.bind(new Ini().read("[motd]\n"));
+        Assert.assertEquals("Welcome\r\n\tto \"db1\"\b\f\001\u00e9", motd.text());
+    }
+
+    @Test
+    public void bindErrors() throws Exception
+    {
+        try
+        {
+            BindingProcessorTest_DbConfigBinder.bind(new Ini().read("[db]\nhost = db1\n"));
+            Assert.fail();
+        }
+        catch (NoOptionError e)
+        {
+            Assert.assertEquals("max_connections", e.getOption());
+        }
+
+        try
+        {
+            BindingProcessorTest_DbConfigBinder.bind(new Ini().read(DB.replace("20", "twenty")));
+            Assert.fail();
+        }
+        catch (InvalidValueError e)
+        {
+            Assert.assertEquals("max_connections", e.getOption());
+            Assert.assertEquals("twenty", e.getValue());
+            Assert.assertEquals("int", e.getType());
+        }
+    }
+
+    @Test
+    public void compileErrors() throws IOException
+    {
+        Assert.assertEquals(Arrays.<String> asList(), compile("p.Valid",
+                "package p; @ca.szc.configparser.binding.IniSection(\"s\") public interface Valid { long size(); }"));
+
+        List<String> errors = compile("p.Invalid", "package p;\n"
+                + "import ca.szc.configparser.binding.*;\n"
+                + "@IniSection(\"s\") public interface Invalid {\n"
+                + "  Object object();\n"
+                + "  String withParameter(int i);\n"
+                + "  @IniOption(fallback = \"ten\") int count();\n"
+                + "  @IniOption(\"object\") String other();\n"
+                + "  @IniSection(\"t\") class Bean { }\n"
+                + "  @IniSection(\"u\") enum NotAType { A }\n"
+                + "}\n");
+        Assert.assertEquals(Arrays.asList("Can't bind an option to java.lang.Object",
+                "Bound methods must not take parameters", "Fallback 'ten' is not a valid int",
+                "@IniSection can only be applied to interfaces and classes"), errors);
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser.binding;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.szc.configparser.Ini;
+import ca.szc.configparser.exceptions.InvalidValueError;
+import ca.szc.configparser.exceptions.NoSectionError;
+
+public class IniBinderTest
+{
+    @IniSection("pool")
+    public static class Pool
+    {
+        public int size;
+
+        @IniOption(fallback = "false")
+        public boolean warm;
+    }
+
+    @IniSection("server")
+    public static class Server
+    {
+        private String host;
+
+        private int port;
+
+        private Map<String, Pool> pools;
+
+        private Tls tls;
+
+        public String getHost()
+        {
+            return host;
+        }
+
+        public void setHost(String host)
+        {
+            this.host = host;
+        }
+
+        @IniOption("listen_port")
+        public void setPort(int port)
+        {
+            this.port = port;
+        }
+
+        public void setPools(Map<String, Pool> pools)
+        {
+            this.pools = pools;
+        }
+
+        public void setTls(Tls tls)
+        {
+            this.tls = tls;
+        }
+
+        // Not bound, Object is not supported
+        public void setAttachment(Object attachment)
+        {
+            throw new AssertionError();
+        }
+    }
+
+    @IniSection("tls")
+    public static class Tls
+    {
+        public BindingProcessorTest.Mode mode;
+
+        public Long timeout;
+    }
+
+    public static class InvalidFallback
+    {
+        @IniOption(fallback = "many")
+        public int count;
+    }
+
+    private static final String SERVER = "[DEFAULT]\ntimeout = 30\n\n"
+            + "[server]\nhost = example.com\nlisten_port = 8080\n\n"
+            + "[server.tls]\nmode = replica\n\n"
+            + "[server.pools.a]\nsize = 4\nwarm = yes\n\n"
+            + "[server.pools.b]\nsize = 8\n\n"
+            + "[server.pools.b.extra]\nsize = 1\n";
+
+    @Test
+    public void bind() throws Exception
+    {
+        IniBinder binder = new IniBinder();
+        Ini ini = new Ini().read(SERVER);
+
+        Server server = binder.bind(ini, Server.class);
+        Assert.assertEquals("example.com", server.getHost());
+        Assert.assertEquals(8080, server.port);
+        Assert.assertEquals(BindingProcessorTest.Mode.REPLICA, server.tls.mode);
+        Assert.assertEquals(Long.valueOf(30), server.tls.timeout);
+        Assert.assertEquals(Arrays.asList("a", "b"), Arrays.asList(server.pools.keySet().toArray()));
+        Assert.assertEquals(4, server.pools.get("a").size);
+        Assert.assertTrue(server.pools.get("a").warm);
+        Assert.assertEquals(8, server.pools.get("b").size);
+        Assert.assertFalse(server.pools.get("b").warm);
+
+        // Binding again sees the new values
+        ini.reload(SERVER.replace("8080", "8081"));
+        Assert.assertEquals(8081, binder.bind(ini, Server.class).port);
+
+        Pool pool = binder.bind(ini, "server.pools.b.extra", Pool.class);
+        Assert.assertEquals(1, pool.size);
+
+        Ini colons = new Ini().read("[pool]\nsize = 2\n");
+        Assert.assertEquals(2, new IniBinder().setSeparator(":").bind(colons, Pool.class).size);
+    }
+
+    @Test
+    public void bindErrors() throws Exception
+    {
+        IniBinder binder = new IniBinder();
+
+        try
+        {
+            binder.bind(new Ini().read("[server]\nhost = h\nlisten_port = 1\n"), Server.class);
+            Assert.fail();
+        }
+        catch (NoSectionError e)
+        {
+            Assert.assertEquals("server.tls", e.getSectionName());
+        }
+
+        try
+        {
+            binder.bind(new Ini().read(SERVER.replace("size = 8", "size = eight")), Server.class);
+            Assert.fail();
+        }
+        catch (InvalidValueError e)
+        {
+            Assert.assertEquals("server.pools.b", e.getSectionName());
+            Assert.assertEquals("size", e.getOption());
+        }
+
+        try
+        {
+            binder.bind(new Ini().read("[a]\ncount = 1\n"), "a", InvalidFallback.class);
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+
+        try
+        {
+            binder.bind(new Ini(), InvalidFallback.class);
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2014, 2016 Red Hat Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.szc.configparser.binding;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ca.szc.configparser.exceptions.InvalidValueError;
+
+public class IniConversionsTest
+{
+    private static void assertInvalid(String type, String value) throws Exception
+    {
+        try
+        {
+            switch (type)
+            {
+                case "boolean":
+                    IniConversions.toBoolean("s", "o", value);
+                    break;
+                case "double":
+                    IniConversions.toDouble("s", "o", value);
+                    break;
+                case "int":
+                    IniConversions.toInt("s", "o", value);
+                    break;
+                default:
+                    IniConversions.toEnum(TimeUnit.class, "s", "o", value);
+                    break;
+            }
+            Assert.fail(type + " " + value);
+        }
+        catch (InvalidValueError e)
+        {
+            Assert.assertEquals(type, e.getType());
+            Assert.assertEquals(value, e.getValue());
+        }
+    }
+
+    @Test
+    public void testConversions() throws Exception
+    {
+        for (String value : new String[] { "1", "yes", "TRUE", "On" })
+            Assert.assertTrue(IniConversions.toBoolean("s", "o", value));
+        for (String value : new String[] { "0", "No", "false", "OFF" })
+            Assert.assertFalse(IniConversions.toBoolean("s", "o", value));
+        Assert.assertEquals(TimeUnit.SECONDS, IniConversions.toEnum(TimeUnit.class, "s", "o", "seconds"));
+        Assert.assertEquals(-12, IniConversions.toInt("s", "o", "-12"));
+        Assert.assertEquals(1e3, IniConversions.toDouble("s", "o", "1e3"), 0);
+
+        assertInvalid("boolean", "y");
+        assertInvalid("boolean", null);
+        assertInvalid("double", null);
+        assertInvalid("int", "1.5");
+        assertInvalid("int", null);
+        assertInvalid("TimeUnit", "eons");
+    }
+}